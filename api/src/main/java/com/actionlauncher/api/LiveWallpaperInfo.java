@@ -21,18 +21,55 @@ import android.util.Log;
 
 import com.actionlauncher.api.actionpalette.ActionPalette;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * A serializable object representing a single LiveWallpaperInfo item produced by
  * a {@link LiveWallpaperSource}.
  *
- * <p> To create an instance, use the {@link LiveWallpaperInfo.Builder} class.
+ * <p> To create an instance, use the {@link LiveWallpaperInfo.Builder} class. Instances are
+ * immutable, so their {@link Bundle} and {@link JSONObject} forms are only built once.
  */
 public class LiveWallpaperInfo {
     private static final String TAG = "Action3-api";
 
+    /**
+     * The wire format which writes each color as a decimal string under its own key. Every
+     * version of Action Launcher can read it.
+     */
+    public static final int WIRE_VERSION_LEGACY = 1;
+
+    /**
+     * The wire format which writes the colors which are set, a mask of which colors they are and
+     * the format's version as a single int array. It parcels to about a tenth of the size of
+     * {@link #WIRE_VERSION_LEGACY}, and needs no string formatting or parsing.
+     */
+    public static final int WIRE_VERSION_PACKED = 2;
+
+    // The swatches of the palette, for getColor()
+    public static final int SWATCH_VIBRANT = 0;
+    public static final int SWATCH_LIGHT_VIBRANT = 1;
+    public static final int SWATCH_DARK_VIBRANT = 2;
+    public static final int SWATCH_MUTED = 3;
+    public static final int SWATCH_LIGHT_MUTED = 4;
+    public static final int SWATCH_DARK_MUTED = 5;
+    public static final int SWATCH_COUNT = 6;
+
+    // The colors of each swatch, for getColor()
+    public static final int ROLE_RGB = 0;
+    public static final int ROLE_TITLE_TEXT = 1;
+    public static final int ROLE_BODY_TEXT = 2;
+    public static final int ROLE_COUNT = 3;
+
     private static final String KEY_TOKEN = "token";
     private static final String KEY_PALETTE_VIBRANT_RGB = "paletteVibrant";
     private static final String KEY_PALETTE_VIBRANT_TITLE_TEXT = "paletteVibrantTitleText";
@@ -52,28 +89,49 @@ public class LiveWallpaperInfo {
     private static final String KEY_PALETTE_DARK_MUTED_RGB = "paletteDarkMuted";
     private static final String KEY_PALETTE_DARK_MUTED_TITLE_TEXT = "paletteDarkMutedTitleText";
     private static final String KEY_PALETTE_DARK_MUTED_BODY_TEXT = "paletteDarkMutedBodyText";
-
-    private String mToken;
-    private Integer mPaletteVibrantRgb;
-    private Integer mPaletteVibrantTitleTextColor;
-    private Integer mPaletteVibrantBodyTextColor;
-    private Integer mPaletteLightVibrantRgb;
-    private Integer mPaletteLightVibrantTitleTextColor;
-    private Integer mPaletteLightVibrantBodyTextColor;
-    private Integer mPaletteDarkVibrantRgb;
-    private Integer mPaletteDarkVibrantTitleTextColor;
-    private Integer mPaletteDarkVibrantBodyTextColor;
-    private Integer mPaletteMutedRgb;
-    private Integer mPaletteMutedTitleTextColor;
-    private Integer mPaletteMutedBodyTextColor;
-    private Integer mPaletteLightMutedRgb;
-    private Integer mPaletteLightMutedTitleTextColor;
-    private Integer mPaletteLightMutedBodyTextColor;
-    private Integer mPaletteDarkMutedRgb;
-    private Integer mPaletteDarkMutedTitleTextColor;
-    private Integer mPaletteDarkMutedBodyTextColor;
-
-    private LiveWallpaperInfo() {
+    private static final String KEY_REGIONS = "regions";
+    private static final String KEY_PACKED_COLORS = "packed";
+    private static final String KEY_DELTA_COLORS = "delta";
+
+    // The keys of the legacy format, in the order of the colors
+    private static final String[] LEGACY_COLOR_KEYS = {
+            KEY_PALETTE_VIBRANT_RGB, KEY_PALETTE_VIBRANT_TITLE_TEXT, KEY_PALETTE_VIBRANT_BODY_TEXT,
+            KEY_PALETTE_LIGHT_VIBRANT_RGB, KEY_PALETTE_LIGHT_VIBRANT_TITLE_TEXT,
+            KEY_PALETTE_LIGHT_VIBRANT_BODY_TEXT,
+            KEY_PALETTE_DARK_VIBRANT_RGB, KEY_PALETTE_DARK_VIBRANT_TITLE_TEXT,
+            KEY_PALETTE_DARK_VIBRANT_BODY_TEXT,
+            KEY_PALETTE_MUTED_RGB, KEY_PALETTE_MUTED_TITLE_TEXT, KEY_PALETTE_MUTED_BODY_TEXT,
+            KEY_PALETTE_LIGHT_MUTED_RGB, KEY_PALETTE_LIGHT_MUTED_TITLE_TEXT,
+            KEY_PALETTE_LIGHT_MUTED_BODY_TEXT,
+            KEY_PALETTE_DARK_MUTED_RGB, KEY_PALETTE_DARK_MUTED_TITLE_TEXT,
+            KEY_PALETTE_DARK_MUTED_BODY_TEXT
+    };
+    private static final int COLOR_COUNT = SWATCH_COUNT * ROLE_COUNT;
+
+    // The first int of the packed format holds the version in its top byte and the mask of which
+    // colors follow in its low bits, followed by the colors which are set in order
+    private static final int PACKED_VERSION_SHIFT = 24;
+    private static final int PACKED_MASK = (1 << COLOR_COUNT) - 1;
+
+    private final String mToken;
+    // Every color, at swatch * ROLE_COUNT + role. A color which isn't set is 0, and its bit in
+    // mColorMask is clear.
+    private final int[] mColors;
+    private final int mColorMask;
+    private final Map<String, LiveWallpaperInfo> mRegions;
+
+    private volatile Bundle mLegacyBundle;
+    private volatile Bundle mPackedBundle;
+    private volatile JSONObject mLegacyJson;
+    private volatile JSONObject mPackedJson;
+
+    private LiveWallpaperInfo(Builder builder) {
+        mToken = builder.mToken;
+        mColors = builder.mColors.clone();
+        mColorMask = builder.mColorMask;
+        mRegions = builder.mRegions != null
+                ? new LinkedHashMap<String, LiveWallpaperInfo>(builder.mRegions)
+                : null;
     }
 
     /**
@@ -86,64 +144,123 @@ public class LiveWallpaperInfo {
         return mToken;
     }
 
+    /**
+     * Returns true if the {@code role} color of {@code swatch} is set.
+     *
+     * @param swatch one of the {@code SWATCH_} constants, such as {@link #SWATCH_VIBRANT}
+     * @param role   one of the {@code ROLE_} constants, such as {@link #ROLE_RGB}
+     */
+    public boolean hasColor(int swatch, int role) {
+        return (mColorMask & (1 << colorIndex(swatch, role))) != 0;
+    }
+
+    /**
+     * Returns the {@code role} color of {@code swatch}, or null if it isn't set.
+     *
+     * @param swatch one of the {@code SWATCH_} constants, such as {@link #SWATCH_VIBRANT}
+     * @param role   one of the {@code ROLE_} constants, such as {@link #ROLE_RGB}
+     */
+    public Integer getColor(int swatch, int role) {
+        final int index = colorIndex(swatch, role);
+        return (mColorMask & (1 << index)) != 0 ? mColors[index] : null;
+    }
+
+    /**
+     * Returns the {@code role} color of {@code swatch}, or {@code defaultColor} if it isn't set.
+     */
+    public int getColor(int swatch, int role, int defaultColor) {
+        final int index = colorIndex(swatch, role);
+        return (mColorMask & (1 << index)) != 0 ? mColors[index] : defaultColor;
+    }
+
     public Integer getPaletteVibrantRgb() {
-        return mPaletteVibrantRgb;
+        return getColor(SWATCH_VIBRANT, ROLE_RGB);
     }
     public Integer getPaletteVibrantTitleTextColor() {
-        return mPaletteVibrantTitleTextColor;
+        return getColor(SWATCH_VIBRANT, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteVibrantBodyTextColor() {
-        return mPaletteVibrantBodyTextColor;
+        return getColor(SWATCH_VIBRANT, ROLE_BODY_TEXT);
     }
 
     public Integer getPaletteLightVibrantRgb() {
-        return mPaletteLightVibrantRgb;
+        return getColor(SWATCH_LIGHT_VIBRANT, ROLE_RGB);
     }
     public Integer getPaletteLightVibrantTitleTextColor() {
-        return mPaletteLightVibrantTitleTextColor;
+        return getColor(SWATCH_LIGHT_VIBRANT, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteLightVibrantBodyTextColor() {
-        return mPaletteLightVibrantBodyTextColor;
+        return getColor(SWATCH_LIGHT_VIBRANT, ROLE_BODY_TEXT);
     }
 
     public Integer getPaletteDarkVibrantRgb() {
-        return mPaletteDarkVibrantRgb;
+        return getColor(SWATCH_DARK_VIBRANT, ROLE_RGB);
     }
     public Integer getPaletteDarkVibrantTitleTextColor() {
-        return mPaletteDarkVibrantTitleTextColor;
+        return getColor(SWATCH_DARK_VIBRANT, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteDarkVibrantBodyTextColor() {
-        return mPaletteDarkVibrantBodyTextColor;
+        return getColor(SWATCH_DARK_VIBRANT, ROLE_BODY_TEXT);
     }
 
     public Integer getPaletteMutedRgb() {
-        return mPaletteMutedRgb;
+        return getColor(SWATCH_MUTED, ROLE_RGB);
     }
     public Integer getPaletteMutedTitleTextColor() {
-        return mPaletteMutedTitleTextColor;
+        return getColor(SWATCH_MUTED, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteMutedBodyTextColor() {
-        return mPaletteMutedBodyTextColor;
+        return getColor(SWATCH_MUTED, ROLE_BODY_TEXT);
     }
 
     public Integer getPaletteLightMutedRgb() {
-        return mPaletteLightMutedRgb;
+        return getColor(SWATCH_LIGHT_MUTED, ROLE_RGB);
     }
     public Integer getPaletteLightMutedTitleTextColor() {
-        return mPaletteLightMutedTitleTextColor;
+        return getColor(SWATCH_LIGHT_MUTED, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteLightMutedBodyTextColor() {
-        return mPaletteLightMutedBodyTextColor;
+        return getColor(SWATCH_LIGHT_MUTED, ROLE_BODY_TEXT);
     }
 
     public Integer getPaletteDarkMutedRgb() {
-        return mPaletteDarkMutedRgb;
+        return getColor(SWATCH_DARK_MUTED, ROLE_RGB);
     }
     public Integer getPaletteDarkMutedTitleTextColor() {
-        return mPaletteDarkMutedTitleTextColor;
+        return getColor(SWATCH_DARK_MUTED, ROLE_TITLE_TEXT);
     }
     public Integer getPaletteDarkMutedBodyTextColor() {
-        return mPaletteDarkMutedBodyTextColor;
+        return getColor(SWATCH_DARK_MUTED, ROLE_BODY_TEXT);
+    }
+
+    /**
+     * Returns the names of the regions of the wallpaper which have their own palette.
+     *
+     * @see LiveWallpaperInfo.Builder#region(String, ActionPalette)
+     */
+    public Set<String> getRegionNames() {
+        return mRegions != null
+                ? Collections.unmodifiableSet(mRegions.keySet())
+                : Collections.<String>emptySet();
+    }
+
+    /**
+     * Returns the palette of the region of the wallpaper named {@code name}, or null if there
+     * isn't one. Only the palette colors of the returned object are set.
+     */
+    public LiveWallpaperInfo getRegion(String name) {
+        return mRegions != null ? mRegions.get(name) : null;
+    }
+
+    private static int colorIndex(int swatch, int role) {
+        if (swatch < 0 || swatch >= SWATCH_COUNT || role < 0 || role >= ROLE_COUNT) {
+            throw new IllegalArgumentException("Invalid swatch " + swatch + " or role " + role);
+        }
+        return swatch * ROLE_COUNT + role;
+    }
+
+    private static Integer parseColor(String colorAsString) {
+        return colorAsString != null ? Integer.valueOf(colorAsString) : null;
     }
 
 
@@ -153,17 +270,33 @@ public class LiveWallpaperInfo {
      * LiveWallpaperInfo} objects.
      */
     public static class Builder {
-        private LiveWallpaperInfo mLiveWallpaperInfo;
+        private String mToken;
+        private final int[] mColors = new int[COLOR_COUNT];
+        private int mColorMask;
+        private Map<String, LiveWallpaperInfo> mRegions;
 
         public Builder() {
-            mLiveWallpaperInfo = new LiveWallpaperInfo();
+        }
+
+        /**
+         * Creates a builder which starts with the token, colors and regions of
+         * {@code liveWallpaperInfo}.
+         */
+        public Builder(LiveWallpaperInfo liveWallpaperInfo) {
+            mToken = liveWallpaperInfo.mToken;
+            System.arraycopy(liveWallpaperInfo.mColors, 0, mColors, 0, COLOR_COUNT);
+            mColorMask = liveWallpaperInfo.mColorMask;
+            if (liveWallpaperInfo.mRegions != null) {
+                mRegions = new LinkedHashMap<String, LiveWallpaperInfo>(
+                        liveWallpaperInfo.mRegions);
+            }
         }
 
         /**
          * Sets the LiveWallpaperInfo's opaque application-specific identifier.
          */
         public Builder token(String token) {
-            mLiveWallpaperInfo.mToken = token;
+            mToken = token;
             return this;
         }
 
@@ -179,397 +312,527 @@ public class LiveWallpaperInfo {
             return this;
         }
 
-        public Builder paletteVibrant(ActionPalette.Swatch swatch) {
+        /**
+         * Adds the palette of a named region of the wallpaper, such as the area behind the dock.
+         *
+         * @see ActionPalette.Builder#generateRegions(java.util.List)
+         */
+        public Builder region(String name, ActionPalette actionPalette) {
+            return region(name, new Builder().palette(actionPalette).build());
+        }
+
+        /**
+         * Adds the palette of a named region of the wallpaper, from the palette colors of
+         * {@code regionInfo}.
+         */
+        public Builder region(String name, LiveWallpaperInfo regionInfo) {
+            if (name == null || regionInfo == null) {
+                throw new IllegalArgumentException("name and regionInfo can not be null");
+            }
+            if (mRegions == null) {
+                mRegions = new LinkedHashMap<String, LiveWallpaperInfo>();
+            }
+            mRegions.put(name, regionInfo);
+            return this;
+        }
+
+        /**
+         * Removes every region added so far.
+         */
+        public Builder clearRegions() {
+            mRegions = null;
+            return this;
+        }
+
+        /**
+         * Sets every color of {@code swatchType} from {@code swatch}, or clears them if it is
+         * null.
+         *
+         * @param swatchType one of the {@code SWATCH_} constants, such as {@link #SWATCH_VIBRANT}
+         */
+        public Builder swatch(int swatchType, ActionPalette.Swatch swatch) {
             if (swatch != null) {
-                paletteVibrantRgb(swatch.getRgb());
-                paletteVibrantBodyTextRgb(swatch.getBodyTextColor());
-                paletteVibrantTitleTextRgb(swatch.getTitleTextColor());
+                color(swatchType, ROLE_RGB, swatch.getRgb());
+                color(swatchType, ROLE_TITLE_TEXT, swatch.getTitleTextColor());
+                color(swatchType, ROLE_BODY_TEXT, swatch.getBodyTextColor());
             } else {
-                paletteVibrantRgb((String)null);
-                paletteVibrantBodyTextRgb((String)null);
-                paletteVibrantTitleTextRgb((String)null);
+                color(swatchType, ROLE_RGB, null);
+                color(swatchType, ROLE_TITLE_TEXT, null);
+                color(swatchType, ROLE_BODY_TEXT, null);
             }
             return this;
         }
-        public Builder paletteVibrantRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteVibrantRgb = color;
+
+        /**
+         * Sets the {@code role} color of {@code swatch}, or clears it if {@code color} is null.
+         *
+         * @param swatch one of the {@code SWATCH_} constants, such as {@link #SWATCH_VIBRANT}
+         * @param role   one of the {@code ROLE_} constants, such as {@link #ROLE_RGB}
+         */
+        public Builder color(int swatch, int role, Integer color) {
+            setColor(colorIndex(swatch, role), color);
             return this;
         }
+
+        public Builder paletteVibrant(ActionPalette.Swatch swatch) {
+            return swatch(SWATCH_VIBRANT, swatch);
+        }
+        public Builder paletteVibrantRgb(Integer color) {
+            return color(SWATCH_VIBRANT, ROLE_RGB, color);
+        }
         public Builder paletteVibrantRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteVibrantRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_VIBRANT, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteVibrantTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteVibrantTitleTextColor = color;
-            return this;
+            return color(SWATCH_VIBRANT, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteVibrantTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteVibrantTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_VIBRANT, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteVibrantBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteVibrantBodyTextColor = color;
-            return this;
+            return color(SWATCH_VIBRANT, ROLE_BODY_TEXT, color);
         }
         public Builder paletteVibrantBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteVibrantBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_VIBRANT, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         public Builder paletteLightVibrant(ActionPalette.Swatch swatch) {
-            if (swatch != null) {
-                paletteLightVibrantRgb(swatch.getRgb());
-                paletteLightVibrantBodyTextRgb(swatch.getBodyTextColor());
-                paletteLightVibrantTitleTextRgb(swatch.getTitleTextColor());
-            } else {
-                paletteLightVibrantRgb((String)null);
-                paletteLightVibrantBodyTextRgb((String)null);
-                paletteLightVibrantTitleTextRgb((String)null);
-            }
-            return this;
+            return swatch(SWATCH_LIGHT_VIBRANT, swatch);
         }
         public Builder paletteLightVibrantRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightVibrantRgb = color;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_RGB, color);
         }
         public Builder paletteLightVibrantRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightVibrantRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteLightVibrantTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightVibrantTitleTextColor = color;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteLightVibrantTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightVibrantTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteLightVibrantBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightVibrantBodyTextColor = color;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_BODY_TEXT, color);
         }
         public Builder paletteLightVibrantBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightVibrantBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_VIBRANT, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         public Builder paletteDarkVibrant(ActionPalette.Swatch swatch) {
-            if (swatch != null) {
-                paletteDarkVibrantRgb(swatch.getRgb());
-                paletteDarkVibrantBodyTextRgb(swatch.getBodyTextColor());
-                paletteDarkVibrantTitleTextRgb(swatch.getTitleTextColor());
-            } else {
-                paletteDarkVibrantRgb((String)null);
-                paletteDarkVibrantBodyTextRgb((String)null);
-                paletteDarkVibrantTitleTextRgb((String)null);
-            }
-            return this;
+            return swatch(SWATCH_DARK_VIBRANT, swatch);
         }
         public Builder paletteDarkVibrantRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantRgb = color;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_RGB, color);
         }
         public Builder paletteDarkVibrantRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteDarkVibrantTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantTitleTextColor = color;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteDarkVibrantTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteDarkVibrantBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantBodyTextColor = color;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_BODY_TEXT, color);
         }
         public Builder paletteDarkVibrantBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkVibrantBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_VIBRANT, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         public Builder paletteMuted(ActionPalette.Swatch swatch) {
-            if (swatch != null) {
-                paletteMutedRgb(swatch.getRgb());
-                paletteMutedBodyTextRgb(swatch.getBodyTextColor());
-                paletteMutedTitleTextRgb(swatch.getTitleTextColor());
-            } else {
-                paletteMutedRgb((String)null);
-                paletteMutedBodyTextRgb((String)null);
-                paletteMutedTitleTextRgb((String)null);
-            }
-            return this;
+            return swatch(SWATCH_MUTED, swatch);
         }
         public Builder paletteMutedRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteMutedRgb = color;
-            return this;
+            return color(SWATCH_MUTED, ROLE_RGB, color);
         }
         public Builder paletteMutedRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteMutedRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_MUTED, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteMutedTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteMutedTitleTextColor = color;
-            return this;
+            return color(SWATCH_MUTED, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteMutedTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteMutedTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_MUTED, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteMutedBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteMutedBodyTextColor = color;
-            return this;
+            return color(SWATCH_MUTED, ROLE_BODY_TEXT, color);
         }
         public Builder paletteMutedBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteMutedBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_MUTED, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         public Builder paletteLightMuted(ActionPalette.Swatch swatch) {
-            if (swatch != null) {
-                paletteLightMutedRgb(swatch.getRgb());
-                paletteLightMutedBodyTextRgb(swatch.getBodyTextColor());
-                paletteLightMutedTitleTextRgb(swatch.getTitleTextColor());
-            } else {
-                paletteLightMutedRgb((String)null);
-                paletteLightMutedBodyTextRgb((String)null);
-                paletteLightMutedTitleTextRgb((String)null);
-            }
-            return this;
+            return swatch(SWATCH_LIGHT_MUTED, swatch);
         }
         public Builder paletteLightMutedRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightMutedRgb = color;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_RGB, color);
         }
         public Builder paletteLightMutedRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightMutedRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteLightMutedTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightMutedTitleTextColor = color;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteLightMutedTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightMutedTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteLightMutedBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteLightMutedBodyTextColor = color;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_BODY_TEXT, color);
         }
         public Builder paletteLightMutedBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteLightMutedBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_LIGHT_MUTED, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         public Builder paletteDarkMuted(ActionPalette.Swatch swatch) {
-            if (swatch != null) {
-                paletteDarkMutedRgb(swatch.getRgb());
-                paletteDarkMutedBodyTextRgb(swatch.getBodyTextColor());
-                paletteDarkMutedTitleTextRgb(swatch.getTitleTextColor());
-            } else {
-                paletteDarkMutedRgb((String)null);
-                paletteDarkMutedBodyTextRgb((String)null);
-                paletteDarkMutedTitleTextRgb((String)null);
-            }
-            return this;
+            return swatch(SWATCH_DARK_MUTED, swatch);
         }
         public Builder paletteDarkMutedRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkMutedRgb = color;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_RGB, color);
         }
         public Builder paletteDarkMutedRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkMutedRgb = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_RGB, parseColor(colorAsString));
         }
         public Builder paletteDarkMutedTitleTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkMutedTitleTextColor = color;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_TITLE_TEXT, color);
         }
         public Builder paletteDarkMutedTitleTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkMutedTitleTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_TITLE_TEXT, parseColor(colorAsString));
         }
         public Builder paletteDarkMutedBodyTextRgb(Integer color) {
-            mLiveWallpaperInfo.mPaletteDarkMutedBodyTextColor = color;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_BODY_TEXT, color);
         }
         public Builder paletteDarkMutedBodyTextRgb(String colorAsString) {
-            mLiveWallpaperInfo.mPaletteDarkMutedBodyTextColor = colorAsString != null
-                    ? Integer.valueOf(colorAsString) : null;
-            return this;
+            return color(SWATCH_DARK_MUTED, ROLE_BODY_TEXT, parseColor(colorAsString));
         }
 
         /**
-         * Creates and returns the final LiveWallpaperInfo object. Once this method is called, it is not valid
-         * to further use this {@link LiveWallpaperInfo.Builder} object.
+         * Creates and returns the final LiveWallpaperInfo object. The builder can still be used
+         * afterwards, and doesn't change the objects it has already built.
          */
         public LiveWallpaperInfo build() {
-            return mLiveWallpaperInfo;
+            return new LiveWallpaperInfo(this);
+        }
+
+        private void setColor(int index, Integer color) {
+            if (color != null) {
+                mColors[index] = color;
+                mColorMask |= 1 << index;
+            } else {
+                mColors[index] = 0;
+                mColorMask &= ~(1 << index);
+            }
+        }
+
+        private void applyDeltaColors(int[] deltaColors) {
+            if (deltaColors.length < 2
+                    || (deltaColors[0] >>> PACKED_VERSION_SHIFT) < WIRE_VERSION_PACKED) {
+                throw new IllegalArgumentException("Delta colors are not valid");
+            }
+            final int setMask = deltaColors[0] & PACKED_MASK;
+            final int clearedMask = deltaColors[1] & PACKED_MASK;
+            if (Integer.bitCount(setMask) > deltaColors.length - 2) {
+                throw new IllegalArgumentException("Delta colors are missing colors");
+            }
+
+            int deltaIndex = 2;
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                if ((setMask & (1 << i)) != 0) {
+                    mColors[i] = deltaColors[deltaIndex++];
+                } else if ((clearedMask & (1 << i)) != 0) {
+                    mColors[i] = 0;
+                }
+            }
+            mColorMask = (mColorMask & ~clearedMask) | setMask;
+        }
+
+        private void setPackedColors(int[] packedColors) {
+            if (packedColors.length == 0
+                    || (packedColors[0] >>> PACKED_VERSION_SHIFT) < WIRE_VERSION_PACKED) {
+                throw new IllegalArgumentException("Packed colors are not valid");
+            }
+            final int mask = packedColors[0] & PACKED_MASK;
+            if (Integer.bitCount(mask) > packedColors.length - 1) {
+                throw new IllegalArgumentException("Packed colors are missing colors");
+            }
+
+            int packedIndex = 1;
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                mColors[i] = (mask & (1 << i)) != 0 ? packedColors[packedIndex++] : 0;
+            }
+            mColorMask = mask;
         }
     }
 
     /**
-     * Serializes this liveWallpaperInfo object to a {@link Bundle} representation.
+     * Serializes this liveWallpaperInfo object to a {@link Bundle} representation, in the
+     * {@link #WIRE_VERSION_LEGACY legacy format} which every version of Action Launcher can read.
      */
     public Bundle toBundle() {
+        return toBundle(WIRE_VERSION_LEGACY);
+    }
+
+    /**
+     * Serializes this liveWallpaperInfo object to a {@link Bundle} representation. The encoding is
+     * only built once for each format, and each call returns a copy of it which can be changed
+     * freely.
+     *
+     * @param wireVersion {@link #WIRE_VERSION_LEGACY} or {@link #WIRE_VERSION_PACKED}
+     */
+    public Bundle toBundle(int wireVersion) {
+        final boolean packed = wireVersion >= WIRE_VERSION_PACKED;
+        Bundle bundle = packed ? mPackedBundle : mLegacyBundle;
+        if (bundle == null) {
+            bundle = buildBundle(packed);
+            if (packed) {
+                mPackedBundle = bundle;
+            } else {
+                mLegacyBundle = bundle;
+            }
+        }
+        return copyBundle(bundle);
+    }
+
+    /**
+     * @return a copy of an encoding from {@link #buildBundle(boolean)}, which shares none of its
+     * containers.
+     */
+    private static Bundle copyBundle(Bundle bundle) {
+        final Bundle copy = new Bundle(bundle);
+        final int[] packedColors = bundle.getIntArray(KEY_PACKED_COLORS);
+        if (packedColors != null) {
+            copy.putIntArray(KEY_PACKED_COLORS, packedColors.clone());
+        }
+        final Bundle regionsBundle = bundle.getBundle(KEY_REGIONS);
+        if (regionsBundle != null) {
+            final Bundle regionsCopy = new Bundle();
+            for (String name : regionsBundle.keySet()) {
+                regionsCopy.putBundle(name, copyBundle(regionsBundle.getBundle(name)));
+            }
+            copy.putBundle(KEY_REGIONS, regionsCopy);
+        }
+        return copy;
+    }
+
+    private Bundle buildBundle(boolean packed) {
         Bundle bundle = new Bundle();
         bundle.putString(KEY_TOKEN, mToken);
-        bundle.putString(KEY_PALETTE_VIBRANT_RGB, mPaletteVibrantRgb != null
-                ? mPaletteVibrantRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_VIBRANT_TITLE_TEXT, mPaletteVibrantTitleTextColor != null
-                ? mPaletteVibrantTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_VIBRANT_BODY_TEXT, mPaletteVibrantBodyTextColor != null
-                ? mPaletteVibrantBodyTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_VIBRANT_RGB, mPaletteLightVibrantRgb != null
-                ? mPaletteLightVibrantRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_VIBRANT_TITLE_TEXT, mPaletteLightVibrantTitleTextColor != null
-                ? mPaletteLightVibrantTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_VIBRANT_BODY_TEXT, mPaletteLightVibrantBodyTextColor != null
-                ? mPaletteLightVibrantBodyTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_VIBRANT_RGB, mPaletteDarkVibrantRgb != null
-                ? mPaletteDarkVibrantRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_VIBRANT_TITLE_TEXT, mPaletteDarkVibrantTitleTextColor != null
-                ? mPaletteDarkVibrantTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_VIBRANT_BODY_TEXT, mPaletteDarkVibrantBodyTextColor != null
-                ? mPaletteDarkVibrantBodyTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_MUTED_RGB, mPaletteMutedRgb != null
-                ? mPaletteMutedRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_MUTED_TITLE_TEXT, mPaletteMutedTitleTextColor != null
-                ? mPaletteMutedTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_MUTED_BODY_TEXT, mPaletteMutedBodyTextColor != null
-                ? mPaletteMutedBodyTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_MUTED_RGB, mPaletteLightMutedRgb != null
-                ? mPaletteLightMutedRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_MUTED_TITLE_TEXT, mPaletteLightMutedTitleTextColor != null
-                ? mPaletteLightMutedTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_LIGHT_MUTED_BODY_TEXT, mPaletteLightMutedBodyTextColor != null
-                ? mPaletteLightMutedBodyTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_MUTED_RGB, mPaletteDarkMutedRgb != null
-                ? mPaletteDarkMutedRgb.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_MUTED_TITLE_TEXT, mPaletteDarkMutedTitleTextColor != null
-                ? mPaletteDarkMutedTitleTextColor.toString() : null);
-        bundle.putString(KEY_PALETTE_DARK_MUTED_BODY_TEXT, mPaletteDarkMutedBodyTextColor != null
-                ? mPaletteDarkMutedBodyTextColor.toString() : null);
+        if (packed) {
+            bundle.putIntArray(KEY_PACKED_COLORS, packColors());
+        } else {
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                bundle.putString(LEGACY_COLOR_KEYS[i], (mColorMask & (1 << i)) != 0
+                        ? Integer.toString(mColors[i]) : null);
+            }
+        }
+        if (mRegions != null) {
+            Bundle regionsBundle = new Bundle();
+            for (Map.Entry<String, LiveWallpaperInfo> region : mRegions.entrySet()) {
+                regionsBundle.putBundle(region.getKey(), region.getValue().toBundle(
+                        packed ? WIRE_VERSION_PACKED : WIRE_VERSION_LEGACY));
+            }
+            bundle.putBundle(KEY_REGIONS, regionsBundle);
+        }
         return bundle;
     }
 
     /**
-     * Deserializes an liveWallpaperInfo object from a {@link Bundle}.
+     * Deserializes an liveWallpaperInfo object from a {@link Bundle}, in either wire format.
      */
     public static LiveWallpaperInfo fromBundle(Bundle bundle) {
-        return new Builder()
-                .token(bundle.getString(KEY_TOKEN))
-                .paletteVibrantRgb(bundle.getString(KEY_PALETTE_VIBRANT_RGB, null))
-                .paletteVibrantTitleTextRgb(bundle.getString(KEY_PALETTE_VIBRANT_TITLE_TEXT, null))
-                .paletteVibrantBodyTextRgb(bundle.getString(KEY_PALETTE_VIBRANT_BODY_TEXT, null))
-                .paletteLightVibrantRgb(bundle.getString(KEY_PALETTE_LIGHT_VIBRANT_RGB, null))
-                .paletteLightVibrantTitleTextRgb(bundle.getString(KEY_PALETTE_LIGHT_VIBRANT_TITLE_TEXT, null))
-                .paletteLightVibrantBodyTextRgb(bundle.getString(KEY_PALETTE_LIGHT_VIBRANT_BODY_TEXT, null))
-                .paletteDarkVibrantRgb(bundle.getString(KEY_PALETTE_DARK_VIBRANT_RGB, null))
-                .paletteDarkVibrantTitleTextRgb(bundle.getString(KEY_PALETTE_DARK_VIBRANT_TITLE_TEXT, null))
-                .paletteDarkVibrantBodyTextRgb(bundle.getString(KEY_PALETTE_DARK_VIBRANT_BODY_TEXT, null))
-                .paletteMutedRgb(bundle.getString(KEY_PALETTE_MUTED_RGB, null))
-                .paletteMutedTitleTextRgb(bundle.getString(KEY_PALETTE_MUTED_TITLE_TEXT, null))
-                .paletteMutedBodyTextRgb(bundle.getString(KEY_PALETTE_MUTED_BODY_TEXT, null))
-                .paletteLightMutedRgb(bundle.getString(KEY_PALETTE_LIGHT_MUTED_RGB, null))
-                .paletteLightMutedTitleTextRgb(bundle.getString(KEY_PALETTE_LIGHT_MUTED_TITLE_TEXT, null))
-                .paletteLightMutedBodyTextRgb(bundle.getString(KEY_PALETTE_LIGHT_MUTED_BODY_TEXT, null))
-                .paletteDarkMutedRgb(bundle.getString(KEY_PALETTE_DARK_MUTED_RGB, null))
-                .paletteDarkMutedTitleTextRgb(bundle.getString(KEY_PALETTE_DARK_MUTED_TITLE_TEXT, null))
-                .paletteDarkMutedBodyTextRgb(bundle.getString(KEY_PALETTE_DARK_MUTED_BODY_TEXT, null))
-                .build();
+        Builder builder = new Builder();
+        Bundle regionsBundle = bundle.getBundle(KEY_REGIONS);
+        if (regionsBundle != null) {
+            for (String name : regionsBundle.keySet()) {
+                builder.region(name, fromBundle(regionsBundle.getBundle(name)));
+            }
+        }
+        builder.token(bundle.getString(KEY_TOKEN));
+
+        final int[] packedColors = bundle.getIntArray(KEY_PACKED_COLORS);
+        if (packedColors != null) {
+            builder.setPackedColors(packedColors);
+        } else {
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                builder.setColor(i, parseColor(bundle.getString(LEGACY_COLOR_KEYS[i], null)));
+            }
+        }
+        return builder.build();
     }
 
     /**
-     * Serializes this liveWallpaperInfo object to a {@link JSONObject} representation.
+     * Serializes the colors which differ between {@code base} and this liveWallpaperInfo object
+     * to a {@link Bundle}, which {@link #fromDeltaBundle(LiveWallpaperInfo, Bundle)} applies to
+     * {@code base} to get an object equal to this one. Only the changed colors are written, in
+     * the {@link #WIRE_VERSION_PACKED packed format}.
+     *
+     * @return the delta, or null if the token or regions differ, so that only the whole object
+     * can describe the change
+     */
+    public Bundle toDeltaBundle(LiveWallpaperInfo base) {
+        if (base == null
+                || (mToken != null ? !mToken.equals(base.mToken) : base.mToken != null)
+                || (mRegions != null ? !mRegions.equals(base.mRegions) : base.mRegions != null)) {
+            return null;
+        }
+
+        int changedMask = mColorMask ^ base.mColorMask;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            if (mColors[i] != base.mColors[i]) {
+                changedMask |= 1 << i;
+            }
+        }
+        final int setMask = changedMask & mColorMask;
+
+        // The header and the colors which are set are laid out as in the packed format, followed
+        // by a mask of the colors which have been cleared
+        final int[] deltaColors = new int[Integer.bitCount(setMask) + 2];
+        deltaColors[0] = (WIRE_VERSION_PACKED << PACKED_VERSION_SHIFT) | setMask;
+        deltaColors[1] = changedMask & ~mColorMask;
+        int deltaIndex = 2;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            if ((setMask & (1 << i)) != 0) {
+                deltaColors[deltaIndex++] = mColors[i];
+            }
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putIntArray(KEY_DELTA_COLORS, deltaColors);
+        return bundle;
+    }
+
+    /**
+     * Applies a delta written by {@link #toDeltaBundle(LiveWallpaperInfo)} to {@code base}.
+     *
+     * @throws IllegalArgumentException if {@code delta} is not a valid delta
+     */
+    public static LiveWallpaperInfo fromDeltaBundle(LiveWallpaperInfo base, Bundle delta) {
+        final int[] deltaColors = delta.getIntArray(KEY_DELTA_COLORS);
+        if (deltaColors == null) {
+            throw new IllegalArgumentException("Bundle is not a delta");
+        }
+        Builder builder = new Builder(base);
+        builder.applyDeltaColors(deltaColors);
+        return builder.build();
+    }
+
+    /**
+     * Serializes this liveWallpaperInfo object to a {@link JSONObject} representation, in the
+     * {@link #WIRE_VERSION_LEGACY legacy format} which every version of this API can read.
      */
     public JSONObject toJson() throws JSONException {
+        return toJson(WIRE_VERSION_LEGACY);
+    }
+
+    /**
+     * Serializes this liveWallpaperInfo object to a {@link JSONObject} representation. The
+     * encoding is only built once for each format, and each call returns a copy of it which can
+     * be changed freely.
+     *
+     * @param wireVersion {@link #WIRE_VERSION_LEGACY} or {@link #WIRE_VERSION_PACKED}
+     */
+    public JSONObject toJson(int wireVersion) throws JSONException {
+        final boolean packed = wireVersion >= WIRE_VERSION_PACKED;
+        JSONObject jsonObject = packed ? mPackedJson : mLegacyJson;
+        if (jsonObject == null) {
+            jsonObject = buildJson(packed);
+            if (packed) {
+                mPackedJson = jsonObject;
+            } else {
+                mLegacyJson = jsonObject;
+            }
+        }
+
+        return copyJson(jsonObject);
+    }
+
+    /**
+     * @return a copy of an encoding from {@link #buildJson(boolean)}, which shares none of its
+     * containers.
+     */
+    private static JSONObject copyJson(JSONObject jsonObject) throws JSONException {
+        final JSONObject copy = new JSONObject();
+        final Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            copy.put(key, jsonObject.opt(key));
+        }
+
+        final JSONArray packedArray = jsonObject.optJSONArray(KEY_PACKED_COLORS);
+        if (packedArray != null) {
+            final JSONArray packedCopy = new JSONArray();
+            for (int i = 0; i < packedArray.length(); i++) {
+                packedCopy.put(packedArray.getInt(i));
+            }
+            copy.put(KEY_PACKED_COLORS, packedCopy);
+        }
+        final JSONObject regionsObject = jsonObject.optJSONObject(KEY_REGIONS);
+        if (regionsObject != null) {
+            final JSONObject regionsCopy = new JSONObject();
+            final Iterator<String> names = regionsObject.keys();
+            while (names.hasNext()) {
+                final String name = names.next();
+                regionsCopy.put(name, copyJson(regionsObject.getJSONObject(name)));
+            }
+            copy.put(KEY_REGIONS, regionsCopy);
+        }
+        return copy;
+    }
+
+    private JSONObject buildJson(boolean packed) throws JSONException {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(KEY_TOKEN, mToken);
-        jsonObject.put(KEY_PALETTE_VIBRANT_RGB, mPaletteVibrantRgb != null ?
-                Integer.toString(mPaletteVibrantRgb) : null);
-        jsonObject.put(KEY_PALETTE_VIBRANT_TITLE_TEXT, mPaletteVibrantTitleTextColor != null ?
-                Integer.toString(mPaletteVibrantTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_VIBRANT_BODY_TEXT, mPaletteVibrantBodyTextColor != null ?
-                Integer.toString(mPaletteVibrantBodyTextColor) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_VIBRANT_RGB, mPaletteLightVibrantRgb != null ?
-                Integer.toString(mPaletteLightVibrantRgb) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_VIBRANT_TITLE_TEXT, mPaletteLightVibrantTitleTextColor != null ?
-                Integer.toString(mPaletteLightVibrantTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_VIBRANT_BODY_TEXT, mPaletteLightVibrantBodyTextColor != null ?
-                Integer.toString(mPaletteLightVibrantBodyTextColor) : null);
-        jsonObject.put(KEY_PALETTE_DARK_VIBRANT_RGB, mPaletteDarkVibrantRgb != null ?
-                Integer.toString(mPaletteDarkVibrantRgb) : null);
-        jsonObject.put(KEY_PALETTE_DARK_VIBRANT_TITLE_TEXT, mPaletteDarkVibrantTitleTextColor != null ?
-                Integer.toString(mPaletteDarkVibrantTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_DARK_VIBRANT_BODY_TEXT, mPaletteDarkVibrantBodyTextColor != null ?
-                Integer.toString(mPaletteDarkVibrantBodyTextColor) : null);
-        jsonObject.put(KEY_PALETTE_MUTED_RGB, mPaletteMutedRgb != null ?
-                Integer.toString(mPaletteMutedRgb) : null);
-        jsonObject.put(KEY_PALETTE_MUTED_TITLE_TEXT, mPaletteMutedTitleTextColor != null ?
-                Integer.toString(mPaletteMutedTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_MUTED_BODY_TEXT, mPaletteMutedBodyTextColor != null ?
-                Integer.toString(mPaletteMutedBodyTextColor) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_MUTED_RGB, mPaletteLightMutedRgb != null ?
-                Integer.toString(mPaletteLightMutedRgb) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_MUTED_TITLE_TEXT, mPaletteLightMutedTitleTextColor != null ?
-                Integer.toString(mPaletteLightMutedTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_LIGHT_MUTED_BODY_TEXT, mPaletteLightMutedBodyTextColor != null ?
-                Integer.toString(mPaletteLightMutedBodyTextColor) : null);
-        jsonObject.put(KEY_PALETTE_DARK_MUTED_RGB, mPaletteDarkMutedRgb != null ?
-                Integer.toString(mPaletteDarkMutedRgb) : null);
-        jsonObject.put(KEY_PALETTE_DARK_MUTED_TITLE_TEXT, mPaletteDarkMutedTitleTextColor != null ?
-                Integer.toString(mPaletteDarkMutedTitleTextColor) : null);
-        jsonObject.put(KEY_PALETTE_DARK_MUTED_BODY_TEXT, mPaletteDarkMutedBodyTextColor != null ?
-                Integer.toString(mPaletteDarkMutedBodyTextColor) : null);
+        if (packed) {
+            final JSONArray packedArray = new JSONArray();
+            for (int value : packColors()) {
+                packedArray.put(value);
+            }
+            jsonObject.put(KEY_PACKED_COLORS, packedArray);
+        } else {
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                jsonObject.put(LEGACY_COLOR_KEYS[i], (mColorMask & (1 << i)) != 0
+                        ? Integer.toString(mColors[i]) : null);
+            }
+        }
+        if (mRegions != null) {
+            JSONObject regionsObject = new JSONObject();
+            for (Map.Entry<String, LiveWallpaperInfo> region : mRegions.entrySet()) {
+                regionsObject.put(region.getKey(), region.getValue().toJson(
+                        packed ? WIRE_VERSION_PACKED : WIRE_VERSION_LEGACY));
+            }
+            jsonObject.put(KEY_REGIONS, regionsObject);
+        }
         return jsonObject;
     }
 
     /**
-     * Deserializes an liveWallpaperInfo object from a {@link JSONObject}.
+     * Deserializes an liveWallpaperInfo object from a {@link JSONObject}, in either wire format.
      */
     public static LiveWallpaperInfo fromJson(JSONObject jsonObject) throws JSONException {
-        return new Builder()
-                .token(jsonObject.optString(KEY_TOKEN))
-                .paletteVibrantRgb(paletteValue(jsonObject, KEY_PALETTE_VIBRANT_RGB))
-                .paletteVibrantTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_VIBRANT_TITLE_TEXT))
-                .paletteVibrantBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_VIBRANT_BODY_TEXT))
-                .paletteLightVibrantRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_VIBRANT_RGB))
-                .paletteLightVibrantTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_VIBRANT_TITLE_TEXT))
-                .paletteLightVibrantBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_VIBRANT_BODY_TEXT))
-                .paletteDarkVibrantRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_VIBRANT_RGB))
-                .paletteDarkVibrantTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_VIBRANT_TITLE_TEXT))
-                .paletteDarkVibrantBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_VIBRANT_BODY_TEXT))
-                .paletteMutedRgb(paletteValue(jsonObject, KEY_PALETTE_MUTED_RGB))
-                .paletteMutedTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_MUTED_TITLE_TEXT))
-                .paletteMutedBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_MUTED_BODY_TEXT))
-                .paletteLightMutedRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_MUTED_RGB))
-                .paletteLightMutedTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_MUTED_TITLE_TEXT))
-                .paletteLightMutedBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_LIGHT_MUTED_BODY_TEXT))
-                .paletteDarkMutedRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_MUTED_RGB))
-                .paletteDarkMutedTitleTextRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_MUTED_TITLE_TEXT))
-                .paletteDarkMutedBodyTextRgb(paletteValue(jsonObject, KEY_PALETTE_DARK_MUTED_BODY_TEXT))
-                .build();
+        Builder builder = new Builder();
+        JSONObject regionsObject = jsonObject.optJSONObject(KEY_REGIONS);
+        if (regionsObject != null) {
+            Iterator<String> names = regionsObject.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                builder.region(name, fromJson(regionsObject.getJSONObject(name)));
+            }
+        }
+        builder.token(jsonObject.isNull(KEY_TOKEN) ? null : jsonObject.getString(KEY_TOKEN));
+
+        final JSONArray packedArray = jsonObject.optJSONArray(KEY_PACKED_COLORS);
+        if (packedArray != null) {
+            final int[] packedColors = new int[packedArray.length()];
+            for (int i = 0; i < packedColors.length; i++) {
+                packedColors[i] = packedArray.getInt(i);
+            }
+            builder.setPackedColors(packedColors);
+        } else {
+            for (int i = 0; i < COLOR_COUNT; i++) {
+                builder.setColor(i, paletteValue(jsonObject, LEGACY_COLOR_KEYS[i]));
+            }
+        }
+        return builder.build();
     }
 
     private static Integer paletteValue(JSONObject jsonObject, String key) throws JSONException {
@@ -582,17 +845,134 @@ public class LiveWallpaperInfo {
         return null;
     }
 
-    private static String asHex(Integer color) {
-        return color != null ? "0x" + Integer.toHexString(color) : null;
+    /**
+     * @return the version, mask and colors of the packed format.
+     */
+    private int[] packColors() {
+        final int[] packedColors = new int[Integer.bitCount(mColorMask) + 1];
+        packedColors[0] = (WIRE_VERSION_PACKED << PACKED_VERSION_SHIFT) | mColorMask;
+        int packedIndex = 1;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            if ((mColorMask & (1 << i)) != 0) {
+                packedColors[packedIndex++] = mColors[i];
+            }
+        }
+        return packedColors;
+    }
+
+    /**
+     * @return the largest perceptual difference (CIE76 &Delta;E, the distance between two colors
+     * in the CIELAB color space) between any of this object's six palette colors and the
+     * matching color of {@code other}. A difference below about 2.3 is not noticeable. If a color
+     * is set in only one of the two objects, the difference is infinite. The palettes of the
+     * regions are included, and if the two objects don't have the same regions the difference is
+     * also infinite.
+     */
+    double paletteDistance(LiveWallpaperInfo other) {
+        double maxDistance = 0;
+        for (int index = ROLE_RGB; index < COLOR_COUNT; index += ROLE_COUNT) {
+            final int bit = 1 << index;
+            if ((mColorMask & bit) != (other.mColorMask & bit)) {
+                return Double.POSITIVE_INFINITY;
+            } else if ((mColorMask & bit) != 0 && mColors[index] != other.mColors[index]) {
+                maxDistance = Math.max(maxDistance,
+                        colorDistance(mColors[index], other.mColors[index]));
+            }
+        }
+
+        if (!getRegionNames().equals(other.getRegionNames())) {
+            return Double.POSITIVE_INFINITY;
+        }
+        for (String name : getRegionNames()) {
+            maxDistance = Math.max(maxDistance,
+                    getRegion(name).paletteDistance(other.getRegion(name)));
+        }
+        return maxDistance;
+    }
+
+    /**
+     * @return the perceptual difference between two colors, as CIE76 &Delta;E, the distance
+     * between them in the CIELAB color space. This is the difference that a source's palette
+     * change threshold is measured in. The alpha of the colors is ignored.
+     */
+    public static double colorDistance(int color1, int color2) {
+        final double[] lab1 = new double[3];
+        final double[] lab2 = new double[3];
+        colorToLab(color1, lab1);
+        colorToLab(color2, lab2);
+        final double dL = lab1[0] - lab2[0];
+        final double dA = lab1[1] - lab2[1];
+        final double dB = lab1[2] - lab2[2];
+        return Math.sqrt(dL * dL + dA * dA + dB * dB);
+    }
+
+    private static void colorToLab(int color, double[] lab) {
+        final double r = linearComponent((color >> 16) & 0xFF);
+        final double g = linearComponent((color >> 8) & 0xFF);
+        final double b = linearComponent(color & 0xFF);
+
+        // sRGB to XYZ, relative to the D65 reference white
+        final double x = labComponent((0.4124 * r + 0.3576 * g + 0.1805 * b) / 0.95047);
+        final double y = labComponent(0.2126 * r + 0.7152 * g + 0.0722 * b);
+        final double z = labComponent((0.0193 * r + 0.1192 * g + 0.9505 * b) / 1.08883);
+
+        lab[0] = 116 * y - 16;
+        lab[1] = 500 * (x - y);
+        lab[2] = 200 * (y - z);
+    }
+
+    private static double linearComponent(int component) {
+        final double value = component / 255d;
+        return value < 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labComponent(double value) {
+        return value > 0.008856 ? Math.cbrt(value) : (7.787 * value) + (16 / 116d);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        LiveWallpaperInfo info = (LiveWallpaperInfo) o;
+        return mColorMask == info.mColorMask
+                && Arrays.equals(mColors, info.mColors)
+                && (mToken != null ? mToken.equals(info.mToken) : info.mToken == null)
+                && (mRegions != null ? mRegions.equals(info.mRegions) : info.mRegions == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mToken != null ? mToken.hashCode() : 0;
+        result = 31 * result + mColorMask;
+        result = 31 * result + Arrays.hashCode(mColors);
+        result = 31 * result + (mRegions != null ? mRegions.hashCode() : 0);
+        return result;
+    }
+
+    private String asHex(int swatch, int role) {
+        return hasColor(swatch, role)
+                ? "0x" + Integer.toHexString(getColor(swatch, role, 0)) : null;
+    }
+
+    private String swatchToString(int swatch) {
+        return "[" + asHex(swatch, ROLE_RGB) + "," + asHex(swatch, ROLE_TITLE_TEXT) + ","
+                + asHex(swatch, ROLE_BODY_TEXT) + "]";
     }
 
     public String toString() {
-        return "v:[" + asHex(mPaletteVibrantRgb) + "," + asHex(mPaletteVibrantTitleTextColor) + "," + asHex(mPaletteVibrantBodyTextColor) + "]"
-                + ", lv:[" + asHex(mPaletteLightVibrantRgb) + "," + asHex(mPaletteLightVibrantTitleTextColor) + "," + asHex(mPaletteLightVibrantBodyTextColor) + "]"
-                + ", dv:[" + asHex(mPaletteDarkVibrantRgb) + "," + asHex(mPaletteDarkVibrantTitleTextColor) + "," + asHex(mPaletteDarkVibrantBodyTextColor) + "]"
-                + ", m:[" + asHex(mPaletteMutedRgb) + "," + asHex(mPaletteMutedTitleTextColor) + "," + asHex(mPaletteMutedBodyTextColor) + "]"
-                + ", lm:[" + asHex(mPaletteLightMutedRgb) + "," + asHex(mPaletteLightMutedTitleTextColor) + "," + asHex(mPaletteLightMutedBodyTextColor) + "]"
-                + ", dm:[" + asHex(mPaletteDarkMutedRgb) + "," + asHex(mPaletteDarkMutedTitleTextColor) + "," + asHex(mPaletteDarkMutedBodyTextColor) + "]"
+        return "v:" + swatchToString(SWATCH_VIBRANT)
+                + ", lv:" + swatchToString(SWATCH_LIGHT_VIBRANT)
+                + ", dv:" + swatchToString(SWATCH_DARK_VIBRANT)
+                + ", m:" + swatchToString(SWATCH_MUTED)
+                + ", lm:" + swatchToString(SWATCH_LIGHT_MUTED)
+                + ", dm:" + swatchToString(SWATCH_DARK_MUTED)
+                + (mRegions != null ? ", regions:" + mRegions : "")
                 + ", token:" + mToken;
     }
 }
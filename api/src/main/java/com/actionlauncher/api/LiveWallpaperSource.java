@@ -16,39 +16,60 @@
 
 package com.actionlauncher.api;
 
+import android.app.AlarmManager;
 import android.app.IntentService;
+import android.app.PendingIntent;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.actionlauncher.api.actionpalette.ActionPalette;
+import com.actionlauncher.api.actionpalette.PaletteAccumulator;
+import com.actionlauncher.api.actionpalette.PaletteContext;
+import com.actionlauncher.api.actionpalette.PaletteRegion;
 import com.actionlauncher.api.internal.ProtocolConstants;
 import com.actionlauncher.api.internal.SourceState;
+import com.actionlauncher.api.internal.Subscription;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.actionlauncher.api.internal.ProtocolConstants.ACTION_FETCH_PALETTE;
 import static com.actionlauncher.api.internal.ProtocolConstants.ACTION_PUBLISH_STATE;
+import static com.actionlauncher.api.internal.ProtocolConstants.ACTION_RESYNC;
 import static com.actionlauncher.api.internal.ProtocolConstants.ACTION_SUBSCRIBE;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_BASE_SEQUENCE;
 import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_LIVE_WALLPAPER_INFO;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_PALETTE_CHANGE_THRESHOLD;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_SEQUENCE;
 import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_STATE;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_STATE_DELTA;
 import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_SUBSCRIBER_COMPONENT;
 import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_TOKEN;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_WIRE_VERSION;
 
 /**
  *
@@ -65,16 +86,38 @@ public class LiveWallpaperSource extends IntentService {
     public static final String ACTION_WALLPAPER_SOURCE
             = "com.actionlauncher.api.action.LiveWallpaperSource";
 
+    /**
+     * The default {@link Builder#paletteChangeThreshold(float) palette change threshold}. Two
+     * colors closer than this are generally not distinguishable.
+     */
+    public static final float DEFAULT_PALETTE_CHANGE_THRESHOLD = 2.3f;
+
     private static final String PREF_STATE = "state";
     private static final String PREF_SUBSCRIPTIONS = "subscriptions";
+    // Kept apart from PREF_SUBSCRIPTIONS so that older versions of the API can still read it
+    private static final String PREF_SUBSCRIBER_CAPABILITIES = "subscriberCapabilities";
+    // Followed by the subscriber, when it was last sent the state on the elapsedRealtime() clock
+    private static final String PREF_LAST_PUBLISH_TIME_PREFIX = "lastPublishTime|";
+    // Followed by a subscriber which supports deltas, the sequence number and state last
+    // delivered to it
+    private static final String PREF_DELTA_STATE_PREFIX = "deltaState|";
+
+    // Sent by this source to itself once a subscriber's minimum update interval is up
+    private static final String ACTION_PUBLISH_DEFERRED_STATE
+            = "com.actionlauncher.api.action.PUBLISH_DEFERRED_STATE";
 
     private static final int MSG_PUBLISH_CURRENT_STATE = 1;
 
+    // The number of distinct payloads, one for each wire version with and without regions
+    private static final int STATE_PAYLOAD_COUNT = 4;
+
+    private static final AtomicInteger sSuppressedUpdateCount = new AtomicInteger();
+
     private SharedPreferences mSharedPrefs;
 
     private String mName = "<not_set>";
 
-    private Map<ComponentName, String> mSubscriptions;
+    private Map<ComponentName, Subscription> mSubscriptions;
     private SourceState mCurrentState;
 
     private Handler mHandler = new Handler() {
@@ -224,15 +267,31 @@ public class LiveWallpaperSource extends IntentService {
         if (ACTION_SUBSCRIBE.equals(action)) {
             processSubscribe(
                     (ComponentName) intent.getParcelableExtra(EXTRA_SUBSCRIBER_COMPONENT),
-                    intent.getStringExtra(EXTRA_TOKEN));
+                    Subscription.fromIntent(intent));
         } else if (ACTION_FETCH_PALETTE.equals(action)) {
             publishCurrentPalette();
+        } else if (ACTION_RESYNC.equals(action)) {
+            // A subscriber which has missed a delta asks for the whole state again
+            publishSnapshot(
+                    (ComponentName) intent.getParcelableExtra(EXTRA_SUBSCRIBER_COMPONENT));
+        } else if (ACTION_PUBLISH_DEFERRED_STATE.equals(action)) {
+            publishDeferredState(
+                    (ComponentName) intent.getParcelableExtra(EXTRA_SUBSCRIBER_COMPONENT));
         } else if (action.equals(ProtocolConstants.ACTION_PUBLISH_STATE)) {
             boolean wallpaperInfoSet = false;
             if (intent.hasExtra(EXTRA_LIVE_WALLPAPER_INFO)) {
                 Bundle bundle = intent.getExtras().getBundle(EXTRA_LIVE_WALLPAPER_INFO);
                 if (bundle != null) {
                     LiveWallpaperInfo info = LiveWallpaperInfo.fromBundle(bundle);
+                    float threshold = intent.getFloatExtra(EXTRA_PALETTE_CHANGE_THRESHOLD,
+                            DEFAULT_PALETTE_CHANGE_THRESHOLD);
+                    if (isUnchanged(info, threshold)) {
+                        // Don't wake every subscriber, and have the launcher re-theme itself, for
+                        // a palette which looks the same as the current one
+                        sSuppressedUpdateCount.incrementAndGet();
+                        LOGD("Suppressed LiveWallpaperInfo which matches the current one:" + info);
+                        return;
+                    }
                     mCurrentState.setCurrentLiveWallpaperInfo(info);
                     LOGD("LiveWallpaperInfo.fromBundle():" + (info != null ? info.toString() : null));
                     wallpaperInfoSet = true;
@@ -245,21 +304,44 @@ public class LiveWallpaperSource extends IntentService {
         }
     }
 
+    private boolean isUnchanged(LiveWallpaperInfo info, float threshold) {
+        LiveWallpaperInfo currentInfo = mCurrentState.getCurrentLiveWallpaperInfo();
+        if (currentInfo == null || !TextUtils.equals(info.getToken(), currentInfo.getToken())) {
+            return false;
+        }
+        if (threshold > 0 && info.equals(currentInfo)) {
+            return true;
+        }
+        return info.paletteDistance(currentInfo) < threshold;
+    }
+
+    /**
+     * Returns the number of palettes which have not been published, in this process, because
+     * they were not perceptibly different from the current one.
+     *
+     * @see Builder#paletteChangeThreshold(float)
+     */
+    public static int getSuppressedUpdateCount() {
+        return sSuppressedUpdateCount.get();
+    }
+
     public void publishCurrentPalette() {
         LOGD("publishCurrentPalette()");
         mHandler.removeMessages(MSG_PUBLISH_CURRENT_STATE);
         mHandler.sendEmptyMessage(MSG_PUBLISH_CURRENT_STATE);
     }
 
-    private synchronized void processSubscribe(ComponentName subscriber, String token) {
+    private synchronized void processSubscribe(ComponentName subscriber,
+            Subscription subscription) {
         if (subscriber == null) {
             LOGD("No subscriber given.");
             return;
         }
 
-        String oldToken = mSubscriptions.get(subscriber);
+        String token = subscription != null ? subscription.getToken() : null;
+        Subscription oldSubscription = mSubscriptions.get(subscriber);
         if (TextUtils.isEmpty(token)) {
-            if (oldToken == null) {
+            if (oldSubscription == null) {
                 return;
             }
 
@@ -269,7 +351,7 @@ public class LiveWallpaperSource extends IntentService {
 
         } else {
             // Subscribing
-            if (!TextUtils.isEmpty(oldToken)) {
+            if (oldSubscription != null && !TextUtils.isEmpty(oldSubscription.getToken())) {
                 // Was previously subscribed, treat this as a unsubscribe + subscribe
                 mSubscriptions.remove(subscriber);
                 processAndDispatchSubscriberRemoved(subscriber);
@@ -279,7 +361,7 @@ public class LiveWallpaperSource extends IntentService {
                 return;
             }
 
-            mSubscriptions.put(subscriber, token);
+            mSubscriptions.put(subscriber, subscription);
             processAndDispatchSubscriberAdded(subscriber);
         }
 
@@ -308,6 +390,12 @@ public class LiveWallpaperSource extends IntentService {
     }
 
     private synchronized void processAndDispatchSubscriberRemoved(ComponentName subscriber) {
+        mSharedPrefs.edit()
+                .remove(getLastPublishTimeKey(subscriber))
+                .remove(getDeltaStateKey(subscriber))
+                .apply();
+        cancelDeferredState(subscriber);
+
         // Trigger callbacks
         onSubscriberRemoved(subscriber);
         if (mSubscriptions.size() == 0) {
@@ -318,13 +406,111 @@ public class LiveWallpaperSource extends IntentService {
     }
 
     private synchronized void publishCurrentState() {
-        for (ComponentName subscription : mSubscriptions.keySet()) {
-            publishCurrentState(subscription);
+        // Subscribers with the same capabilities are sent the same payload, so only encode each
+        // payload once, and what each subscriber was sent is saved in a single write
+        Bundle[] states = new Bundle[STATE_PAYLOAD_COUNT];
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<ComponentName, Subscription> entry : mSubscriptions.entrySet()) {
+            ComponentName subscriber = entry.getKey();
+            Subscription subscription = entry.getValue();
+
+            long remainingInterval = getRemainingUpdateInterval(subscriber, subscription, now);
+            if (remainingInterval > 0) {
+                // The deferred update sends whichever state is current once the interval is up
+                scheduleDeferredState(subscriber, now + remainingInterval);
+                continue;
+            }
+
+            publishCurrentState(subscriber, subscription, states, editor);
         }
+        editor.apply();
     }
 
     private synchronized void publishCurrentState(final ComponentName subscriber) {
-        String token = mSubscriptions.get(subscriber);
+        Subscription subscription = mSubscriptions.get(subscriber);
+        if (subscription == null) {
+            LOGD("Not active, canceling update, id=" + mName);
+            return;
+        }
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        publishCurrentState(subscriber, subscription, new Bundle[STATE_PAYLOAD_COUNT], editor);
+        editor.apply();
+    }
+
+    private synchronized void publishDeferredState(ComponentName subscriber) {
+        Subscription subscription = (subscriber != null) ? mSubscriptions.get(subscriber) : null;
+        if (subscription == null) {
+            LOGD("Not active, canceling deferred update, id=" + mName);
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long remainingInterval = getRemainingUpdateInterval(subscriber, subscription, now);
+        if (remainingInterval > 0) {
+            scheduleDeferredState(subscriber, now + remainingInterval);
+            return;
+        }
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        publishCurrentState(subscriber, subscription, new Bundle[STATE_PAYLOAD_COUNT], editor);
+        editor.apply();
+    }
+
+    private synchronized void publishSnapshot(ComponentName subscriber) {
+        if (subscriber == null || !mSubscriptions.containsKey(subscriber)) {
+            LOGD("Not active, canceling snapshot, id=" + mName);
+            return;
+        }
+        mSharedPrefs.edit().remove(getDeltaStateKey(subscriber)).apply();
+        publishCurrentState(subscriber);
+    }
+
+    /**
+     * Sends {@code subscriber} the current state. If it supports deltas and an earlier state was
+     * delivered to it, only the colors which have changed since are sent, and nothing is sent if
+     * none have. Otherwise the whole state is sent, encoded once for each payload in
+     * {@code states}. What was sent is saved with {@code editor}, which the caller applies.
+     */
+    private void publishCurrentState(ComponentName subscriber, Subscription subscription,
+            Bundle[] states, SharedPreferences.Editor editor) {
+        DeltaState deltaState = null;
+        LiveWallpaperInfo info = null;
+        if (subscription.supportsDelta()) {
+            deltaState = loadDeltaState(subscriber);
+            info = (mCurrentState != null)
+                    ? mCurrentState.getCurrentLiveWallpaperInfo(subscription.supportsRegions())
+                    : null;
+
+            if (deltaState.mDeliveredInfo != null && info != null) {
+                if (info.equals(deltaState.mDeliveredInfo)) {
+                    LOGD("Subscriber already has the current state, id=" + mName);
+                    return;
+                }
+                Bundle delta = info.toDeltaBundle(deltaState.mDeliveredInfo);
+                if (delta != null) {
+                    publishCurrentState(subscriber, subscription, null, delta, deltaState, info,
+                            editor);
+                    return;
+                }
+            }
+        }
+
+        int payload = getStatePayload(subscription);
+        if (states[payload] == null) {
+            states[payload] = encodeState(subscription);
+        }
+        publishCurrentState(subscriber, subscription, states[payload], null, deltaState, info,
+                editor);
+    }
+
+    /**
+     * Sends {@code subscriber} either the whole {@code state} or a {@code delta} from the state
+     * last delivered to it. A subscriber which supports deltas has the {@code deltaState} which is
+     * updated to {@code info}, and saved with {@code editor}, once the update has been delivered.
+     */
+    private void publishCurrentState(final ComponentName subscriber, Subscription subscription,
+            Bundle state, Bundle delta, DeltaState deltaState, LiveWallpaperInfo info,
+            SharedPreferences.Editor editor) {
+        String token = subscription.getToken();
         if (TextUtils.isEmpty(token)) {
             LOGD("Not active, canceling update, id=" + mName);
             return;
@@ -333,8 +519,22 @@ public class LiveWallpaperSource extends IntentService {
         // Publish update
         Intent intent = new Intent(ACTION_PUBLISH_STATE)
                 .setComponent(subscriber)
-                .putExtra(EXTRA_TOKEN, token)
-                .putExtra(EXTRA_STATE, (mCurrentState != null) ? mCurrentState.toBundle() : null);
+                .putExtra(EXTRA_TOKEN, token);
+        if (delta != null) {
+            intent.putExtra(EXTRA_STATE_DELTA, delta)
+                    .putExtra(EXTRA_BASE_SEQUENCE, deltaState.mSequence);
+        } else {
+            intent.putExtra(EXTRA_STATE, state);
+        }
+        if (subscription.getWireVersion() > LiveWallpaperInfo.WIRE_VERSION_LEGACY) {
+            // Older subscribers get exactly the intent they always have
+            intent.putExtra(EXTRA_WIRE_VERSION, subscription.getWireVersion());
+        }
+        int sequence = 0;
+        if (deltaState != null) {
+            sequence = deltaState.mSequence + 1;
+            intent.putExtra(EXTRA_SEQUENCE, sequence);
+        }
         try {
             ComponentName returnedSubscriber = startService(intent);
             if (returnedSubscriber == null) {
@@ -348,6 +548,16 @@ public class LiveWallpaperSource extends IntentService {
                     }
                 });
             } else {
+                if (subscription.getMinUpdateInterval() > 0) {
+                    cancelDeferredState(subscriber);
+                    editor.putLong(getLastPublishTimeKey(subscriber),
+                            SystemClock.elapsedRealtime());
+                }
+                if (deltaState != null) {
+                    deltaState.mSequence = sequence;
+                    deltaState.mDeliveredInfo = info;
+                    editor.putString(getDeltaStateKey(subscriber), deltaState.toString());
+                }
                 LOGD("publishCurrentState(): successfully started service "
                         + returnedSubscriber.toString() + " with intent " + intent.toString());
             }
@@ -356,26 +566,195 @@ public class LiveWallpaperSource extends IntentService {
         }
     }
 
+    /**
+     * The last update delivered to a subscriber which supports deltas. Delivered only means that
+     * {@link #startService(Intent)} found the subscriber, not that it applied the update; a
+     * subscriber which didn't asks for the whole state when the next delta's base sequence
+     * doesn't match.
+     */
+    private static final class DeltaState {
+        int mSequence;
+        LiveWallpaperInfo mDeliveredInfo;
+
+        /**
+         * Returns the state saved by {@link #toString()}, or null if it can't be read.
+         */
+        static DeltaState fromString(String serialized) {
+            String[] arr = serialized.split("\\|", 2);
+            if (arr.length != 2) {
+                return null;
+            }
+            DeltaState deltaState = new DeltaState();
+            try {
+                deltaState.mSequence = Integer.parseInt(arr[0]);
+                if (arr[1].length() > 0) {
+                    deltaState.mDeliveredInfo = LiveWallpaperInfo.fromJson((JSONObject)
+                            new JSONTokener(arr[1]).nextValue());
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            } catch (JSONException e) {
+                return null;
+            }
+            return deltaState;
+        }
+
+        @Override
+        public String toString() {
+            String info = "";
+            if (mDeliveredInfo != null) {
+                try {
+                    info = mDeliveredInfo.toJson(LiveWallpaperInfo.WIRE_VERSION_PACKED).toString();
+                } catch (JSONException e) {
+                    // Without the info the next update is the whole state, which is always safe
+                    LOGE("Couldn't serialize delivered LiveWallpaperInfo", e);
+                }
+            }
+            return mSequence + "|" + info;
+        }
+    }
+
+    private DeltaState loadDeltaState(ComponentName subscriber) {
+        String serialized = mSharedPrefs.getString(getDeltaStateKey(subscriber), null);
+        DeltaState deltaState = (serialized != null) ? DeltaState.fromString(serialized) : null;
+        if (deltaState == null) {
+            if (serialized != null) {
+                LOGE("Couldn't deserialize delta state, id=" + mName);
+            }
+            deltaState = new DeltaState();
+        }
+        return deltaState;
+    }
+
+    private static String getDeltaStateKey(ComponentName subscriber) {
+        return PREF_DELTA_STATE_PREFIX + subscriber.flattenToShortString();
+    }
+
+    /**
+     * Returns the index in the payloads of {@link #publishCurrentState()} of the payload for
+     * {@code subscription}.
+     */
+    private static int getStatePayload(Subscription subscription) {
+        return (subscription.getWireVersion() > LiveWallpaperInfo.WIRE_VERSION_LEGACY ? 2 : 0)
+                + (subscription.supportsRegions() ? 1 : 0);
+    }
+
+    /**
+     * Returns the cheapest encoding of the current state which {@code subscription} understands.
+     */
+    private Bundle encodeState(Subscription subscription) {
+        return (mCurrentState != null)
+                ? mCurrentState.toBundle(subscription.getWireVersion(),
+                        subscription.supportsRegions())
+                : null;
+    }
+
+    /**
+     * Returns how many milliseconds must pass before {@code subscriber} can be sent another
+     * update, or 0 if it can be sent one now.
+     */
+    private long getRemainingUpdateInterval(ComponentName subscriber, Subscription subscription,
+            long now) {
+        if (subscription.getMinUpdateInterval() <= 0) {
+            return 0;
+        }
+        long lastPublishTime = mSharedPrefs.getLong(getLastPublishTimeKey(subscriber), 0);
+        if (lastPublishTime <= 0 || lastPublishTime > now) {
+            // Never sent, or sent before the device was last restarted
+            return 0;
+        }
+        return Math.max(0, lastPublishTime + subscription.getMinUpdateInterval() - now);
+    }
+
+    private static String getLastPublishTimeKey(ComponentName subscriber) {
+        return PREF_LAST_PUBLISH_TIME_PREFIX + subscriber.flattenToShortString();
+    }
+
+    /**
+     * Has the system start this source at {@code triggerTime}, on the
+     * {@link SystemClock#elapsedRealtime()} clock, to send {@code subscriber} whichever state is
+     * current then. Unlike a Handler message this outlives the service, which is destroyed as
+     * soon as it runs out of intents. Scheduling it again replaces the earlier time.
+     */
+    private void scheduleDeferredState(ComponentName subscriber, long triggerTime) {
+        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        // Don't wake the device up just to send it a palette
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, triggerTime,
+                getDeferredStateIntent(subscriber, PendingIntent.FLAG_UPDATE_CURRENT));
+    }
+
+    private void cancelDeferredState(ComponentName subscriber) {
+        PendingIntent pendingIntent = getDeferredStateIntent(subscriber,
+                PendingIntent.FLAG_NO_CREATE);
+        if (pendingIntent != null) {
+            AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+            alarmManager.cancel(pendingIntent);
+            pendingIntent.cancel();
+        }
+    }
+
+    private PendingIntent getDeferredStateIntent(ComponentName subscriber, int flags) {
+        Intent intent = new Intent(ACTION_PUBLISH_DEFERRED_STATE)
+                .setClass(this, getClass())
+                // PendingIntents which only differ in their extras are the same one, so the data
+                // keeps each subscriber's apart
+                .setData(Uri.fromParts("subscriber", subscriber.flattenToShortString(), null))
+                .putExtra(EXTRA_SUBSCRIBER_COMPONENT, subscriber);
+        return PendingIntent.getService(this, 0, intent, flags);
+    }
+
     private synchronized void loadSubscriptions() {
-        mSubscriptions = new HashMap<ComponentName, String>();
+        mSubscriptions = new HashMap<ComponentName, Subscription>();
         Set<String> serializedSubscriptions = mSharedPrefs.getStringSet(PREF_SUBSCRIPTIONS, null);
-        if (serializedSubscriptions != null) {
-            for (String serializedSubscription : serializedSubscriptions) {
-                String[] arr = serializedSubscription.split("\\|", 2);
-                ComponentName subscriber = ComponentName.unflattenFromString(arr[0]);
-                String token = arr[1];
-                mSubscriptions.put(subscriber, token);
+        if (serializedSubscriptions == null) {
+            return;
+        }
+
+        Map<String, String> serializedCapabilities = new HashMap<String, String>();
+        Set<String> capabilitiesSet = mSharedPrefs.getStringSet(PREF_SUBSCRIBER_CAPABILITIES,
+                null);
+        if (capabilitiesSet != null) {
+            for (String serializedCapability : capabilitiesSet) {
+                String[] arr = serializedCapability.split("\\|", 2);
+                serializedCapabilities.put(arr[0], arr[1]);
+            }
+        }
+
+        for (String serializedSubscription : serializedSubscriptions) {
+            String[] arr = serializedSubscription.split("\\|", 2);
+            ComponentName subscriber = ComponentName.unflattenFromString(arr[0]);
+            String token = arr[1];
+            Subscription subscription = new Subscription(token);
+            String capabilities = serializedCapabilities.get(arr[0]);
+            if (capabilities != null) {
+                try {
+                    subscription = Subscription.fromCapabilitiesJson(token, (JSONObject)
+                            new JSONTokener(capabilities).nextValue());
+                } catch (JSONException e) {
+                    LOGE("Couldn't deserialize subscriber capabilities, id=" + mName, e);
+                }
             }
+            mSubscriptions.put(subscriber, subscription);
         }
     }
 
     private synchronized void saveSubscriptions() {
         Set<String> serializedSubscriptions = new HashSet<String>();
-        for (ComponentName subscriber : mSubscriptions.keySet()) {
-            serializedSubscriptions.add(subscriber.flattenToShortString() + "|"
-                    + mSubscriptions.get(subscriber));
+        Set<String> serializedCapabilities = new HashSet<String>();
+        for (Map.Entry<ComponentName, Subscription> entry : mSubscriptions.entrySet()) {
+            String subscriber = entry.getKey().flattenToShortString();
+            serializedSubscriptions.add(subscriber + "|" + entry.getValue().getToken());
+            try {
+                serializedCapabilities.add(subscriber + "|"
+                        + entry.getValue().capabilitiesToJson().toString());
+            } catch (JSONException e) {
+                LOGE("Couldn't serialize subscriber capabilities, id=" + mName, e);
+            }
         }
-        mSharedPrefs.edit().putStringSet(PREF_SUBSCRIPTIONS, serializedSubscriptions).commit();
+        mSharedPrefs.edit()
+                .putStringSet(PREF_SUBSCRIPTIONS, serializedSubscriptions)
+                .putStringSet(PREF_SUBSCRIBER_CAPABILITIES, serializedCapabilities)
+                .commit();
     }
 
     private void loadState() {
@@ -450,13 +829,65 @@ public class LiveWallpaperSource extends IntentService {
      */
     static public class Builder {
 
+        // Palettes are usually generated over and over as the wallpaper changes, so share the
+        // scratch buffers between them rather than allocating new ones each time
+        static final PaletteContext sPaletteContext = new PaletteContext();
+
+        // Every new palette takes the next id, so that palettes which are superseded before they
+        // are published can be recognized and dropped
+        private static final AtomicInteger sLatestRequestId = new AtomicInteger();
+        private static final Object sPublishLock = new Object();
+        private static final int NO_REQUEST_ID = -1;
+
+        private static final String WHOLE_IMAGE_REGION = "com.actionlauncher.api.WHOLE_IMAGE";
+
         Context mContext;
-        ActionPalette mActionPalette;
+        PaletteCache mPaletteCache;
+        LiveWallpaperInfo mLiveWallpaperInfo;
+        // The id taken when mLiveWallpaperInfo was set, or NO_REQUEST_ID if it hasn't been
+        int mRequestId = NO_REQUEST_ID;
+        float mPaletteChangeThreshold = DEFAULT_PALETTE_CHANGE_THRESHOLD;
+        List<PaletteRegion> mRegions;
 
         Builder(Context context) {
             mContext = context.getApplicationContext();
         }
 
+        /**
+         * Set a cache of previously generated palettes. If this is set, the palette for an image
+         * which is in the cache is returned from it rather than generated again, and newly
+         * generated palettes are added to it. Must be called before the palette is set.
+         *
+         * @param paletteCache The cache to use, or null to always generate the palette
+         * @return the builder instance
+         */
+        public Builder paletteCache(PaletteCache paletteCache) {
+            mPaletteCache = paletteCache;
+            return this;
+        }
+
+        /**
+         * Also generate a palette for each of {@code regions} of the Bitmap, which is published
+         * in the {@link LiveWallpaperInfo} along with the palette of the whole Bitmap. Every
+         * palette is built from a single pass over the Bitmap's pixels. Must be called before
+         * the Bitmap is set.
+         * <p>
+         * The regions are only sent to subscribers which said they support them when they
+         * subscribed. Others are sent the palette of the whole Bitmap, as before.
+         * <p>
+         * Regions can't be combined with {@link #setPanPalettes(PanPalettes, float)} or
+         * {@link #setPaletteAccumulatorSynchronous(PaletteAccumulator, String)}, which throw
+         * IllegalStateException if regions have been set.
+         *
+         * @param regions The regions, or null for only the whole Bitmap's palette
+         * @return the builder instance
+         */
+        public Builder regions(List<PaletteRegion> regions) {
+            mRegions = (regions == null || regions.isEmpty())
+                    ? null : new ArrayList<PaletteRegion>(regions);
+            return this;
+        }
+
         /**
          * Set the Bitmap, and generate a palette for the supplied Bitmap.
          * Occurs synchronously, so put inside a thread/AsyncTask.
@@ -465,10 +896,232 @@ public class LiveWallpaperSource extends IntentService {
          * @return the builder instance
          */
         public Builder setBitmapSynchronous(Bitmap bitmap) {
-            mActionPalette = ActionPalette.from(bitmap).generate();
+            mRequestId = sLatestRequestId.incrementAndGet();
+            mLiveWallpaperInfo = generateFromBitmap(bitmap);
+            return this;
+        }
+
+        /**
+         * Generate a palette for the supplied Bitmap on {@code executor}, and then publish it as
+         * {@link #run()} does. Each call supersedes the previous ones: a palette which is still
+         * waiting to be generated is skipped when it runs, and one which is being generated is
+         * dropped rather than published, so palettes are never published out of order. Setting
+         * a palette on any builder, such as with {@link #setBitmapSynchronous(Bitmap)}, also
+         * supersedes any pending palette, and is itself superseded by a later call.
+         * <p>
+         * The bitmap must not be recycled until the returned {@link Future} is done.
+         *
+         * @param bitmap   The bitmap to process
+         * @param executor The executor to generate the palette on
+         * @return a future which holds the result of {@link #run()}, or false if the palette was
+         * superseded before it was published
+         */
+        public Future<Boolean> publishBitmapAsync(final Bitmap bitmap, Executor executor) {
+            if (bitmap == null || executor == null) {
+                throw new IllegalArgumentException("bitmap and executor can not be null");
+            }
+
+            final int requestId = sLatestRequestId.incrementAndGet();
+            final FutureTask<Boolean> request = new FutureTask<Boolean>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    if (requestId != sLatestRequestId.get()) {
+                        return false;
+                    }
+                    final LiveWallpaperInfo liveWallpaperInfo = generateFromBitmap(bitmap);
+
+                    synchronized (sPublishLock) {
+                        if (requestId != sLatestRequestId.get()) {
+                            LOGD("Dropping superseded palette, request:" + requestId);
+                            return false;
+                        }
+                        return startLiveWallpaperSource(liveWallpaperInfo);
+                    }
+                }
+            });
+
+            // Superseded requests aren't cancelled, so that their future holds false rather than
+            // throwing CancellationException. The id check makes them return straight away.
+            executor.execute(request);
+            return request;
+        }
+
+        private LiveWallpaperInfo generateFromBitmap(Bitmap bitmap) {
+            String cacheKey = mPaletteCache != null ? PaletteCache.createKey(bitmap) : null;
+            if (cacheKey != null && mRegions != null) {
+                // The same image with different regions needs a different entry
+                cacheKey += "-" + Integer.toHexString(mRegions.hashCode());
+            }
+            final LiveWallpaperInfo cachedInfo = getCachedLiveWallpaperInfo(cacheKey);
+            if (cachedInfo != null) {
+                return cachedInfo;
+            }
+
+            if (mRegions != null) {
+                return generateRegionsFromBitmap(bitmap, cacheKey);
+            }
+
+            final ActionPalette actionPalette;
+            synchronized (sPaletteContext) {
+                actionPalette = ActionPalette.from(bitmap)
+                        .context(sPaletteContext)
+                        .generate();
+            }
+            return toLiveWallpaperInfo(actionPalette, cacheKey);
+        }
+
+        private LiveWallpaperInfo generateRegionsFromBitmap(Bitmap bitmap, String cacheKey) {
+            // The whole Bitmap is generated as one more region, so it's part of the same pass
+            final List<PaletteRegion> regions = new ArrayList<PaletteRegion>(mRegions.size() + 1);
+            regions.add(new PaletteRegion(WHOLE_IMAGE_REGION, 0f, 0f, 1f, 1f));
+            regions.addAll(mRegions);
+
+            final Map<String, ActionPalette> palettes;
+            synchronized (sPaletteContext) {
+                palettes = ActionPalette.from(bitmap)
+                        .context(sPaletteContext)
+                        .generateRegions(regions);
+            }
+
+            final LiveWallpaperInfo.Builder builder = new LiveWallpaperInfo.Builder()
+                    .palette(palettes.get(WHOLE_IMAGE_REGION));
+            for (PaletteRegion region : mRegions) {
+                builder.region(region.getName(), palettes.get(region.getName()));
+            }
+            final LiveWallpaperInfo liveWallpaperInfo = builder.build();
+            if (cacheKey != null) {
+                mPaletteCache.put(cacheKey, liveWallpaperInfo);
+            }
+            return liveWallpaperInfo;
+        }
+
+        /**
+         * Set the palette of the part of a panning wallpaper which is visible at
+         * {@code normalOffsetX}. The palettes have already been generated, so this is cheap
+         * enough to call whenever the offset changes: a palette which isn't perceptibly different
+         * from the last one published is dropped by {@link #run()}, see
+         * {@link #paletteChangeThreshold(float)}.
+         *
+         * @param panPalettes   The palettes of the wallpaper's positions
+         * @param normalOffsetX The pan offset, from 0 for the left edge to 1 for the right edge
+         * @return the builder instance
+         * @throws IllegalStateException if {@link #regions(List) regions} have been set
+         */
+        public Builder setPanPalettes(PanPalettes panPalettes, float normalOffsetX) {
+            if (panPalettes == null) {
+                throw new IllegalArgumentException("panPalettes can not be null");
+            }
+            checkNoRegions("setPanPalettes()");
+            mRequestId = sLatestRequestId.incrementAndGet();
+            mLiveWallpaperInfo = panPalettes.getLiveWallpaperInfo(
+                    panPalettes.getPosition(normalOffsetX));
+            return this;
+        }
+
+        /**
+         * Set a palette which has already been generated, such as one from
+         * {@link PaletteCache#get(String)}.
+         *
+         * @param liveWallpaperInfo The palette to publish
+         * @return the builder instance
+         */
+        public Builder setLiveWallpaperInfo(LiveWallpaperInfo liveWallpaperInfo) {
+            if (liveWallpaperInfo == null) {
+                throw new IllegalArgumentException("liveWallpaperInfo can not be null");
+            }
+            mRequestId = sLatestRequestId.incrementAndGet();
+            mLiveWallpaperInfo = liveWallpaperInfo;
             return this;
         }
 
+        /**
+         * Generate a palette from the pixels which have been added to the supplied
+         * {@link PaletteAccumulator}, such as the tiles of a large image as they are decoded.
+         * Occurs synchronously, so put inside a thread/AsyncTask.
+         *
+         * @param accumulator The accumulator holding the image's pixels
+         * @return the builder instance
+         * @throws IllegalStateException if {@link #regions(List) regions} have been set
+         */
+        public Builder setPaletteAccumulatorSynchronous(PaletteAccumulator accumulator) {
+            return setPaletteAccumulatorSynchronous(accumulator, null);
+        }
+
+        /**
+         * Generate a palette from the pixels which have been added to the supplied
+         * {@link PaletteAccumulator}, unless the {@link #paletteCache(PaletteCache) palette
+         * cache} already holds one for {@code cacheKey}.
+         * Occurs synchronously, so put inside a thread/AsyncTask.
+         *
+         * @param accumulator The accumulator holding the image's pixels. If this is null and
+         *                    there is no entry for {@code cacheKey}, which can be trimmed at any
+         *                    time, IllegalArgumentException is thrown. To skip accumulating the
+         *                    pixels of a cached image, use {@link PaletteCache#get(String)} and
+         *                    {@link #setLiveWallpaperInfo(LiveWallpaperInfo)} instead.
+         * @param cacheKey    The image's key, from
+         *                    {@link PaletteCache#createKey(Bitmap, int, int)}, or null to always
+         *                    generate the palette
+         * @return the builder instance
+         * @throws IllegalStateException if {@link #regions(List) regions} have been set
+         */
+        public Builder setPaletteAccumulatorSynchronous(PaletteAccumulator accumulator,
+                String cacheKey) {
+            checkNoRegions("setPaletteAccumulatorSynchronous()");
+            mRequestId = sLatestRequestId.incrementAndGet();
+            if (mPaletteCache == null) {
+                cacheKey = null;
+            }
+            final LiveWallpaperInfo cachedInfo = getCachedLiveWallpaperInfo(cacheKey);
+            if (cachedInfo != null) {
+                mLiveWallpaperInfo = cachedInfo;
+                return this;
+            }
+            if (accumulator == null) {
+                throw new IllegalArgumentException("No cached palette for " + cacheKey
+                        + ", and no PaletteAccumulator to generate one from");
+            }
+
+            final ActionPalette actionPalette;
+            synchronized (sPaletteContext) {
+                actionPalette = ActionPalette.fromAccumulator(accumulator)
+                        .context(sPaletteContext)
+                        .generate();
+            }
+            mLiveWallpaperInfo = toLiveWallpaperInfo(actionPalette, cacheKey);
+            return this;
+        }
+
+        private void checkNoRegions(String method) {
+            if (mRegions != null) {
+                // The accumulator has no pixel positions, and the pan palettes are already
+                // generated, so neither can be split into regions
+                throw new IllegalStateException(method + " does not support regions");
+            }
+        }
+
+        private LiveWallpaperInfo getCachedLiveWallpaperInfo(String cacheKey) {
+            if (cacheKey == null) {
+                return null;
+            }
+            final LiveWallpaperInfo liveWallpaperInfo = mPaletteCache.get(cacheKey);
+            if (liveWallpaperInfo != null) {
+                LOGD("Using cached palette for " + cacheKey);
+            }
+            return liveWallpaperInfo;
+        }
+
+        private LiveWallpaperInfo toLiveWallpaperInfo(ActionPalette actionPalette,
+                String cacheKey) {
+            final LiveWallpaperInfo liveWallpaperInfo = (actionPalette == null) ? null :
+                    new LiveWallpaperInfo.Builder()
+                            .palette(actionPalette)
+                            .build();
+            if (cacheKey != null && liveWallpaperInfo != null) {
+                mPaletteCache.put(cacheKey, liveWallpaperInfo);
+            }
+            return liveWallpaperInfo;
+        }
+
         /**
          *
          * @param colors
@@ -479,6 +1132,24 @@ public class LiveWallpaperSource extends IntentService {
             return this;
         }*/
 
+        /**
+         * Set how different the new palette must be from the one which was last published for it
+         * to be published. The difference is the largest CIE76 &Delta;E between any of the six
+         * palette colors and the same color of the last palette, so palettes which are not
+         * perceptibly different don't wake Action Launcher. Use 0 to always publish.
+         * Defaults to {@link #DEFAULT_PALETTE_CHANGE_THRESHOLD}.
+         *
+         * @param threshold The minimum difference, in &Delta;E
+         * @return the builder instance
+         */
+        public Builder paletteChangeThreshold(float threshold) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative");
+            }
+            mPaletteChangeThreshold = threshold;
+            return this;
+        }
+
         /**
          * Should Log.d() and Log.e() calls be made. Used for debugging.
          *
@@ -491,18 +1162,29 @@ public class LiveWallpaperSource extends IntentService {
         }
 
         /**
-         * Kick off communication with Action Launcher.
+         * Kick off communication with Action Launcher. The palette isn't published if a newer one
+         * has been set since, on this or any other builder, or requested with
+         * {@link #publishBitmapAsync(Bitmap, Executor)}.
          *
          * @return true if communication with Action Launcher was initiated, false if not.
          */
         public boolean run() {
+            synchronized (sPublishLock) {
+                if (mRequestId != NO_REQUEST_ID && mRequestId != sLatestRequestId.get()) {
+                    LOGD("Dropping superseded palette, request:" + mRequestId);
+                    return false;
+                }
+                return startLiveWallpaperSource(mLiveWallpaperInfo);
+            }
+        }
+
+        private boolean startLiveWallpaperSource(LiveWallpaperInfo liveWallpaperInfo) {
             Intent serviceIntent = new Intent(mContext, LiveWallpaperSource.class)
                     .setAction(ProtocolConstants.ACTION_PUBLISH_STATE)
-                    .putExtra(EXTRA_LIVE_WALLPAPER_INFO, (mActionPalette == null) ? null :
-                            new LiveWallpaperInfo.Builder()
-                                    .palette(mActionPalette)
-                                    .build()
-                                    .toBundle())
+                    // The service is part of this library, so it can always read the packed form
+                    .putExtra(EXTRA_LIVE_WALLPAPER_INFO, (liveWallpaperInfo == null) ? null :
+                            liveWallpaperInfo.toBundle(LiveWallpaperInfo.WIRE_VERSION_PACKED))
+                    .putExtra(EXTRA_PALETTE_CHANGE_THRESHOLD, mPaletteChangeThreshold)
                     .putExtra("dummy", System.currentTimeMillis());
             try {
                 ComponentName result = mContext.startService(serviceIntent);
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A cache of the {@link LiveWallpaperInfo} generated for previously seen wallpapers, so that
+ * returning to an image doesn't quantize it again.
+ *
+ * Entries are keyed by {@link #createKey(Bitmap, int, int)}, a perceptual hash of the image plus
+ * its dimensions. The most recently used entries are kept in memory, and if the cache was created
+ * with a directory, every entry is also written there as JSON so that it survives the process.
+ *
+ * <p>All methods are thread-safe.
+ */
+public class PaletteCache {
+
+    private static final String DISK_CACHE_DIRECTORY = "action3_palettes";
+    private static final String DISK_CACHE_SUFFIX = ".json";
+    private static final String DISK_CACHE_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The default number of entries kept in memory. Each one is a single
+     * {@link LiveWallpaperInfo}, so this is cheap.
+     */
+    public static final int DEFAULT_MAX_MEMORY_ENTRIES = 16;
+
+    /**
+     * The default number of entries kept on disk.
+     */
+    public static final int DEFAULT_MAX_DISK_ENTRIES = 64;
+
+    // The hash is of a (HASH_WIDTH + 1) x HASH_HEIGHT grid of cells, each of which is the average
+    // of HASH_CELL_SAMPLES x HASH_CELL_SAMPLES pixels
+    private static final int HASH_WIDTH = 8;
+    private static final int HASH_HEIGHT = 8;
+    private static final int HASH_CELL_SAMPLES = 4;
+
+    private final LinkedHashMap<String, LiveWallpaperInfo> mMemoryCache;
+    private final File mDirectory;
+    private final int mMaxDiskEntries;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Create a cache which keeps {@link #DEFAULT_MAX_MEMORY_ENTRIES} entries in memory, and
+     * {@link #DEFAULT_MAX_DISK_ENTRIES} entries in a directory inside
+     * {@code context}'s cache directory.
+     */
+    public static PaletteCache withDiskCache(Context context) {
+        return new PaletteCache(DEFAULT_MAX_MEMORY_ENTRIES,
+                new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DEFAULT_MAX_DISK_ENTRIES);
+    }
+
+    /**
+     * Create a cache which is held in memory only.
+     *
+     * @param maxMemoryEntries the number of entries to keep in memory
+     */
+    public PaletteCache(int maxMemoryEntries) {
+        this(maxMemoryEntries, null, 0);
+    }
+
+    /**
+     * @param maxMemoryEntries the number of entries to keep in memory
+     * @param directory        the directory to also keep entries in, or {@code null} to keep
+     *                         them in memory only
+     * @param maxDiskEntries   the number of entries to keep in {@code directory}
+     */
+    public PaletteCache(final int maxMemoryEntries, File directory, int maxDiskEntries) {
+        if (maxMemoryEntries <= 0) {
+            throw new IllegalArgumentException("maxMemoryEntries must be positive");
+        }
+        if (directory != null && maxDiskEntries <= 0) {
+            throw new IllegalArgumentException("maxDiskEntries must be positive");
+        }
+
+        mMemoryCache = new LinkedHashMap<String, LiveWallpaperInfo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LiveWallpaperInfo> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+        mDirectory = directory;
+        mMaxDiskEntries = maxDiskEntries;
+    }
+
+    /**
+     * Create the key for the image {@code bitmap}.
+     */
+    public static String createKey(Bitmap bitmap) {
+        return createKey(bitmap, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * Create the key for an image of {@code width} x {@code height} pixels, from {@code thumbnail},
+     * a scaled down copy of it. This lets an image which is decoded in tiles be looked up without
+     * decoding all of it. Keys are only stable when they are created from the same kind of source,
+     * so always create the key for an image in the same way.
+     *
+     * The key is a difference hash (dHash) of the image's brightness, the image's mean color, and
+     * its dimensions. The difference hash captures the image's structure, and is the same for
+     * re-encoded and rescaled copies. As it is based on brightness alone, the mean color is
+     * included so that recolored copies of an image don't share a palette.
+     */
+    public static String createKey(Bitmap thumbnail, int width, int height) {
+        final int thumbnailWidth = thumbnail.getWidth();
+        final int thumbnailHeight = thumbnail.getHeight();
+        final int columns = HASH_WIDTH + 1;
+        final int samples = HASH_CELL_SAMPLES * HASH_CELL_SAMPLES;
+
+        final int[] cellLuminances = new int[columns * HASH_HEIGHT];
+        long redSum = 0, greenSum = 0, blueSum = 0;
+
+        for (int row = 0; row < HASH_HEIGHT; row++) {
+            for (int column = 0; column < columns; column++) {
+                int luminanceSum = 0;
+                for (int sampleY = 0; sampleY < HASH_CELL_SAMPLES; sampleY++) {
+                    final int y = sampleCoordinate(row, sampleY, HASH_HEIGHT, thumbnailHeight);
+                    for (int sampleX = 0; sampleX < HASH_CELL_SAMPLES; sampleX++) {
+                        final int x = sampleCoordinate(column, sampleX, columns, thumbnailWidth);
+                        final int color = thumbnail.getPixel(x, y);
+                        final int red = (color >> 16) & 0xFF;
+                        final int green = (color >> 8) & 0xFF;
+                        final int blue = color & 0xFF;
+                        luminanceSum += red * 299 + green * 587 + blue * 114;
+                        redSum += red;
+                        greenSum += green;
+                        blueSum += blue;
+                    }
+                }
+                cellLuminances[row * columns + column] = luminanceSum / samples;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < HASH_HEIGHT; row++) {
+            for (int column = 0; column < HASH_WIDTH; column++) {
+                final int index = row * columns + column;
+                hash <<= 1;
+                if (cellLuminances[index] > cellLuminances[index + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+
+        // Keep only the top 4 bits of each component of the mean color, so that the small shifts
+        // a re-encode causes don't change the key
+        final int totalSamples = columns * HASH_HEIGHT * samples;
+        final int meanColor = (int) (((redSum / totalSamples) >> 4) << 8
+                | ((greenSum / totalSamples) >> 4) << 4
+                | ((blueSum / totalSamples) >> 4));
+
+        return String.format(Locale.US, "%dx%d-%016x-%03x", width, height, hash, meanColor);
+    }
+
+    private static int sampleCoordinate(int cell, int sample, int cells, int size) {
+        // Sample the center of each of the sub-cells
+        final int coordinate = (int) (((cell * HASH_CELL_SAMPLES + sample) * 2L + 1) * size
+                / (2L * cells * HASH_CELL_SAMPLES));
+        return Math.min(coordinate, size - 1);
+    }
+
+    /**
+     * @return the cached {@link LiveWallpaperInfo} for {@code key}, or {@code null} if there
+     * isn't one.
+     */
+    public synchronized LiveWallpaperInfo get(String key) {
+        LiveWallpaperInfo liveWallpaperInfo = mMemoryCache.get(key);
+        if (liveWallpaperInfo == null && mDirectory != null) {
+            liveWallpaperInfo = readFromDisk(key);
+            if (liveWallpaperInfo != null) {
+                mMemoryCache.put(key, liveWallpaperInfo);
+            }
+        }
+
+        if (liveWallpaperInfo != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return liveWallpaperInfo;
+    }
+
+    /**
+     * @return true if there is a cached {@link LiveWallpaperInfo} for {@code key}. This does not
+     * affect the hit and miss counts, or which entries are evicted first.
+     */
+    public synchronized boolean contains(String key) {
+        return mMemoryCache.containsKey(key)
+                || (mDirectory != null && fileForKey(key).exists());
+    }
+
+    /**
+     * Cache {@code liveWallpaperInfo} as the {@link LiveWallpaperInfo} for {@code key}.
+     */
+    public synchronized void put(String key, LiveWallpaperInfo liveWallpaperInfo) {
+        if (key == null || liveWallpaperInfo == null) {
+            throw new IllegalArgumentException("key and liveWallpaperInfo must not be null");
+        }
+
+        mMemoryCache.put(key, liveWallpaperInfo);
+        if (mDirectory != null) {
+            writeToDisk(key, liveWallpaperInfo);
+        }
+    }
+
+    /**
+     * Remove every entry from the cache, including those on disk. The hit and miss counts are not
+     * reset.
+     */
+    public synchronized void clear() {
+        mMemoryCache.clear();
+        if (mDirectory != null) {
+            final File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of times {@link #get(String)} has returned a cached entry.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of times {@link #get(String)} has not found a cached entry.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private File fileForKey(String key) {
+        return new File(mDirectory, key + DISK_CACHE_SUFFIX);
+    }
+
+    private LiveWallpaperInfo readFromDisk(String key) {
+        final File file = fileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                contents.write(buffer, 0, read);
+            }
+
+            final LiveWallpaperInfo liveWallpaperInfo = LiveWallpaperInfo.fromJson((JSONObject)
+                    new JSONTokener(contents.toString("UTF-8")).nextValue());
+            // Track use through the modification time, so the least recently used file is trimmed
+            file.setLastModified(System.currentTimeMillis());
+            return liveWallpaperInfo;
+        } catch (IOException e) {
+            LiveWallpaperSource.LOGE("Couldn't read cached palette " + file, e);
+        } catch (JSONException e) {
+            LiveWallpaperSource.LOGE("Couldn't deserialize cached palette " + file, e);
+            file.delete();
+        } catch (ClassCastException e) {
+            // The file held JSON, but not an object
+            LiveWallpaperSource.LOGE("Couldn't deserialize cached palette " + file, e);
+            file.delete();
+        } finally {
+            closeQuietly(inputStream);
+        }
+        return null;
+    }
+
+    private void writeToDisk(String key, LiveWallpaperInfo liveWallpaperInfo) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LiveWallpaperSource.LOGE("Couldn't create palette cache directory " + mDirectory);
+            return;
+        }
+
+        final File file = fileForKey(key);
+        // Write to a temporary file first, so that a partially written file is never read
+        final File tempFile = new File(mDirectory, key + DISK_CACHE_TEMP_SUFFIX);
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(liveWallpaperInfo.toJson(LiveWallpaperInfo.WIRE_VERSION_PACKED)
+                    .toString().getBytes("UTF-8"));
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            LiveWallpaperSource.LOGE("Couldn't write cached palette " + file, e);
+            tempFile.delete();
+            return;
+        } catch (JSONException e) {
+            LiveWallpaperSource.LOGE("Couldn't serialize cached palette " + file, e);
+            tempFile.delete();
+            return;
+        } finally {
+            closeQuietly(outputStream);
+        }
+
+        trimDiskCache();
+    }
+
+    private void trimDiskCache() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= mMaxDiskEntries) {
+            return;
+        }
+
+        // Remove the least recently used files
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - mMaxDiskEntries; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+}
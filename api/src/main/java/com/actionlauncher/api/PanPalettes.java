@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api;
+
+import android.graphics.Bitmap;
+
+import com.actionlauncher.api.actionpalette.ActionPalette;
+
+/**
+ * The palettes of a wallpaper which is wider than the screen, at a number of positions as it pans
+ * across the home screens, so that the palette of the part which is visible can be published as
+ * the user scrolls:
+ *
+ * <pre>
+ * // When the image changes
+ * mPanPalettes = PanPalettes.generate(bitmap, visibleWidth);
+ * ...
+ * // When the offset changes, such as in WallpaperService.Engine#onOffsetsChanged()
+ * LiveWallpaperSource.with(context)
+ *         .setPanPalettes(mPanPalettes, xOffset)
+ *         .run();
+ * </pre>
+ *
+ * Each palette only differs from its neighbours by the columns which have scrolled into and out
+ * of view, so the palettes of every position are generated from a single histogram which slides
+ * across the image, see {@link ActionPalette.Builder#generatePanPalettes(float, int)}.
+ * <p>
+ * Instances are immutable.
+ */
+public final class PanPalettes {
+
+    /**
+     * The default number of positions, one for each home screen of a typical launcher.
+     */
+    public static final int DEFAULT_POSITION_COUNT = 5;
+
+    // The regions of the info from toLiveWallpaperInfo() are named after their positions
+    private static final String POSITION_REGION_PREFIX = "com.actionlauncher.api.PAN_POSITION_";
+
+    private final LiveWallpaperInfo[] mLiveWallpaperInfos;
+
+    private PanPalettes(ActionPalette[] palettes) {
+        mLiveWallpaperInfos = new LiveWallpaperInfo[palettes.length];
+        for (int i = 0; i < palettes.length; i++) {
+            // Narrow images reuse a palette for neighbouring positions, so reuse the info too
+            mLiveWallpaperInfos[i] = (i > 0 && palettes[i] == palettes[i - 1])
+                    ? mLiveWallpaperInfos[i - 1]
+                    : new LiveWallpaperInfo.Builder().palette(palettes[i]).build();
+        }
+    }
+
+    private PanPalettes(LiveWallpaperInfo[] liveWallpaperInfos) {
+        mLiveWallpaperInfos = liveWallpaperInfos;
+    }
+
+    /**
+     * Generate the palettes of {@link #DEFAULT_POSITION_COUNT} positions across {@code bitmap}.
+     * Occurs synchronously, so put inside a thread/AsyncTask.
+     *
+     * @see #generate(Bitmap, float, int)
+     */
+    public static PanPalettes generate(Bitmap bitmap, float visibleWidth) {
+        return generate(bitmap, visibleWidth, DEFAULT_POSITION_COUNT);
+    }
+
+    /**
+     * Generate the palettes of {@code positionCount} positions across {@code bitmap}.
+     * Occurs synchronously, so put inside a thread/AsyncTask.
+     *
+     * @param bitmap        The part of the wallpaper which pans across the home screens
+     * @param visibleWidth  The fraction of the bitmap's width which is visible at once, between 0
+     *                      (exclusive) and 1
+     * @param positionCount The number of positions, spaced evenly from the left edge of the
+     *                      bitmap to the right
+     */
+    public static PanPalettes generate(Bitmap bitmap, float visibleWidth, int positionCount) {
+        final ActionPalette[] palettes;
+        synchronized (LiveWallpaperSource.Builder.sPaletteContext) {
+            palettes = ActionPalette.from(bitmap)
+                    .context(LiveWallpaperSource.Builder.sPaletteContext)
+                    .generatePanPalettes(visibleWidth, positionCount);
+        }
+        return new PanPalettes(palettes);
+    }
+
+    /**
+     * Recreate the palettes which were stored with {@link #toLiveWallpaperInfo()}, such as from a
+     * {@link PaletteCache}.
+     *
+     * @return the palettes, or null if {@code liveWallpaperInfo} doesn't hold any
+     */
+    public static PanPalettes fromLiveWallpaperInfo(LiveWallpaperInfo liveWallpaperInfo) {
+        int positionCount = 0;
+        while (liveWallpaperInfo.getRegion(POSITION_REGION_PREFIX + positionCount) != null) {
+            positionCount++;
+        }
+        if (positionCount == 0) {
+            return null;
+        }
+
+        final LiveWallpaperInfo[] liveWallpaperInfos = new LiveWallpaperInfo[positionCount];
+        for (int i = 0; i < positionCount; i++) {
+            liveWallpaperInfos[i] = liveWallpaperInfo.getRegion(POSITION_REGION_PREFIX + i);
+        }
+        return new PanPalettes(liveWallpaperInfos);
+    }
+
+    /**
+     * @return a single info which holds the palette of each position as a region, so that the
+     * palettes can be stored, such as in a {@link PaletteCache}. It isn't meant to be published.
+     *
+     * @see #fromLiveWallpaperInfo(LiveWallpaperInfo)
+     */
+    public LiveWallpaperInfo toLiveWallpaperInfo() {
+        final LiveWallpaperInfo.Builder builder = new LiveWallpaperInfo.Builder();
+        for (int i = 0; i < mLiveWallpaperInfos.length; i++) {
+            builder.region(POSITION_REGION_PREFIX + i, mLiveWallpaperInfos[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of positions there is a palette for
+     */
+    public int getPositionCount() {
+        return mLiveWallpaperInfos.length;
+    }
+
+    /**
+     * @param normalOffsetX The pan offset, from 0 for the left edge to 1 for the right edge
+     * @return the position nearest to {@code normalOffsetX}
+     */
+    public int getPosition(float normalOffsetX) {
+        final float offset = Math.max(0f, Math.min(1f, normalOffsetX));
+        return Math.round(offset * (mLiveWallpaperInfos.length - 1));
+    }
+
+    /**
+     * @return the info holding the palette of {@code position}
+     */
+    public LiveWallpaperInfo getLiveWallpaperInfo(int position) {
+        return mLiveWallpaperInfos[position];
+    }
+
+}
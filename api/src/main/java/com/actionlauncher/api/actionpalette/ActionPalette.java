@@ -17,13 +17,21 @@
 package com.actionlauncher.api.actionpalette;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.os.AsyncTask;
 import android.util.TimingLogger;
 
+import com.actionlauncher.api.actionpalette.ImageScaler.ScaledImage;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class is a copy of API 22's Palette library from Support Library. It has been integrated
@@ -51,6 +59,9 @@ import java.util.List;
  * Instances are created with a {@link Builder} which supports several options to tweak the
  * generated ActionPalette. See that class' documentation for more information.
  * <p>
+ * A generated palette doesn't change, and can be read from several threads, unless it was
+ * generated with a custom {@link Generator}, which it reads its swatches from.
+ * <p>
  * Generation should always be completed on a background thread, ideally the one in
  * which you load your image on. {@link Builder} supports both synchronous and asynchronous
  * generation:
@@ -66,6 +77,10 @@ import java.util.List;
  *     }
  * });
  * </pre>
+ * <p>
+ * The palette engine itself only works on ARGB pixel arrays and does not call into Android, so
+ * it can also be used on a plain JVM via {@link #fromPixels(int[], int, int)}. The
+ * {@link Bitmap} entry points are thin adapters which read the pixels of the (scaled) bitmap.
  */
 public final class ActionPalette {
 
@@ -81,9 +96,108 @@ public final class ActionPalette {
         void onGenerated(ActionPalette actionPalette);
     }
 
+    /**
+     * Listener to be used with {@link #generateAll(Collection, Executor, int,
+     * PaletteBatchListener)}. Its methods are called on the workers' threads, but never
+     * concurrently, in the order the palettes complete.
+     */
+    public interface PaletteBatchListener {
+
+        /**
+         * Called when the palette of the {@code index}th builder of the batch has been generated.
+         */
+        void onGenerated(int index, ActionPalette actionPalette);
+
+        /**
+         * Called when the palette of the {@code index}th builder of the batch could not be
+         * generated, including when it ran out of memory. The rest of the batch carries on.
+         */
+        void onFailed(int index, Throwable e);
+
+        /**
+         * Called after each palette has completed, whether or not it was generated.
+         */
+        void onProgress(int completedCount, int totalCount);
+    }
+
+    /**
+     * A filter which decides whether a color may be used in the palette. Filters are added with
+     * {@link Builder#addFilter(Filter)}.
+     * <p>
+     * Filters are compiled into a lookup table of the color space when they are first used, so
+     * they should accept or reject contiguous regions of colors, and always give the same result
+     * for a given color.
+     */
+    public interface Filter {
+
+        /**
+         * @param rgb the color to check
+         * @param hsl the color in HSL form: hue [0 .. 360), saturation [0...1] and lightness
+         *            [0...1]. This must not be modified.
+         * @return true if the color may be used in the palette
+         */
+        boolean isAllowed(int rgb, float[] hsl);
+    }
+
     public static final int DEFAULT_RESIZE_BITMAP_MAX_DIMENSION = 192;
     public static final int DEFAULT_CALCULATE_NUMBER_COLORS = 16;
 
+    /**
+     * Histogram mode which counts every distinct color in the image. This is the default.
+     *
+     * @see Builder#histogramMode(int)
+     */
+    public static final int HISTOGRAM_MODE_EXACT = 0;
+
+    /**
+     * Histogram mode which reduces each pixel to 5 bits per RGB component before counting it.
+     *
+     * @see Builder#histogramMode(int)
+     */
+    public static final int HISTOGRAM_MODE_BUCKETED = 1;
+
+    /**
+     * Resize filter which takes the pixel nearest the center of each scaled pixel. This is the
+     * default, and reads the fewest source pixels.
+     *
+     * @see Builder#resizeFilter(int)
+     */
+    public static final int RESIZE_FILTER_NEAREST = 0;
+
+    /**
+     * Resize filter which averages all of the source pixels each scaled pixel covers, so that
+     * small details and noise are blended rather than sampled.
+     *
+     * @see Builder#resizeFilter(int)
+     */
+    public static final int RESIZE_FILTER_BOX = 1;
+
+    /**
+     * The median cut quantizer, which splits the color space into boxes by volume so that
+     * distinct colors are picked out. This is the default.
+     *
+     * @see Builder#quantizer(Quantizer)
+     */
+    public static final Quantizer QUANTIZER_MEDIAN_CUT = ColorCutQuantizer.MEDIAN_CUT;
+
+    /**
+     * An octree quantizer, which merges the deepest branches of an octree of the colors until it
+     * has no more leaves than the maximum number of colors, so its memory is bounded by that
+     * number rather than the number of colors.
+     *
+     * @see Builder#quantizer(Quantizer)
+     */
+    public static final Quantizer QUANTIZER_OCTREE = new OctreeQuantizer();
+
+    /**
+     * A k-means quantizer, which moves the clusters towards the population-weighted center of
+     * their colors until they stop moving, or for at most 10 rounds. It is slower than the
+     * others, but picks representative rather than distinct colors.
+     *
+     * @see Builder#quantizer(Quantizer)
+     */
+    public static final Quantizer QUANTIZER_KMEANS = new KMeansQuantizer();
+
     private static final float MIN_CONTRAST_TITLE_TEXT = 3.0f;
     private static final float MIN_CONTRAST_BODY_TEXT = 4.5f;
 
@@ -97,6 +211,26 @@ public final class ActionPalette {
         return new Builder(bitmap);
     }
 
+    /**
+     * Start generating a {@link ActionPalette} from an array of ARGB pixels with the returned
+     * {@link Builder} instance. Unlike {@link #from(Bitmap)}, this does not require Android.
+     *
+     * @param argb the pixels of the image, in row-major order. The array is not modified.
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public static Builder fromPixels(int[] argb, int width, int height) {
+        return new Builder(argb, width, height);
+    }
+
+    /**
+     * Start generating a {@link ActionPalette} from the pixels which have been added to
+     * {@code accumulator} with the returned {@link Builder} instance.
+     */
+    public static Builder fromAccumulator(PaletteAccumulator accumulator) {
+        return new Builder(accumulator);
+    }
+
     /**
      * Generate a {@link ActionPalette} from the pre-generated list of {@link ActionPalette.Swatch} swatches.
      * This is useful for testing, or if you want to resurrect a {@link ActionPalette} instance from a
@@ -106,6 +240,40 @@ public final class ActionPalette {
         return new Builder(swatches).generate();
     }
 
+    /**
+     * Generate the palettes of a batch of images, such as a whole catalogue of wallpapers, on
+     * {@code executor}. At most {@code workerCount} images are generated at once, however many
+     * threads the executor has, and each worker reuses its own {@link PaletteContext} from one
+     * image to the next in place of any context set on the builders. The builders themselves
+     * aren't changed, and each palette has its own swatches. The exception is a custom
+     * {@link Generator} set with {@link Builder#generator(Generator)}, which the palettes it
+     * generates read their swatches from; one which is set on several of the builders is used
+     * from several workers at once.
+     * <p>
+     * If the returned {@link Future} is cancelled, images which haven't been started are skipped
+     * and the listener isn't called again. The source bitmaps or pixels must not be modified or
+     * recycled until the future is done.
+     *
+     * @param builders    the configured builders, one per image. Each one is used once.
+     * @param executor    the executor to run the workers on
+     * @param workerCount the maximum number of images to generate at once, such as the number
+     *                    of processors
+     * @param listener    called as each palette completes, or null to only use the returned
+     *                    future
+     * @return a future which holds the palettes in the order of {@code builders}, with null for
+     * any which could not be generated
+     */
+    public static Future<List<ActionPalette>> generateAll(Collection<Builder> builders,
+            Executor executor, int workerCount, PaletteBatchListener listener) {
+        if (builders == null || executor == null) {
+            throw new IllegalArgumentException("builders and executor can not be null");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount should be >= 1");
+        }
+        return new PaletteBatch(builders, workerCount, listener).start(executor);
+    }
+
     /**
      * @deprecated Use {@link Builder} to generate the ActionPalette.
      */
@@ -143,7 +311,7 @@ public final class ActionPalette {
     private final List<Swatch> mSwatches;
     private final Generator mGenerator;
 
-    private ActionPalette(List<Swatch> swatches, Generator generator) {
+    ActionPalette(List<Swatch> swatches, Generator generator) {
         mSwatches = swatches;
         mGenerator = generator;
     }
@@ -197,6 +365,15 @@ public final class ActionPalette {
         return mGenerator.getDarkMutedSwatch();
     }
 
+    /**
+     * Returns the swatch picked for {@code target}, which is either one of the built in targets
+     * such as {@link PaletteTarget#VIBRANT} or was added with
+     * {@link Builder#addTarget(PaletteTarget)}. Might be null.
+     */
+    public Swatch getSwatchForTarget(PaletteTarget target) {
+        return mGenerator.getSwatchForTarget(target);
+    }
+
     /**
      * Returns the most vibrant color in the palette as an RGB packed int.
      *
@@ -258,22 +435,14 @@ public final class ActionPalette {
     }
 
     /**
-     * Scale the bitmap down so that it's largest dimension is {@code targetMaxDimension}.
-     * If {@code bitmap} is smaller than this, then it is returned.
+     * Returns the color picked for {@code target} as an RGB packed int.
+     *
+     * @param defaultColor value to return if the swatch isn't available
+     * @see #getSwatchForTarget(PaletteTarget)
      */
-    private static Bitmap scaleBitmapDown(Bitmap bitmap, final int targetMaxDimension) {
-        final int maxDimension = Math.max(bitmap.getWidth(), bitmap.getHeight());
-
-        if (maxDimension <= targetMaxDimension) {
-            // If the bitmap is small enough already, just return it
-            return bitmap;
-        }
-
-        final float scaleRatio = targetMaxDimension / (float) maxDimension;
-        return Bitmap.createScaledBitmap(bitmap,
-                Math.round(bitmap.getWidth() * scaleRatio),
-                Math.round(bitmap.getHeight() * scaleRatio),
-                false);
+    public int getColorForTarget(PaletteTarget target, int defaultColor) {
+        Swatch swatch = getSwatchForTarget(target);
+        return swatch != null ? swatch.getRgb() : defaultColor;
     }
 
     /**
@@ -285,26 +454,69 @@ public final class ActionPalette {
         private final int mRgb;
         private final int mPopulation;
 
-        private boolean mGeneratedTextColors;
-        private int mTitleTextColor;
-        private int mBodyTextColor;
+        private final int mTitleTextColor;
+        private final int mBodyTextColor;
 
-        private float[] mHsl;
+        private final float[] mHsl;
 
         public Swatch(int color, int population) {
-            mRed = Color.red(color);
-            mGreen = Color.green(color);
-            mBlue = Color.blue(color);
-            mRgb = color;
-            mPopulation = population;
+            this(ColorUtils.red(color), ColorUtils.green(color), ColorUtils.blue(color), color,
+                    population);
         }
 
         Swatch(int red, int green, int blue, int population) {
+            this(red, green, blue, ColorUtils.rgb(red, green, blue), population);
+        }
+
+        private Swatch(int red, int green, int blue, int rgb, int population) {
             mRed = red;
             mGreen = green;
             mBlue = blue;
-            mRgb = Color.rgb(red, green, blue);
+            mRgb = rgb;
             mPopulation = population;
+
+            // Everything is derived up front so that a swatch is immutable and can be shared
+            // between threads without synchronization
+            mHsl = new float[3];
+            ColorUtils.RGBToHSL(mRed, mGreen, mBlue, mHsl);
+
+            // Text is always drawn over the opaque color, whatever alpha the pixel it came from had
+            final int background = ColorUtils.rgb(mRed, mGreen, mBlue);
+            final double luminance = ColorUtils.calculateLuminance(background);
+
+            // First check white, as most colors will be dark
+            final int lightBodyAlpha = ColorUtils.calculateMinimumAlpha(
+                    ColorUtils.WHITE, background, luminance, MIN_CONTRAST_BODY_TEXT);
+            final int lightTitleAlpha = ColorUtils.calculateMinimumAlpha(
+                    ColorUtils.WHITE, background, luminance, MIN_CONTRAST_TITLE_TEXT);
+
+            if (lightBodyAlpha != -1 && lightTitleAlpha != -1) {
+                // If we found valid light values, use them
+                mBodyTextColor = ColorUtils.setAlphaComponent(ColorUtils.WHITE, lightBodyAlpha);
+                mTitleTextColor = ColorUtils.setAlphaComponent(ColorUtils.WHITE, lightTitleAlpha);
+                return;
+            }
+
+            final int darkBodyAlpha = ColorUtils.calculateMinimumAlpha(
+                    ColorUtils.BLACK, background, luminance, MIN_CONTRAST_BODY_TEXT);
+            final int darkTitleAlpha = ColorUtils.calculateMinimumAlpha(
+                    ColorUtils.BLACK, background, luminance, MIN_CONTRAST_TITLE_TEXT);
+
+            if (darkTitleAlpha != -1 && darkBodyAlpha != -1) {
+                // If we found valid dark values, use them
+                mBodyTextColor = ColorUtils.setAlphaComponent(ColorUtils.BLACK, darkBodyAlpha);
+                mTitleTextColor = ColorUtils.setAlphaComponent(ColorUtils.BLACK, darkTitleAlpha);
+                return;
+            }
+
+            // If we reach here then we can not find title and body values which use the same
+            // lightness, we need to use mismatched values
+            mBodyTextColor = lightBodyAlpha != -1
+                    ? ColorUtils.setAlphaComponent(ColorUtils.WHITE, lightBodyAlpha)
+                    : ColorUtils.setAlphaComponent(ColorUtils.BLACK, darkBodyAlpha);
+            mTitleTextColor = lightTitleAlpha != -1
+                    ? ColorUtils.setAlphaComponent(ColorUtils.WHITE, lightTitleAlpha)
+                    : ColorUtils.setAlphaComponent(ColorUtils.BLACK, darkTitleAlpha);
         }
 
         /**
@@ -321,10 +533,6 @@ public final class ActionPalette {
          *     hsv[2] is Lightness [0...1]
          */
         public float[] getHsl() {
-            if (mHsl == null) {
-                mHsl = new float[3];
-                ColorUtils.RGBToHSL(mRed, mGreen, mBlue, mHsl);
-            }
             return mHsl;
         }
 
@@ -340,7 +548,6 @@ public final class ActionPalette {
          * {@link Swatch}'s color. This color is guaranteed to have sufficient contrast.
          */
         public int getTitleTextColor() {
-            ensureTextColorsGenerated();
             return mTitleTextColor;
         }
 
@@ -349,51 +556,9 @@ public final class ActionPalette {
          * {@link Swatch}'s color. This color is guaranteed to have sufficient contrast.
          */
         public int getBodyTextColor() {
-            ensureTextColorsGenerated();
             return mBodyTextColor;
         }
 
-        private void ensureTextColorsGenerated() {
-            if (!mGeneratedTextColors) {
-                // First check white, as most colors will be dark
-                final int lightBodyAlpha = ColorUtils.calculateMinimumAlpha(
-                        Color.WHITE, mRgb, MIN_CONTRAST_BODY_TEXT);
-                final int lightTitleAlpha = ColorUtils.calculateMinimumAlpha(
-                        Color.WHITE, mRgb, MIN_CONTRAST_TITLE_TEXT);
-
-                if (lightBodyAlpha != -1 && lightTitleAlpha != -1) {
-                    // If we found valid light values, use them and return
-                    mBodyTextColor = ColorUtils.setAlphaComponent(Color.WHITE, lightBodyAlpha);
-                    mTitleTextColor = ColorUtils.setAlphaComponent(Color.WHITE, lightTitleAlpha);
-                    mGeneratedTextColors = true;
-                    return;
-                }
-
-                final int darkBodyAlpha = ColorUtils.calculateMinimumAlpha(
-                        Color.BLACK, mRgb, MIN_CONTRAST_BODY_TEXT);
-                final int darkTitleAlpha = ColorUtils.calculateMinimumAlpha(
-                        Color.BLACK, mRgb, MIN_CONTRAST_TITLE_TEXT);
-
-                if (darkBodyAlpha != -1 && darkBodyAlpha != -1) {
-                    // If we found valid dark values, use them and return
-                    mBodyTextColor = ColorUtils.setAlphaComponent(Color.BLACK, darkBodyAlpha);
-                    mTitleTextColor = ColorUtils.setAlphaComponent(Color.BLACK, darkTitleAlpha);
-                    mGeneratedTextColors = true;
-                    return;
-                }
-
-                // If we reach here then we can not find title and body values which use the same
-                // lightness, we need to use mismatched values
-                mBodyTextColor = lightBodyAlpha != -1
-                        ? ColorUtils.setAlphaComponent(Color.WHITE, lightBodyAlpha)
-                        : ColorUtils.setAlphaComponent(Color.BLACK, darkBodyAlpha);
-                mTitleTextColor = lightTitleAlpha != -1
-                        ? ColorUtils.setAlphaComponent(Color.WHITE, lightTitleAlpha)
-                        : ColorUtils.setAlphaComponent(Color.BLACK, darkTitleAlpha);
-                mGeneratedTextColors = true;
-            }
-        }
-
         @Override
         public String toString() {
             return new StringBuilder(getClass().getSimpleName())
@@ -431,10 +596,21 @@ public final class ActionPalette {
     public static final class Builder {
         private List<Swatch> mSwatches;
         private Bitmap mBitmap;
+        private int[] mPixels;
+        private int mWidth;
+        private int mHeight;
+        private PaletteAccumulator mAccumulator;
         private int mMaxColors = DEFAULT_CALCULATE_NUMBER_COLORS;
         private int mResizeMaxDimension = DEFAULT_RESIZE_BITMAP_MAX_DIMENSION;
+        private int mResizeFilter = RESIZE_FILTER_NEAREST;
+        private int mHistogramMode = HISTOGRAM_MODE_EXACT;
+        private ForkJoinPool mHistogramPool;
+        private PaletteContext mContext;
+        private final List<Filter> mFilters = new ArrayList<Filter>();
+        private final List<PaletteTarget> mTargets = new ArrayList<PaletteTarget>();
 
         private Generator mGenerator;
+        private Quantizer mQuantizer = QUANTIZER_MEDIAN_CUT;
 
         /**
          * Construct a new {@link Builder} using a source {@link Bitmap}
@@ -444,6 +620,40 @@ public final class ActionPalette {
                 throw new IllegalArgumentException("Bitmap is not valid");
             }
             mBitmap = bitmap;
+            mFilters.add(ColorCutQuantizer.DEFAULT_FILTER);
+        }
+
+        /**
+         * Construct a new {@link Builder} using an array of ARGB pixels.
+         *
+         * @param pixels the pixels of the image, in row-major order. The array is not modified.
+         * @param width the width of the image
+         * @param height the height of the image
+         */
+        public Builder(int[] pixels, int width, int height) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Image dimensions are not valid");
+            }
+            if (pixels == null || pixels.length < width * height) {
+                throw new IllegalArgumentException("Pixels are not valid");
+            }
+            mPixels = pixels;
+            mWidth = width;
+            mHeight = height;
+            mFilters.add(ColorCutQuantizer.DEFAULT_FILTER);
+        }
+
+        /**
+         * Construct a new {@link Builder} using the pixels which have been added to a
+         * {@link PaletteAccumulator}. The accumulator's histogram mode is used, and the image is
+         * never resized.
+         */
+        public Builder(PaletteAccumulator accumulator) {
+            if (accumulator == null) {
+                throw new IllegalArgumentException("PaletteAccumulator is not valid");
+            }
+            mAccumulator = accumulator;
+            mFilters.add(ColorCutQuantizer.DEFAULT_FILTER);
         }
 
         /**
@@ -460,15 +670,46 @@ public final class ActionPalette {
         /**
          * Set the {@link Generator} to use when generating the {@link ActionPalette}. If this is called
          * with {@code null} then the default generator will be used.
+         * <p>
+         * The palettes read their swatches from the generator, and it is reused for each palette
+         * the builder generates, so a palette is only valid until the next one is generated.
          */
         public Builder generator(Generator generator) {
             mGenerator = generator;
             return this;
         }
 
+        /**
+         * Add a {@link PaletteTarget} for the default {@link Generator} to pick a swatch for,
+         * after the built in targets, which can then be read with
+         * {@link ActionPalette#getSwatchForTarget(PaletteTarget)}. Targets are picked in the
+         * order they are added. Custom generators set with {@link #generator(Generator)} do not
+         * use them.
+         */
+        public Builder addTarget(PaletteTarget target) {
+            if (target == null) {
+                throw new IllegalArgumentException("target can not be null");
+            }
+            if (!mTargets.contains(target) && !isDefaultTarget(target)) {
+                mTargets.add(target);
+            }
+            return this;
+        }
+
+        /**
+         * Set the {@link Quantizer} which reduces the colors of a {@link android.graphics.Bitmap},
+         * pixel array or {@link PaletteAccumulator} source to the swatches the {@link Generator}
+         * picks from. If this is called with {@code null} then {@link #QUANTIZER_MEDIAN_CUT} is
+         * used.
+         */
+        public Builder quantizer(Quantizer quantizer) {
+            mQuantizer = quantizer != null ? quantizer : QUANTIZER_MEDIAN_CUT;
+            return this;
+        }
+
         /**
          * Set the maximum number of colors to use in the quantization step when using a
-         * {@link android.graphics.Bitmap} as the source.
+         * {@link android.graphics.Bitmap} or pixel array as the source.
          * <p>
          * Good values for depend on the source image type. For landscapes, good values are in
          * the range 10-16. For images which are largely made up of people's faces then this
@@ -480,8 +721,8 @@ public final class ActionPalette {
         }
 
         /**
-         * Set the resize value when using a {@link android.graphics.Bitmap} as the source.
-         * If the bitmap's largest dimension is greater than the value specified, then the bitmap
+         * Set the resize value when using a {@link android.graphics.Bitmap} or pixel array as the
+         * source. If the bitmap's largest dimension is greater than the value specified, then the bitmap
          * will be resized so that it's largest dimension matches {@code maxDimension}. If the
          * bitmap is smaller or equal, the original is used as-is.
          * <p>
@@ -494,39 +735,125 @@ public final class ActionPalette {
             return this;
         }
 
+        /**
+         * Set how a {@link android.graphics.Bitmap} or pixel array source is scaled down to
+         * {@link #resizeBitmapSize(int)}, either {@link #RESIZE_FILTER_NEAREST} or
+         * {@link #RESIZE_FILTER_BOX}. Either way the pixels are read straight into a buffer,
+         * without creating a scaled {@link android.graphics.Bitmap}.
+         */
+        public Builder resizeFilter(int filter) {
+            if (filter != RESIZE_FILTER_NEAREST && filter != RESIZE_FILTER_BOX) {
+                throw new IllegalArgumentException("Unknown resize filter: " + filter);
+            }
+            mResizeFilter = filter;
+            return this;
+        }
+
+        /**
+         * Set how the colors of a {@link android.graphics.Bitmap} or pixel array source are counted
+         * before quantization.
+         * <p>
+         * {@link #HISTOGRAM_MODE_EXACT} counts every distinct color, so the cost of quantization
+         * grows with how noisy the image is. {@link #HISTOGRAM_MODE_BUCKETED} counts each pixel
+         * in one of 32,768 5-5-5 RGB buckets instead, which bounds the work and memory of
+         * quantization at the cost of some color precision.
+         */
+        public Builder histogramMode(int mode) {
+            if (mode != HISTOGRAM_MODE_EXACT && mode != HISTOGRAM_MODE_BUCKETED) {
+                throw new IllegalArgumentException("Unknown histogram mode: " + mode);
+            }
+            mHistogramMode = mode;
+            return this;
+        }
+
+        /**
+         * Set a {@link ForkJoinPool} on which the histogram of large images is built in parallel.
+         * Each worker counts a range of the pixels into its own histogram, and the results are
+         * merged before quantization. If this is {@code null} (the default), the histogram is always
+         * built on the calling thread.
+         * <p>
+         * Images with fewer pixels than {@link ColorHistogram#PARALLEL_MIN_PIXELS} after resizing
+         * are always counted serially, so this only has an effect when
+         * {@link #resizeBitmapSize(int)} is set well above the default. Requires API 21.
+         */
+        public Builder histogramPool(ForkJoinPool pool) {
+            mHistogramPool = pool;
+            return this;
+        }
+
+        /**
+         * Add a filter which decides whether a color may be used in the palette. By default a
+         * filter which ignores colors close to black, close to white and close to the red side of
+         * the I line is used; call {@link #clearFilters()} first to remove it.
+         */
+        public Builder addFilter(Filter filter) {
+            if (filter != null) {
+                mFilters.add(filter);
+            }
+            return this;
+        }
+
+        /**
+         * Remove all of the filters, including the default one.
+         */
+        public Builder clearFilters() {
+            mFilters.clear();
+            return this;
+        }
+
+        /**
+         * Set a {@link PaletteContext} whose buffers are reused for this generation, rather than
+         * allocating new ones. The context must not be used by another generation at the same
+         * time.
+         */
+        public Builder context(PaletteContext context) {
+            mContext = context;
+            return this;
+        }
+
         /**
          * Generate and return the {@link ActionPalette} synchronously.
          */
         public ActionPalette generate() {
+            return generate(mContext != null ? mContext : new PaletteContext());
+        }
+
+        /**
+         * Generate the {@link ActionPalette} synchronously with {@code context}, in place of the
+         * builder's own.
+         */
+        ActionPalette generate(PaletteContext context) {
             final TimingLogger logger = LOG_TIMINGS
                     ? new TimingLogger(LOG_TAG, "Generation")
                     : null;
 
             List<Swatch> swatches;
 
-            if (mBitmap != null) {
-                // We have a Bitmap so we need to quantization to reduce the number of colors
-
-                if (mResizeMaxDimension <= 0) {
-                    throw new IllegalArgumentException(
-                            "Minimum dimension size for resizing should should be >= 1");
-                }
+            if (mBitmap != null || mPixels != null) {
+                // We have an image so we need to quantization to reduce the number of colors
 
-                // First we'll scale down the bitmap so it's largest dimension is as specified
-                final Bitmap scaledBitmap = scaleBitmapDown(mBitmap, mResizeMaxDimension);
+                // First we'll scale down the image so it's largest dimension is as specified
+                final ScaledImage image = readScaledImage(context);
 
                 if (logger != null) {
                     logger.addSplit("Processed Bitmap");
                 }
 
-                // Now generate a quantizer from the Bitmap
-                ColorCutQuantizer quantizer = ColorCutQuantizer
-                        .fromBitmap(scaledBitmap, mMaxColors);
+                // Now generate a quantizer from the pixels
+                ColorCutQuantizer quantizer = ColorCutQuantizer.fromHistogram(
+                        ColorHistogram.fromPixels(image.pixels, image.width * image.height,
+                                mHistogramMode, mHistogramPool, context),
+                        mMaxColors, context.getIgnoredColorTable(mFilters), context, mQuantizer);
+                swatches = quantizer.getQuantizedColors();
 
-                // If created a new bitmap, recycle it
-                if (scaledBitmap != mBitmap) {
-                    scaledBitmap.recycle();
+                if (logger != null) {
+                    logger.addSplit("Color quantization completed");
                 }
+            } else if (mAccumulator != null) {
+                // The histogram has already been built up by the accumulator
+                ColorCutQuantizer quantizer = ColorCutQuantizer.fromHistogram(
+                        mAccumulator.toHistogram(), mMaxColors,
+                        context.getIgnoredColorTable(mFilters), context, mQuantizer);
                 swatches = quantizer.getQuantizedColors();
 
                 if (logger != null) {
@@ -537,20 +864,21 @@ public final class ActionPalette {
                 swatches = mSwatches;
             }
 
-            // If we haven't been provided with a generator, use the default
-            if (mGenerator == null) {
-                mGenerator = new DefaultGenerator();
-            }
+            // If we haven't been provided with a generator, use the default. A new one is made
+            // each time so that it picks up targets added since, and so that the palettes already
+            // returned keep their swatches
+            final Generator generator = (mGenerator != null)
+                    ? mGenerator : new DefaultGenerator(mTargets);
 
             // Now call let the Generator do it's thing
-            mGenerator.generate(swatches);
+            generator.generate(swatches, context);
 
             if (logger != null) {
                 logger.addSplit("Generator.generate() completed");
             }
 
             // Now create a ActionPalette instance
-            ActionPalette p = new ActionPalette(swatches, mGenerator);
+            ActionPalette p = new ActionPalette(swatches, generator);
 
             if (logger != null) {
                 logger.addSplit("Created ActionPalette");
@@ -560,6 +888,200 @@ public final class ActionPalette {
             return p;
         }
 
+        /**
+         * Generate a separate {@link ActionPalette} for each of {@code regions} of a
+         * {@link android.graphics.Bitmap} or pixel array source, synchronously. The image is
+         * scaled down once, and the histograms of every region are built in a single pass over
+         * its pixels, so only the quantization is repeated for each region. Regions may overlap.
+         * <p>
+         * The default {@link Generator} is always used, with any targets added with
+         * {@link #addTarget(PaletteTarget)}, as each palette needs its own.
+         *
+         * @return each region's palette, by name, in the order of {@code regions}
+         */
+        public Map<String, ActionPalette> generateRegions(List<PaletteRegion> regions) {
+            if (mBitmap == null && mPixels == null) {
+                throw new IllegalStateException(
+                        "Regions can only be generated from a Bitmap or pixel array");
+            }
+            if (regions == null || regions.isEmpty()) {
+                throw new IllegalArgumentException("List of regions is not valid");
+            }
+
+            final PaletteContext context = mContext != null ? mContext : new PaletteContext();
+            final ScaledImage image = readScaledImage(context);
+            final int width = image.width;
+            final int height = image.height;
+
+            final int regionCount = regions.size();
+            final boolean exact = mHistogramMode == HISTOGRAM_MODE_EXACT;
+            final ColorCountMap[] colorCounts = new ColorCountMap[regionCount];
+            final int[][] bucketCounts = new int[regionCount][];
+            final int[] bounds = new int[regionCount * 4];
+            for (int i = 0; i < regionCount; i++) {
+                final PaletteRegion region = regions.get(i);
+                final int left = bounds[i * 4] = region.getLeftPixel(width);
+                final int top = bounds[i * 4 + 1] = region.getTopPixel(height);
+                final int right = bounds[i * 4 + 2] = region.getRightPixel(width);
+                final int bottom = bounds[i * 4 + 3] = region.getBottomPixel(height);
+                // Each region is counted into its own buffers of the context, which are sized for
+                // the region so that they don't grow during the pass
+                if (exact) {
+                    colorCounts[i] = context.getRegionColorCounts(i,
+                            (right - left) * (bottom - top));
+                } else {
+                    bucketCounts[i] = context.getRegionBucketCounts(i);
+                }
+            }
+
+            // Visit each row once, adding the part of it within each region to that region
+            final int[] pixels = image.pixels;
+            for (int y = 0; y < height; y++) {
+                final int rowOffset = y * width;
+                for (int i = 0; i < regionCount; i++) {
+                    if (y >= bounds[i * 4 + 1] && y < bounds[i * 4 + 3]) {
+                        final int start = rowOffset + bounds[i * 4];
+                        final int end = rowOffset + bounds[i * 4 + 2];
+                        if (exact) {
+                            ColorHistogram.addColors(colorCounts[i], pixels, start, end);
+                        } else {
+                            ColorHistogram.addBuckets(bucketCounts[i], pixels, start, end);
+                        }
+                    }
+                }
+            }
+
+            final IgnoredColorTable ignoredColors = context.getIgnoredColorTable(mFilters);
+            final Map<String, ActionPalette> palettes =
+                    new LinkedHashMap<String, ActionPalette>(regionCount * 2);
+            for (int i = 0; i < regionCount; i++) {
+                // Each histogram is only valid until the context is next used, so quantize it
+                // before building the next one
+                final ColorHistogram histogram = exact
+                        ? ColorHistogram.fromColorCounts(colorCounts[i], context)
+                        : ColorHistogram.fromBucketCounts(bucketCounts[i], context);
+                final List<Swatch> swatches = ColorCutQuantizer.fromHistogram(histogram,
+                        mMaxColors, ignoredColors, context, mQuantizer).getQuantizedColors();
+                final Generator generator = new DefaultGenerator(mTargets);
+                generator.generate(swatches, context);
+                palettes.put(regions.get(i).getName(), new ActionPalette(swatches, generator));
+            }
+            return palettes;
+        }
+
+        /**
+         * Generate an {@link ActionPalette} for each of {@code positionCount} windows, each
+         * {@code windowWidth} of the width of a {@link android.graphics.Bitmap} or pixel array
+         * source and its full height, which are spaced evenly from the left edge of the image to
+         * the right. This matches what a wallpaper shows as it pans across the home screens, with
+         * palette {@code i} for a normalized offset of {@code i / (positionCount - 1)}.
+         * <p>
+         * The image is scaled down once, and a single histogram slides across it from one window
+         * to the next, removing the columns it leaves and adding the columns it reaches. Each
+         * column is counted at most twice, so the histograms of every window cost about the same
+         * as the histogram of the whole image. Each window is still quantized separately.
+         * <p>
+         * The histogram is always {@link #HISTOGRAM_MODE_BUCKETED}, and the default
+         * {@link Generator} is always used, with any targets added with
+         * {@link #addTarget(PaletteTarget)}, as each palette needs its own.
+         *
+         * @param windowWidth   the fraction of the image's width which is visible, between 0
+         *                      (exclusive) and 1
+         * @param positionCount the number of windows, at least 1. A single window is centered.
+         * @return the palette of each window, from left to right
+         */
+        public ActionPalette[] generatePanPalettes(float windowWidth, int positionCount) {
+            if (mBitmap == null && mPixels == null) {
+                throw new IllegalStateException(
+                        "Pan palettes can only be generated from a Bitmap or pixel array");
+            }
+            if (!(windowWidth > 0f && windowWidth <= 1f)) {
+                throw new IllegalArgumentException("windowWidth should be between 0 and 1");
+            }
+            if (positionCount <= 0) {
+                throw new IllegalArgumentException("positionCount should be >= 1");
+            }
+
+            final PaletteContext context = mContext != null ? mContext : new PaletteContext();
+            final ScaledImage image = readScaledImage(context);
+            final int[] pixels = image.pixels;
+            final int width = image.width;
+            final int height = image.height;
+            final int windowPixels = Math.max(1, Math.min(width, Math.round(windowWidth * width)));
+            final int maxLeft = width - windowPixels;
+
+            final IgnoredColorTable ignoredColors = context.getIgnoredColorTable(mFilters);
+            final int[] bucketCounts = context.getBucketCounts();
+            final ActionPalette[] palettes = new ActionPalette[positionCount];
+            int windowLeft = 0;
+            int windowRight = 0;
+            for (int position = 0; position < positionCount; position++) {
+                final int left = positionCount == 1
+                        ? maxLeft / 2
+                        : Math.round(maxLeft * position / (float) (positionCount - 1));
+                if (position > 0 && left == windowLeft) {
+                    // Narrow images have fewer columns than positions
+                    palettes[position] = palettes[position - 1];
+                    continue;
+                }
+                final int right = left + windowPixels;
+
+                // Windows only move right, so drop the columns to the left of the new window and
+                // add those beyond the right of the old one
+                final int removeEnd = Math.min(left, windowRight);
+                final int addStart = Math.max(windowRight, left);
+                for (int y = 0; y < height; y++) {
+                    final int rowOffset = y * width;
+                    if (windowLeft < removeEnd) {
+                        ColorHistogram.removeBuckets(bucketCounts, pixels,
+                                rowOffset + windowLeft, rowOffset + removeEnd);
+                    }
+                    if (addStart < right) {
+                        ColorHistogram.addBuckets(bucketCounts, pixels,
+                                rowOffset + addStart, rowOffset + right);
+                    }
+                }
+                windowLeft = left;
+                windowRight = right;
+
+                final List<Swatch> swatches = ColorCutQuantizer.fromHistogram(
+                        ColorHistogram.fromBucketCounts(bucketCounts, context), mMaxColors,
+                        ignoredColors, context, mQuantizer).getQuantizedColors();
+                final Generator generator = new DefaultGenerator(mTargets);
+                generator.generate(swatches, context);
+                palettes[position] = new ActionPalette(swatches, generator);
+            }
+            return palettes;
+        }
+
+        /**
+         * Read the pixels of the {@link android.graphics.Bitmap} or pixel array source, scaled
+         * down so that the largest dimension is at most {@link #resizeBitmapSize(int)}.
+         */
+        private ScaledImage readScaledImage(PaletteContext context) {
+            if (mResizeMaxDimension <= 0) {
+                throw new IllegalArgumentException(
+                        "Minimum dimension size for resizing should should be >= 1");
+            }
+
+            if (mBitmap != null) {
+                return ImageScaler.scaleBitmap(mBitmap, mResizeMaxDimension, mResizeFilter,
+                        context);
+            } else if (Math.max(mWidth, mHeight) > mResizeMaxDimension) {
+                return ImageScaler.scalePixels(mPixels, mWidth, mHeight, mResizeMaxDimension,
+                        mResizeFilter, context);
+            } else {
+                // If the image is small enough already, just use it
+                return new ScaledImage(mPixels, mWidth, mHeight);
+            }
+        }
+
+        private static boolean isDefaultTarget(PaletteTarget target) {
+            return target == PaletteTarget.VIBRANT || target == PaletteTarget.LIGHT_VIBRANT
+                    || target == PaletteTarget.DARK_VIBRANT || target == PaletteTarget.MUTED
+                    || target == PaletteTarget.LIGHT_MUTED || target == PaletteTarget.DARK_MUTED;
+        }
+
         /**
          * Generate the {@link ActionPalette} asynchronously. The provided listener's
          * {@link PaletteAsyncListener#onGenerated} method will be called with the palette when
@@ -570,18 +1092,76 @@ public final class ActionPalette {
                 throw new IllegalArgumentException("listener can not be null");
             }
 
-            return AsyncTaskCompat.executeParallel(
-                    new AsyncTask<Bitmap, Void, ActionPalette>() {
-                        @Override
-                        protected ActionPalette doInBackground(Bitmap... params) {
-                            return generate();
-                        }
+            // The AsyncTask lives in its own class so that this Builder can be used without
+            // Android, see ActionPalette#fromPixels()
+            return PaletteAsyncTask.executeParallel(this, listener, mBitmap);
+        }
 
-                        @Override
-                        protected void onPostExecute(ActionPalette colorExtractor) {
-                            listener.onGenerated(colorExtractor);
-                        }
-                    }, mBitmap);
+        /**
+         * Generate the {@link ActionPalette} asynchronously on {@code executor}. If the returned
+         * {@link Future} is cancelled before the palette has been generated, the listener is not
+         * called, and if it has not started yet, the palette is never generated. Generation which
+         * has already started runs to completion, but its result is discarded.
+         * <p>
+         * The source bitmap or pixels must not be modified or recycled until the palette has been
+         * generated or the future has been cancelled.
+         *
+         * @param executor the executor to generate the palette on
+         * @param listener called with the palette on the executor's thread, or null to only use
+         *                 the returned future
+         * @return a future which holds the palette, or the exception generation failed with
+         */
+        public Future<ActionPalette> generate(Executor executor, PaletteAsyncListener listener) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor can not be null");
+            }
+
+            final PaletteFutureTask task = new PaletteFutureTask(this, listener);
+            executor.execute(task);
+            return task;
+        }
+    }
+
+    /**
+     * Extension point for {@link ActionPalette} which reduces the distinct colors of an image to
+     * the {@link ActionPalette.Swatch} instances which the {@link Generator} picks from.
+     * <p>
+     * Colors which are ignored by the {@link Filter}s are removed before the quantizer is called,
+     * and any swatches it returns whose color is ignored are removed afterwards. If the image has
+     * no more distinct colors than the maximum, it isn't called at all.
+     * <p>
+     * Usage of a custom {@link Quantizer}, or one of the built-in {@link #QUANTIZER_MEDIAN_CUT},
+     * {@link #QUANTIZER_OCTREE} or {@link #QUANTIZER_KMEANS}, is done with
+     * {@link Builder#quantizer(Quantizer)} as so:
+     * <pre>
+     * ActionPalette.from(bitmap).quantizer(ActionPalette.QUANTIZER_OCTREE).generate();
+     * </pre>
+     */
+    public static abstract class Quantizer {
+
+        /**
+         * Reduce the colors of an image to at most {@code maxColors} swatches.
+         * <p>
+         * This method will probably be called on a background thread, and may be called for
+         * several images at once.
+         *
+         * @param colors      the distinct colors of the image, in the first {@code colorCount}
+         *                    entries. These may be reordered or overwritten.
+         * @param populations the number of pixels of each color, at the same index as the color.
+         *                    These may be reordered or overwritten.
+         * @param colorCount  the number of distinct colors, which is more than {@code maxColors}
+         * @param maxColors   the maximum number of swatches to return
+         */
+        public abstract List<ActionPalette.Swatch> quantize(int[] colors, int[] populations,
+                int colorCount, int maxColors);
+
+        /**
+         * A version of {@link #quantize(int[], int[], int, int)} which may use the buffers of
+         * {@code context} as scratch space.
+         */
+        List<ActionPalette.Swatch> quantize(int[] colors, int[] populations, int colorCount,
+                int maxColors, PaletteContext context) {
+            return quantize(colors, populations, colorCount, maxColors);
         }
     }
 
@@ -610,6 +1190,14 @@ public final class ActionPalette {
          */
         public abstract void generate(List<ActionPalette.Swatch> swatches);
 
+        /**
+         * As {@link #generate(List)}, which the built in generator overrides to use the scratch
+         * buffers of {@code context}.
+         */
+        void generate(List<ActionPalette.Swatch> swatches, PaletteContext context) {
+            generate(swatches);
+        }
+
         /**
          * Return the most vibrant {@link ActionPalette.Swatch}
          */
@@ -651,6 +1239,28 @@ public final class ActionPalette {
         public ActionPalette.Swatch getDarkMutedSwatch() {
             return null;
         }
+
+        /**
+         * Return the {@link ActionPalette.Swatch} for {@code target}. By default this returns the
+         * swatches of the built in targets, such as {@link PaletteTarget#VIBRANT}, and null for
+         * any other target.
+         */
+        public ActionPalette.Swatch getSwatchForTarget(PaletteTarget target) {
+            if (target == PaletteTarget.VIBRANT) {
+                return getVibrantSwatch();
+            } else if (target == PaletteTarget.LIGHT_VIBRANT) {
+                return getLightVibrantSwatch();
+            } else if (target == PaletteTarget.DARK_VIBRANT) {
+                return getDarkVibrantSwatch();
+            } else if (target == PaletteTarget.MUTED) {
+                return getMutedSwatch();
+            } else if (target == PaletteTarget.LIGHT_MUTED) {
+                return getLightMutedSwatch();
+            } else if (target == PaletteTarget.DARK_MUTED) {
+                return getDarkMutedSwatch();
+            }
+            return null;
+        }
     }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table which maps packed colors to their pixel counts.
+ *
+ * Keys and counts are kept in parallel primitive arrays and collisions are resolved with linear
+ * probing, so counting a pixel never boxes or allocates. A slot is empty when its count is 0,
+ * which means any int (including 0, transparent black) can be used as a key.
+ */
+final class ColorCountMap {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_EXPECTED_SIZE = 1 << 15;
+
+    private int[] mKeys;
+    private int[] mCounts;
+    private int mShift;
+    private int mSize;
+    private int mResizeThreshold;
+
+    /**
+     * @param expectedSize a hint of how many distinct colors will be added
+     */
+    ColorCountMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Increase the count of {@code color} by one.
+     */
+    void add(int color) {
+        add(color, 1);
+    }
+
+    /**
+     * Increase the count of {@code color} by {@code count}, which must be positive.
+     */
+    void add(int color, int count) {
+        final int mask = mKeys.length - 1;
+        int slot = slotFor(color);
+        while (mCounts[slot] != 0) {
+            if (mKeys[slot] == color) {
+                mCounts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        mKeys[slot] = color;
+        mCounts[slot] = count;
+        if (++mSize > mResizeThreshold) {
+            rehash(mKeys.length << 1);
+        }
+    }
+
+    /**
+     * Add all of the colors and counts from {@code other} to this map.
+     */
+    void addAll(ColorCountMap other) {
+        final int[] otherKeys = other.mKeys;
+        final int[] otherCounts = other.mCounts;
+        for (int slot = 0; slot < otherCounts.length; slot++) {
+            if (otherCounts[slot] != 0) {
+                add(otherKeys[slot], otherCounts[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return the count of {@code color}, or 0 if it has not been added.
+     */
+    int get(int color) {
+        final int mask = mKeys.length - 1;
+        int slot = slotFor(color);
+        while (mCounts[slot] != 0) {
+            if (mKeys[slot] == color) {
+                return mCounts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of distinct colors in this map.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return a new array containing every distinct color in this map, in no particular order.
+     */
+    int[] keys() {
+        return keys(new int[mSize]);
+    }
+
+    /**
+     * Copy every distinct color in this map, in no particular order, to the start of
+     * {@code keys}, which must have room for at least {@link #size()} colors.
+     *
+     * @return {@code keys}
+     */
+    int[] keys(int[] keys) {
+        int index = 0;
+        for (int slot = 0; slot < mCounts.length; slot++) {
+            if (mCounts[slot] != 0) {
+                keys[index++] = mKeys[slot];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Remove all of the colors from this map, keeping the allocated table.
+     */
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        mSize = 0;
+    }
+
+    private int slotFor(int color) {
+        // Fibonacci hashing spreads the closely packed RGB values over the high bits
+        return (color * 0x9E3779B9) >>> mShift;
+    }
+
+    private void rehash(int newCapacity) {
+        final int[] oldKeys = mKeys;
+        final int[] oldCounts = mCounts;
+
+        allocate(newCapacity);
+
+        final int mask = newCapacity - 1;
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slotFor(oldKeys[i]);
+                while (mCounts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = oldKeys[i];
+                mCounts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mCounts = new int[capacity];
+        mShift = Integer.numberOfLeadingZeros(capacity) + 1;
+        // Keep the load factor at or below 0.5 so that probe sequences stay short
+        mResizeThreshold = capacity >> 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // The table grows as needed, so don't reserve more up front than a large photo needs
+        final int size = Math.max(1, Math.min(expectedSize, MAX_EXPECTED_SIZE));
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(size * 2 - 1) << 1);
+    }
+
+}
@@ -16,10 +16,6 @@
 
 package com.actionlauncher.api.actionpalette;
 
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.util.SparseIntArray;
-
 import com.actionlauncher.api.actionpalette.ActionPalette.Swatch;
 
 import java.util.ArrayList;
@@ -33,6 +29,10 @@ import java.util.PriorityQueue;
  * An color quantizer based on the Median-cut algorithm, but optimized for picking out distinct
  * colors rather than representation colors.
  *
+ * This is also where the colors of a {@link ColorHistogram} are prepared for whichever
+ * {@link ActionPalette.Quantizer} is in use: ignored colors are removed before it is called, and
+ * ignored swatches afterwards. This class' own algorithm is {@link #MEDIAN_CUT}.
+ *
  * The color space is represented as a 3-dimensional cube with each dimension being an RGB
  * component. The cube is then repeatedly divided until we have reduced the color space to the
  * requested number of colors. An average color is then generated from each cube.
@@ -46,8 +46,6 @@ final class ColorCutQuantizer {
 
     private static final String LOG_TAG = ColorCutQuantizer.class.getSimpleName();
 
-    private final float[] mTempHsl = new float[3];
-
     private static final float BLACK_MAX_LIGHTNESS = 0.05f;
     private static final float WHITE_MIN_LIGHTNESS = 0.95f;
 
@@ -55,25 +53,92 @@ final class ColorCutQuantizer {
     private static final int COMPONENT_GREEN = -2;
     private static final int COMPONENT_BLUE = -1;
 
+    /**
+     * The median cut quantizer, see {@link ActionPalette#QUANTIZER_MEDIAN_CUT}.
+     */
+    static final ActionPalette.Quantizer MEDIAN_CUT = new ActionPalette.Quantizer() {
+        @Override
+        public List<Swatch> quantize(int[] colors, int[] populations, int colorCount,
+                int maxColors) {
+            return quantize(colors, populations, colorCount, maxColors, new PaletteContext());
+        }
+
+        @Override
+        List<Swatch> quantize(int[] colors, int[] populations, int colorCount, int maxColors,
+                PaletteContext context) {
+            return new ColorCutQuantizer(colors, populations, context)
+                    .quantizePixels(colorCount - 1, maxColors);
+        }
+    };
+
+    private final PaletteContext mContext;
+    private final IgnoredColorTable mIgnoredColors;
+    private final float[] mTempHsl;
+
+    // The colors and their populations, kept at the same indices as boxes are partitioned
     private final int[] mColors;
-    private final SparseIntArray mColorPopulations;
+    private final int[] mColorPopulations;
 
-    private final List<ActionPalette.Swatch> mQuantizedColors;
+    // Scratch space for partitioning boxes, see Vbox#splitBox()
+    private final int[] mComponentOffsets;
+    private int[] mSplitColors;
+    private int[] mSplitPopulations;
+
+    private List<ActionPalette.Swatch> mQuantizedColors;
 
     /**
-     * Factory-method to generate a {@link ColorCutQuantizer} from a {@link Bitmap} object.
+     * Factory-method to generate a {@link ColorCutQuantizer} from an array of pixels.
      *
-     * @param bitmap Bitmap to extract the pixel data from
+     * @param pixels ARGB pixels to extract the colors from. The array is not modified.
      * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param histogramMode Either {@link ActionPalette#HISTOGRAM_MODE_EXACT} or
+     *                      {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}.
      */
-    static ColorCutQuantizer fromBitmap(Bitmap bitmap, int maxColors) {
-        final int width = bitmap.getWidth();
-        final int height = bitmap.getHeight();
+    static ColorCutQuantizer fromPixels(int[] pixels, int maxColors, int histogramMode) {
+        return fromHistogram(ColorHistogram.fromPixels(pixels, histogramMode, null), maxColors);
+    }
 
-        final int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+    /**
+     * Factory-method to generate a {@link ColorCutQuantizer} from an existing
+     * {@link ColorHistogram}.
+     *
+     * @param histogram histogram representing an image's pixel data
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     */
+    static ColorCutQuantizer fromHistogram(ColorHistogram histogram, int maxColors) {
+        return fromHistogram(histogram, maxColors, IgnoredColorTable.getDefault(), null);
+    }
 
-        return new ColorCutQuantizer(new ColorHistogram(pixels), maxColors);
+    /**
+     * Factory-method to generate a {@link ColorCutQuantizer} from an existing
+     * {@link ColorHistogram}, using the buffers of {@code context} as scratch space.
+     *
+     * @param histogram histogram representing an image's pixel data
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param ignoredColors the table of colors which should not be in the result palette
+     * @param context the context whose buffers to use, or null to allocate new ones
+     */
+    static ColorCutQuantizer fromHistogram(ColorHistogram histogram, int maxColors,
+            IgnoredColorTable ignoredColors, PaletteContext context) {
+        return fromHistogram(histogram, maxColors, ignoredColors, context, MEDIAN_CUT);
+    }
+
+    /**
+     * Factory-method to quantize an existing {@link ColorHistogram} with {@code quantizer},
+     * using the buffers of {@code context} as scratch space.
+     *
+     * @param histogram histogram representing an image's pixel data
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param ignoredColors the table of colors which should not be in the result palette
+     * @param context the context whose buffers to use, or null to allocate new ones
+     * @param quantizer the quantizer which reduces the colors, if there are more than
+     *                  {@code maxColors}
+     */
+    static ColorCutQuantizer fromHistogram(ColorHistogram histogram, int maxColors,
+            IgnoredColorTable ignoredColors, PaletteContext context,
+            ActionPalette.Quantizer quantizer) {
+        return new ColorCutQuantizer(histogram, maxColors, ignoredColors,
+                context != null ? context : new PaletteContext(), quantizer);
     }
 
     /**
@@ -81,40 +146,61 @@ final class ColorCutQuantizer {
      *
      * @param colorHistogram histogram representing an image's pixel data
      * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param ignoredColors the table of colors which should not be in the result palette
+     * @param context the context whose buffers to use
+     * @param quantizer the quantizer which reduces the colors
      */
-    private ColorCutQuantizer(ColorHistogram colorHistogram, int maxColors) {
+    private ColorCutQuantizer(ColorHistogram colorHistogram, int maxColors,
+            IgnoredColorTable ignoredColors, PaletteContext context,
+            ActionPalette.Quantizer quantizer) {
+        mIgnoredColors = ignoredColors;
+        mContext = context;
+        mTempHsl = context.mTempHsl;
+        mComponentOffsets = context.mComponentOffsets;
+
         final int rawColorCount = colorHistogram.getNumberOfColors();
         final int[] rawColors = colorHistogram.getColors();
         final int[] rawColorCounts = colorHistogram.getColorCounts();
 
-        // First, lets pack the populations into a SparseIntArray so that they can be easily
-        // retrieved without knowing a color's index
-        mColorPopulations = new SparseIntArray(rawColorCount);
-        for (int i = 0; i < rawColors.length; i++) {
-            mColorPopulations.append(rawColors[i], rawColorCounts[i]);
-        }
-
-        // Now go through all of the colors and keep those which we do not want to ignore
-        mColors = new int[rawColorCount];
+        // Go through all of the colors and keep those which we do not want to ignore, along with
+        // their populations
+        mColors = context.getQuantizerColors(rawColorCount);
+        mColorPopulations = context.getQuantizerPopulations(rawColorCount);
         int validColorCount = 0;
-        for (int color : rawColors) {
+        for (int i = 0; i < rawColorCount; i++) {
+            final int color = rawColors[i];
             if (!shouldIgnoreColor(color)) {
-                mColors[validColorCount++] = color;
+                mColors[validColorCount] = color;
+                mColorPopulations[validColorCount] = rawColorCounts[i];
+                validColorCount++;
             }
         }
 
         if (validColorCount <= maxColors) {
             // The image has fewer colors than the maximum requested, so just return the colors
-            mQuantizedColors = new ArrayList<Swatch>();
-            for (final int color : mColors) {
-                mQuantizedColors.add(new Swatch(color, mColorPopulations.get(color)));
+            mQuantizedColors = new ArrayList<Swatch>(validColorCount);
+            for (int i = 0; i < validColorCount; i++) {
+                mQuantizedColors.add(new Swatch(mColors[i], mColorPopulations[i]));
             }
         } else {
             // We need use quantization to reduce the number of colors
-            mQuantizedColors = quantizePixels(validColorCount - 1, maxColors);
+            mQuantizedColors = removeIgnoredColors(quantizer.quantize(mColors, mColorPopulations,
+                    validColorCount, maxColors, context));
         }
     }
 
+    /**
+     * Create a quantizer which runs the median cut over colors which have already been prepared.
+     */
+    private ColorCutQuantizer(int[] colors, int[] populations, PaletteContext context) {
+        mIgnoredColors = null;
+        mContext = context;
+        mTempHsl = context.mTempHsl;
+        mComponentOffsets = context.mComponentOffsets;
+        mColors = colors;
+        mColorPopulations = populations;
+    }
+
     /**
      * @return the list of quantized colors
      */
@@ -123,6 +209,9 @@ final class ColorCutQuantizer {
     }
 
     private List<Swatch> quantizePixels(int maxColorIndex, int maxColors) {
+        mSplitColors = mContext.getSplitColors(maxColorIndex + 1);
+        mSplitPopulations = mContext.getSplitPopulations(maxColorIndex + 1);
+
         // Create the priority queue which is sorted by volume descending. This means we always
         // split the largest box in the queue
         final PriorityQueue<Vbox> pq = new PriorityQueue<Vbox>(maxColors, VBOX_COMPARATOR_VOLUME);
@@ -166,11 +255,20 @@ final class ColorCutQuantizer {
     private List<Swatch> generateAverageColors(Collection<Vbox> vboxes) {
         ArrayList<Swatch> colors = new ArrayList<Swatch>(vboxes.size());
         for (Vbox vbox : vboxes) {
-            Swatch color = vbox.getAverageColor();
-            if (!shouldIgnoreColor(color)) {
-                // As we're averaging a color box, we can still get colors which we do not want, so
-                // we check again here
-                colors.add(color);
+            colors.add(vbox.getAverageColor());
+        }
+        return colors;
+    }
+
+    /**
+     * As quantizers average colors together, we can still get colors which we do not want, so we
+     * check again here.
+     */
+    private List<Swatch> removeIgnoredColors(List<Swatch> swatches) {
+        final ArrayList<Swatch> colors = new ArrayList<Swatch>(swatches.size());
+        for (Swatch swatch : swatches) {
+            if (!shouldIgnoreColor(swatch)) {
+                colors.add(swatch);
             }
         }
         return colors;
@@ -194,6 +292,15 @@ final class ColorCutQuantizer {
             fitBox();
         }
 
+        /**
+         * Create a box whose boundaries have already been computed.
+         */
+        private Vbox(int lowerIndex, int upperIndex, BoxBounds bounds) {
+            mLowerIndex = lowerIndex;
+            mUpperIndex = upperIndex;
+            setBounds(bounds);
+        }
+
         int getVolume() {
             return (mMaxRed - mMinRed + 1) * (mMaxGreen - mMinGreen + 1) *
                     (mMaxBlue - mMinBlue + 1);
@@ -207,6 +314,15 @@ final class ColorCutQuantizer {
             return mUpperIndex - mLowerIndex + 1;
         }
 
+        private void setBounds(BoxBounds bounds) {
+            mMinRed = bounds.mMinRed;
+            mMaxRed = bounds.mMaxRed;
+            mMinGreen = bounds.mMinGreen;
+            mMaxGreen = bounds.mMaxGreen;
+            mMinBlue = bounds.mMinBlue;
+            mMaxBlue = bounds.mMaxBlue;
+        }
+
         /**
          * Recomputes the boundaries of this box to tightly fit the colors within the box.
          */
@@ -217,9 +333,9 @@ final class ColorCutQuantizer {
 
             for (int i = mLowerIndex; i <= mUpperIndex; i++) {
                 final int color = mColors[i];
-                final int r = Color.red(color);
-                final int g = Color.green(color);
-                final int b = Color.blue(color);
+                final int r = ColorUtils.red(color);
+                final int g = ColorUtils.green(color);
+                final int b = ColorUtils.blue(color);
                 if (r > mMaxRed) {
                     mMaxRed = r;
                 }
@@ -251,14 +367,18 @@ final class ColorCutQuantizer {
                 throw new IllegalStateException("Can not split a box with only 1 color");
             }
 
-            // find median along the longest dimension
-            final int splitPoint = findSplitPoint();
+            final BoxBounds lowerBounds = new BoxBounds();
+            final BoxBounds upperBounds = new BoxBounds();
 
-            Vbox newBox = new Vbox(splitPoint + 1, mUpperIndex);
+            // Partition the colors around the median along the longest dimension
+            final int splitPoint = partition(lowerBounds, upperBounds);
 
-            // Now change this box's upperIndex and recompute the color boundaries
+            Vbox newBox = new Vbox(splitPoint + 1, mUpperIndex, upperBounds);
+
+            // Now change this box's upperIndex and use the color boundaries found while
+            // partitioning
             mUpperIndex = splitPoint;
-            fitBox();
+            setBounds(lowerBounds);
 
             return newBox;
         }
@@ -281,72 +401,119 @@ final class ColorCutQuantizer {
         }
 
         /**
-         * Finds the point within this box's lowerIndex and upperIndex index of where to split.
+         * Partitions the colors of this box along its longest color dimension, and returns the
+         * index of the colors array to split from.
          *
-         * This is calculated by finding the longest color dimension, and then sorting the
-         * sub-array based on that dimension value in each color. The colors are then iterated over
-         * until a color is found with at least the midpoint of the whole box's dimension midpoint.
+         * The colors are ordered by that dimension's value with a counting sort over its 256
+         * possible values, which also tells us how many colors lie below the box's midpoint. As
+         * with a full sort, the lower box takes those colors plus the first color at or above the
+         * midpoint. The boundaries of both boxes are computed while the colors are placed.
          *
          * @return the index of the colors array to split from
          */
-        int findSplitPoint() {
+        private int partition(BoxBounds lowerBounds, BoxBounds upperBounds) {
             final int longestDimension = getLongestColorDimension();
+            final int shift = componentShift(longestDimension);
+            final int[] colors = mColors;
+            final int[] populations = mColorPopulations;
+            final int[] offsets = mComponentOffsets;
 
-            // We need to sort the colors in this box based on the longest color dimension.
-            // As we can't use a Comparator to define the sort logic, we modify each color so that
-            // it's most significant is the desired dimension
-            modifySignificantOctet(longestDimension, mLowerIndex, mUpperIndex);
-
-            // Now sort... Arrays.sort uses a exclusive toIndex so we need to add 1
-            Arrays.sort(mColors, mLowerIndex, mUpperIndex + 1);
+            // Colors with a component value below this limit are in the lower box
+            final int dimensionMidPoint = midPoint(longestDimension);
+            final int limit = longestDimension == COMPONENT_BLUE
+                    ? dimensionMidPoint + 1
+                    : dimensionMidPoint;
 
-            // Now revert all of the colors so that they are packed as RGB again
-            modifySignificantOctet(longestDimension, mLowerIndex, mUpperIndex);
+            // First count the colors with each component value...
+            Arrays.fill(offsets, 0);
+            for (int i = mLowerIndex; i <= mUpperIndex; i++) {
+                offsets[(colors[i] >> shift) & 0xFF]++;
+            }
 
-            final int dimensionMidPoint = midPoint(longestDimension);
+            // ...then find the lowest value at or above the limit, whose first color joins the
+            // lower box. There is always one as the limit is at most the box's maximum
+            int pivotValue = limit;
+            while (offsets[pivotValue] == 0) {
+                pivotValue++;
+            }
 
-            for (int i = mLowerIndex; i <= mUpperIndex; i++)  {
-                final int color = mColors[i];
+            // ...then turn the counts into the index at which each value's colors start
+            int offset = mLowerIndex;
+            for (int value = 0; value < offsets.length; value++) {
+                final int count = offsets[value];
+                offsets[value] = offset;
+                offset += count;
+            }
+            final int pivotStart = offsets[pivotValue];
+            final int pivotEnd = pivotValue < 0xFF ? offsets[pivotValue + 1] : mUpperIndex + 1;
+
+            // ...and finally place each color, fitting the boxes as we go. The colors which share
+            // the pivot value are fitted below, once we know which of them joins the lower box
+            final int[] splitColors = mSplitColors;
+            final int[] splitPopulations = mSplitPopulations;
+            lowerBounds.reset();
+            upperBounds.reset();
+            for (int i = mLowerIndex; i <= mUpperIndex; i++) {
+                final int color = colors[i];
+                final int value = (color >> shift) & 0xFF;
+                final int index = offsets[value]++;
+                splitColors[index] = color;
+                splitPopulations[index] = populations[i];
+
+                if (value < pivotValue) {
+                    lowerBounds.add(color);
+                } else if (value > pivotValue) {
+                    upperBounds.add(color);
+                }
+            }
 
-                switch (longestDimension) {
-                    case COMPONENT_RED:
-                        if (Color.red(color) >= dimensionMidPoint) {
-                            return i;
-                        }
-                        break;
-                    case COMPONENT_GREEN:
-                        if (Color.green(color) >= dimensionMidPoint) {
-                            return i;
-                        }
-                        break;
-                    case COMPONENT_BLUE:
-                        if (Color.blue(color) > dimensionMidPoint) {
-                            return i;
-                        }
-                        break;
+            // A full sort would order the colors sharing the pivot value by their other
+            // components, so move the lowest of them to the front
+            int pivotIndex = pivotStart;
+            for (int i = pivotStart + 1; i < pivotEnd; i++) {
+                if (secondaryKey(splitColors[i], longestDimension)
+                        < secondaryKey(splitColors[pivotIndex], longestDimension)) {
+                    pivotIndex = i;
                 }
             }
+            final int pivotColor = splitColors[pivotIndex];
+            final int pivotPopulation = splitPopulations[pivotIndex];
+            splitColors[pivotIndex] = splitColors[pivotStart];
+            splitPopulations[pivotIndex] = splitPopulations[pivotStart];
+            splitColors[pivotStart] = pivotColor;
+            splitPopulations[pivotStart] = pivotPopulation;
+
+            lowerBounds.add(pivotColor);
+            for (int i = pivotStart + 1; i < pivotEnd; i++) {
+                upperBounds.add(splitColors[i]);
+            }
+
+            System.arraycopy(splitColors, mLowerIndex, colors, mLowerIndex, getColorCount());
+            System.arraycopy(splitPopulations, mLowerIndex, populations, mLowerIndex,
+                    getColorCount());
 
-            return mLowerIndex;
+            return pivotStart;
         }
 
         /**
          * @return the average color of this box.
          */
         Swatch getAverageColor() {
-            int redSum = 0;
-            int greenSum = 0;
-            int blueSum = 0;
+            // A full resolution image can have more than 2^31 / 255 pixels of one color, so the
+            // sums must be longs
+            long redSum = 0;
+            long greenSum = 0;
+            long blueSum = 0;
             int totalPopulation = 0;
 
             for (int i = mLowerIndex; i <= mUpperIndex; i++) {
                 final int color = mColors[i];
-                final int colorPopulation = mColorPopulations.get(color);
+                final int colorPopulation = mColorPopulations[i];
 
                 totalPopulation += colorPopulation;
-                redSum += colorPopulation * Color.red(color);
-                greenSum += colorPopulation * Color.green(color);
-                blueSum += colorPopulation * Color.blue(color);
+                redSum += (long) colorPopulation * ColorUtils.red(color);
+                greenSum += (long) colorPopulation * ColorUtils.green(color);
+                blueSum += (long) colorPopulation * ColorUtils.blue(color);
             }
 
             final int redAverage = Math.round(redSum / (float) totalPopulation);
@@ -373,42 +540,94 @@ final class ColorCutQuantizer {
     }
 
     /**
-     * Modify the significant octet in a packed color int. Allows sorting based on the value of a
-     * single color component.
-     *
-     * @see Vbox#findSplitPoint()
+     * @return how far the given {@code dimension}'s component is shifted in a packed color int
      */
-    private void modifySignificantOctet(final int dimension, int lowerIndex, int upperIndex) {
+    private static int componentShift(int dimension) {
         switch (dimension) {
             case COMPONENT_RED:
-                // Already in RGB, no need to do anything
-                break;
+            default:
+                return 16;
             case COMPONENT_GREEN:
-                // We need to do a RGB to GRB swap, or vice-versa
-                for (int i = lowerIndex; i <= upperIndex; i++) {
-                    final int color = mColors[i];
-                    mColors[i] = Color.rgb((color >> 8) & 0xFF, (color >> 16) & 0xFF, color & 0xFF);
-                }
-                break;
+                return 8;
             case COMPONENT_BLUE:
-                // We need to do a RGB to BGR swap, or vice-versa
-                for (int i = lowerIndex; i <= upperIndex; i++) {
-                    final int color = mColors[i];
-                    mColors[i] = Color.rgb(color & 0xFF, (color >> 8) & 0xFF, (color >> 16) & 0xFF);
-                }
-                break;
+                return 0;
+        }
+    }
+
+    /**
+     * @return the other two components of {@code color}, packed so that they order colors which
+     * have the same {@code dimension} value the same way as a sort of RGB, GRB or BGR colors
+     * would.
+     */
+    private static int secondaryKey(int color, int dimension) {
+        switch (dimension) {
+            case COMPONENT_RED:
+            default:
+                return color & 0xFFFF;
+            case COMPONENT_GREEN:
+                return (ColorUtils.red(color) << 8) | ColorUtils.blue(color);
+            case COMPONENT_BLUE:
+                return (ColorUtils.green(color) << 8) | ColorUtils.red(color);
+        }
+    }
+
+    /**
+     * The boundaries of the colors in a {@link Vbox}, built up a color at a time.
+     */
+    private static final class BoxBounds {
+        int mMinRed, mMaxRed;
+        int mMinGreen, mMaxGreen;
+        int mMinBlue, mMaxBlue;
+
+        void reset() {
+            mMinRed = mMinGreen = mMinBlue = 0xFF;
+            mMaxRed = mMaxGreen = mMaxBlue = 0x0;
+        }
+
+        void add(int color) {
+            final int r = ColorUtils.red(color);
+            final int g = ColorUtils.green(color);
+            final int b = ColorUtils.blue(color);
+            if (r > mMaxRed) {
+                mMaxRed = r;
+            }
+            if (r < mMinRed) {
+                mMinRed = r;
+            }
+            if (g > mMaxGreen) {
+                mMaxGreen = g;
+            }
+            if (g < mMinGreen) {
+                mMinGreen = g;
+            }
+            if (b > mMaxBlue) {
+                mMaxBlue = b;
+            }
+            if (b < mMinBlue) {
+                mMinBlue = b;
+            }
         }
     }
 
     private boolean shouldIgnoreColor(int color) {
-        ColorUtils.colorToHSL(color, mTempHsl);
-        return shouldIgnoreColor(mTempHsl);
+        return mIgnoredColors.shouldIgnoreColor(color, mTempHsl);
     }
 
-    private static boolean shouldIgnoreColor(Swatch color) {
-        return shouldIgnoreColor(color.getHsl());
+    private boolean shouldIgnoreColor(Swatch color) {
+        return shouldIgnoreColor(color.getRgb());
     }
 
+    /**
+     * The default filter, which ignores colors close to black, close to white and close to the
+     * red side of the I line.
+     */
+    static final ActionPalette.Filter DEFAULT_FILTER = new ActionPalette.Filter() {
+        @Override
+        public boolean isAllowed(int rgb, float[] hsl) {
+            return !shouldIgnoreColor(hsl);
+        }
+    };
+
     private static boolean shouldIgnoreColor(float[] hslColor) {
         return isWhite(hslColor) || isBlack(hslColor) || isNearRedILine(hslColor);
     }
@@ -17,12 +17,36 @@
 package com.actionlauncher.api.actionpalette;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class which provides a histogram for RGB values.
+ *
+ * Pixels are counted in a single pass into a {@link ColorCountMap}, so building the histogram is
+ * linear in the number of pixels and the caller's pixel array is left untouched.
+ * <p>
+ * A bucketed histogram can also be created with {@link #fromBucketedPixels(int[])}, which reduces
+ * each pixel to 5 bits per component. That caps the number of distinct colors at 32,768 no
+ * matter how noisy the image is.
+ * <p>
+ * Large images can be counted in parallel with
+ * {@link #fromPixels(int[], int, int, ForkJoinPool, PaletteContext)}, see
+ * {@link ParallelColorCounter}. When a {@link PaletteContext} is given, the counts and the
+ * histogram's arrays are kept in its buffers rather than being allocated.
  */
 final class ColorHistogram {
 
+    static final int BUCKET_COMPONENT_BITS = 5;
+    static final int BUCKET_COUNT = 1 << (3 * BUCKET_COMPONENT_BITS);
+
+    private static final int BUCKET_COMPONENT_MASK = (1 << BUCKET_COMPONENT_BITS) - 1;
+
+    /**
+     * Images with fewer pixels than this are always counted serially, as splitting them up costs
+     * more than it saves.
+     */
+    static final int PARALLEL_MIN_PIXELS = 1 << 17;
+
     private final int[] mColors;
     private final int[] mColorCounts;
     private final int mNumberColors;
@@ -33,18 +57,189 @@ final class ColorHistogram {
      * @param pixels array of image contents
      */
     ColorHistogram(final int[] pixels) {
-        // Sort the pixels to enable counting below
-        Arrays.sort(pixels);
+        this(countColors(pixels, 0, pixels.length));
+    }
+
+    /**
+     * A new {@link ColorHistogram} instance from colors which have already been counted.
+     *
+     * @param colorCounts the distinct colors and their counts. This is not modified.
+     */
+    ColorHistogram(final ColorCountMap colorCounts) {
+        this(colorCounts, null);
+    }
+
+    private ColorHistogram(final ColorCountMap colorCounts, PaletteContext context) {
+        mNumberColors = colorCounts.size();
+
+        // Sort the distinct colors so that they are returned in ascending order, as they were
+        // when this histogram was built by sorting the pixels themselves
+        mColors = colorCounts.keys(context != null
+                ? context.getHistogramColors(mNumberColors)
+                : new int[mNumberColors]);
+        Arrays.sort(mColors, 0, mNumberColors);
+
+        mColorCounts = context != null
+                ? context.getHistogramColorCounts(mNumberColors)
+                : new int[mNumberColors];
+        for (int i = 0; i < mNumberColors; i++) {
+            mColorCounts[i] = colorCounts.get(mColors[i]);
+        }
+    }
+
+    private ColorHistogram(int[] colors, int[] colorCounts, int numberColors) {
+        mNumberColors = numberColors;
+        mColors = colors;
+        mColorCounts = colorCounts;
+    }
+
+    /**
+     * A version of {@link #ColorHistogram(ColorCountMap)} which uses the buffers of
+     * {@code context}, or allocates new ones if it is null.
+     */
+    static ColorHistogram fromColorCounts(final ColorCountMap colorCounts,
+            PaletteContext context) {
+        return new ColorHistogram(colorCounts, context);
+    }
+
+    /**
+     * Create a {@link ColorHistogram} where each pixel is reduced to its 5-5-5 RGB bucket before
+     * being counted. Each returned color is the RGB888 approximation of a non-empty bucket.
+     *
+     * @param pixels array of image contents
+     */
+    static ColorHistogram fromBucketedPixels(final int[] pixels) {
+        return fromBucketCounts(countBuckets(pixels, 0, pixels.length));
+    }
+
+    /**
+     * Create a {@link ColorHistogram} in the given mode, counting the pixels in parallel on
+     * {@code pool} if the image is large enough.
+     *
+     * @param pixels array of image contents
+     * @param histogramMode Either {@link ActionPalette#HISTOGRAM_MODE_EXACT} or
+     *                      {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}.
+     * @param pool the pool to count the pixels on, or null to always count them serially
+     */
+    static ColorHistogram fromPixels(final int[] pixels, int histogramMode, ForkJoinPool pool) {
+        return fromPixels(pixels, pixels.length, histogramMode, pool, null);
+    }
+
+    /**
+     * Create a {@link ColorHistogram} in the given mode from the first {@code pixelCount} pixels
+     * of {@code pixels}, counting them in parallel on {@code pool} if the image is large enough.
+     *
+     * @param pixels array of image contents
+     * @param pixelCount the number of pixels in the image
+     * @param histogramMode Either {@link ActionPalette#HISTOGRAM_MODE_EXACT} or
+     *                      {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}.
+     * @param pool the pool to count the pixels on, or null to always count them serially
+     * @param context the context whose buffers the histogram is built in, or null to allocate
+     *                new ones. The returned histogram is only valid until the context is next
+     *                used.
+     */
+    static ColorHistogram fromPixels(final int[] pixels, int pixelCount, int histogramMode,
+            ForkJoinPool pool, PaletteContext context) {
+        final boolean parallel = pool != null && pixelCount >= PARALLEL_MIN_PIXELS;
+
+        switch (histogramMode) {
+            case ActionPalette.HISTOGRAM_MODE_EXACT: {
+                final ColorCountMap colorCounts;
+                if (parallel) {
+                    colorCounts = ParallelColorCounter.countColors(pool, pixels, pixelCount);
+                } else if (context != null) {
+                    colorCounts = context.getColorCounts(pixelCount);
+                    addColors(colorCounts, pixels, 0, pixelCount);
+                } else {
+                    colorCounts = countColors(pixels, 0, pixelCount);
+                }
+                return new ColorHistogram(colorCounts, context);
+            }
+            case ActionPalette.HISTOGRAM_MODE_BUCKETED: {
+                // Median cut then only ever runs over the (at most 32,768) non-empty buckets
+                final int[] bucketCounts;
+                if (parallel) {
+                    bucketCounts = ParallelColorCounter.countBuckets(pool, pixels, pixelCount);
+                } else if (context != null) {
+                    bucketCounts = context.getBucketCounts();
+                    addBuckets(bucketCounts, pixels, 0, pixelCount);
+                } else {
+                    bucketCounts = countBuckets(pixels, 0, pixelCount);
+                }
+                return fromBucketCounts(bucketCounts, context);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown histogram mode: " + histogramMode);
+        }
+    }
+
+    /**
+     * A new {@link ColorHistogram} instance from 5-5-5 RGB buckets which have already been
+     * counted, see {@link #bucketForColor(int)}.
+     *
+     * @param bucketCounts the count of each bucket. This is not modified.
+     */
+    static ColorHistogram fromBucketCounts(final int[] bucketCounts) {
+        return fromBucketCounts(bucketCounts, null);
+    }
+
+    /**
+     * A version of {@link #fromBucketCounts(int[])} which uses the buffers of {@code context},
+     * or allocates new ones if it is null.
+     */
+    static ColorHistogram fromBucketCounts(final int[] bucketCounts, PaletteContext context) {
+        int numberColors = 0;
+        for (int count : bucketCounts) {
+            if (count > 0) {
+                numberColors++;
+            }
+        }
 
-        // Count number of distinct colors
-        mNumberColors = countDistinctColors(pixels);
+        // Buckets are visited in index order, which keeps the colors in ascending order
+        final int[] colors = context != null
+                ? context.getHistogramColors(numberColors)
+                : new int[numberColors];
+        final int[] colorCounts = context != null
+                ? context.getHistogramColorCounts(numberColors)
+                : new int[numberColors];
+        int index = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (bucketCounts[bucket] > 0) {
+                colors[index] = colorForBucket(bucket);
+                colorCounts[index] = bucketCounts[bucket];
+                index++;
+            }
+        }
 
-        // Create arrays
-        mColors = new int[mNumberColors];
-        mColorCounts = new int[mNumberColors];
+        return new ColorHistogram(colors, colorCounts, numberColors);
+    }
 
-        // Finally count the frequency of each color
-        countFrequencies(pixels);
+    /**
+     * @return the 5-5-5 RGB bucket which {@code color} falls into. The alpha component is ignored.
+     */
+    static int bucketForColor(int color) {
+        final int r = (color >> (16 + 8 - BUCKET_COMPONENT_BITS)) & BUCKET_COMPONENT_MASK;
+        final int g = (color >> (8 + 8 - BUCKET_COMPONENT_BITS)) & BUCKET_COMPONENT_MASK;
+        final int b = (color >> (8 - BUCKET_COMPONENT_BITS)) & BUCKET_COMPONENT_MASK;
+        return (r << (2 * BUCKET_COMPONENT_BITS)) | (g << BUCKET_COMPONENT_BITS) | b;
+    }
+
+    /**
+     * @return an opaque RGB888 color which approximates the colors in {@code bucket}.
+     */
+    static int colorForBucket(int bucket) {
+        final int r = expandBucketComponent((bucket >> (2 * BUCKET_COMPONENT_BITS))
+                & BUCKET_COMPONENT_MASK);
+        final int g = expandBucketComponent((bucket >> BUCKET_COMPONENT_BITS)
+                & BUCKET_COMPONENT_MASK);
+        final int b = expandBucketComponent(bucket & BUCKET_COMPONENT_MASK);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int expandBucketComponent(int value) {
+        // Replicate the high bits into the low bits so that 0 maps to 0 and 31 maps to 255
+        return (value << (8 - BUCKET_COMPONENT_BITS))
+                | (value >> (2 * BUCKET_COMPONENT_BITS - 8));
     }
 
     /**
@@ -55,70 +250,78 @@ final class ColorHistogram {
     }
 
     /**
-     * @return an array containing all of the distinct colors in the image.
+     * @return an array containing all of the distinct colors in the image. Only the first
+     * {@link #getNumberOfColors()} entries are valid.
      */
     int[] getColors() {
         return mColors;
     }
 
     /**
-     * @return an array containing the frequency of a distinct colors within the image.
+     * @return an array containing the frequency of a distinct colors within the image. Only the
+     * first {@link #getNumberOfColors()} entries are valid.
      */
     int[] getColorCounts() {
         return mColorCounts;
     }
 
-    private static int countDistinctColors(final int[] pixels) {
-        if (pixels.length < 2) {
-            // If we have less than 2 pixels we can stop here
-            return pixels.length;
-        }
+    /**
+     * Count the distinct colors of {@code pixels} in the range {@code start} (inclusive) to
+     * {@code end} (exclusive).
+     */
+    static ColorCountMap countColors(final int[] pixels, int start, int end) {
+        final ColorCountMap colorCounts = new ColorCountMap(end - start);
+        addColors(colorCounts, pixels, start, end);
+        return colorCounts;
+    }
 
-        // If we have at least 2 pixels, we have a minimum of 1 color...
-        int colorCount = 1;
-        int currentColor = pixels[0];
+    /**
+     * Add the colors of {@code pixels} in the range {@code start} (inclusive) to {@code end}
+     * (exclusive) to {@code colorCounts}.
+     */
+    static void addColors(final ColorCountMap colorCounts, final int[] pixels, int start, int end) {
+        int i = start;
+        while (i < end) {
+            final int color = pixels[i];
 
-        // Now iterate from the second pixel to the end, counting distinct colors
-        for (int i = 1; i < pixels.length; i++) {
-            // If we encounter a new color, increase the population
-            if (pixels[i] != currentColor) {
-                currentColor = pixels[i];
-                colorCount++;
+            // Count runs of the same color together, which is cheap for flat areas of an image
+            int run = 1;
+            while (i + run < end && pixels[i + run] == color) {
+                run++;
             }
-        }
 
-        return colorCount;
-    }
-
-    private void countFrequencies(final int[] pixels) {
-        if (pixels.length == 0) {
-            return;
+            colorCounts.add(color, run);
+            i += run;
         }
+    }
 
-        int currentColorIndex = 0;
-        int currentColor = pixels[0];
-
-        mColors[currentColorIndex] = currentColor;
-        mColorCounts[currentColorIndex] = 1;
+    /**
+     * Count the 5-5-5 RGB buckets of {@code pixels} in the range {@code start} (inclusive) to
+     * {@code end} (exclusive).
+     */
+    static int[] countBuckets(final int[] pixels, int start, int end) {
+        final int[] bucketCounts = new int[BUCKET_COUNT];
+        addBuckets(bucketCounts, pixels, start, end);
+        return bucketCounts;
+    }
 
-        if (pixels.length == 1) {
-            // If we only have one pixel, we can stop here
-            return;
+    /**
+     * Add the 5-5-5 RGB buckets of {@code pixels} in the range {@code start} (inclusive) to
+     * {@code end} (exclusive) to {@code bucketCounts}.
+     */
+    static void addBuckets(final int[] bucketCounts, final int[] pixels, int start, int end) {
+        for (int i = start; i < end; i++) {
+            bucketCounts[bucketForColor(pixels[i])]++;
         }
+    }
 
-        // Now iterate from the second pixel to the end, population distinct colors
-        for (int i = 1; i < pixels.length; i++) {
-            if (pixels[i] == currentColor) {
-                // We've hit the same color as before, increase population
-                mColorCounts[currentColorIndex]++;
-            } else {
-                // We've hit a new color, increase index
-                currentColor = pixels[i];
-
-                currentColorIndex++;
-                mColors[currentColorIndex] = currentColor;
-                mColorCounts[currentColorIndex] = 1;
-            }
+    /**
+     * Remove the 5-5-5 RGB buckets of {@code pixels} in the range {@code start} (inclusive) to
+     * {@code end} (exclusive) from {@code bucketCounts}, which they must have been added to.
+     */
+    static void removeBuckets(final int[] bucketCounts, final int[] pixels, int start, int end) {
+        for (int i = start; i < end; i++) {
+            bucketCounts[bucketForColor(pixels[i])]--;
         }
     }
 
@@ -16,34 +16,53 @@
 
 package com.actionlauncher.api.actionpalette;
 
-import android.graphics.Color;
-
 /**
  * A set of color-related utility methods, building upon those available in {@code Color}.
+ * <p>
+ * The component accessors mirror those in {@code android.graphics.Color} so that the palette
+ * engine has no Android dependencies and can run on a plain JVM.
  */
 class ColorUtils {
 
+    static final int BLACK = 0xFF000000;
+    static final int WHITE = 0xFFFFFFFF;
+
     private static final int MIN_ALPHA_SEARCH_MAX_ITERATIONS = 10;
     private static final int MIN_ALPHA_SEARCH_PRECISION = 10;
 
+    /**
+     * The linear value of each 8-bit sRGB component, so that computing a luminance is three
+     * lookups rather than three calls to {@link Math#pow(double, double)}.
+     */
+    private static final double[] LINEAR_COMPONENTS = new double[256];
+
+    static {
+        for (int i = 0; i < LINEAR_COMPONENTS.length; i++) {
+            final double component = i / 255d;
+            LINEAR_COMPONENTS[i] = component < 0.03928
+                    ? component / 12.92
+                    : Math.pow((component + 0.055) / 1.055, 2.4);
+        }
+    }
+
     private ColorUtils() {}
 
     /**
      * Composite two potentially translucent colors over each other and returns the result.
      */
     public static int compositeColors(int foreground, int background) {
-        final float alpha1 = Color.alpha(foreground) / 255f;
-        final float alpha2 = Color.alpha(background) / 255f;
+        final float alpha1 = alpha(foreground) / 255f;
+        final float alpha2 = alpha(background) / 255f;
 
         float a = (alpha1 + alpha2) * (1f - alpha1);
-        float r = (Color.red(foreground) * alpha1)
-                + (Color.red(background) * alpha2 * (1f - alpha1));
-        float g = (Color.green(foreground) * alpha1)
-                + (Color.green(background) * alpha2 * (1f - alpha1));
-        float b = (Color.blue(foreground) * alpha1)
-                + (Color.blue(background) * alpha2 * (1f - alpha1));
-
-        return Color.argb((int) a, (int) r, (int) g, (int) b);
+        float r = (red(foreground) * alpha1)
+                + (red(background) * alpha2 * (1f - alpha1));
+        float g = (green(foreground) * alpha1)
+                + (green(background) * alpha2 * (1f - alpha1));
+        float b = (blue(foreground) * alpha1)
+                + (blue(background) * alpha2 * (1f - alpha1));
+
+        return argb((int) a, (int) r, (int) g, (int) b);
     }
 
     /**
@@ -52,16 +71,9 @@ class ColorUtils {
      * Formula defined here: http://www.w3.org/TR/2008/REC-WCAG20-20081211/#relativeluminancedef
      */
     public static double calculateLuminance(int color) {
-        double red = Color.red(color) / 255d;
-        red = red < 0.03928 ? red / 12.92 : Math.pow((red + 0.055) / 1.055, 2.4);
-
-        double green = Color.green(color) / 255d;
-        green = green < 0.03928 ? green / 12.92 : Math.pow((green + 0.055) / 1.055, 2.4);
-
-        double blue = Color.blue(color) / 255d;
-        blue = blue < 0.03928 ? blue / 12.92 : Math.pow((blue + 0.055) / 1.055, 2.4);
-
-        return (0.2126 * red) + (0.7152 * green) + (0.0722 * blue);
+        return (0.2126 * LINEAR_COMPONENTS[red(color)])
+                + (0.7152 * LINEAR_COMPONENTS[green(color)])
+                + (0.0722 * LINEAR_COMPONENTS[blue(color)]);
     }
 
     /**
@@ -72,16 +84,21 @@ class ColorUtils {
      * <a href="http://www.w3.org/TR/2008/REC-WCAG20-20081211/#contrast-ratiodef">here</a>.
      */
     public static double calculateContrast(int foreground, int background) {
-        if (Color.alpha(background) != 255) {
+        if (alpha(background) != 255) {
             throw new IllegalArgumentException("background can not be translucent");
         }
-        if (Color.alpha(foreground) < 255) {
+        if (alpha(foreground) < 255) {
             // If the foreground is translucent, composite the foreground over the background
             foreground = compositeColors(foreground, background);
         }
 
-        final double luminance1 = calculateLuminance(foreground) + 0.05;
-        final double luminance2 = calculateLuminance(background) + 0.05;
+        return calculateContrast(calculateLuminance(foreground), calculateLuminance(background));
+    }
+
+    private static double calculateContrast(double foregroundLuminance,
+            double backgroundLuminance) {
+        final double luminance1 = foregroundLuminance + 0.05;
+        final double luminance2 = backgroundLuminance + 0.05;
 
         // Now return the lighter luminance divided by the darker luminance
         return Math.max(luminance1, luminance2) / Math.min(luminance1, luminance2);
@@ -99,13 +116,24 @@ class ColorUtils {
      */
     public static int calculateMinimumAlpha(int foreground, int background,
             float minContrastRatio) {
-        if (Color.alpha(background) != 255) {
+        if (alpha(background) != 255) {
             throw new IllegalArgumentException("background can not be translucent");
         }
+        return calculateMinimumAlpha(foreground, background, calculateLuminance(background),
+                minContrastRatio);
+    }
 
+    /**
+     * A version of {@link #calculateMinimumAlpha(int, int, float)} for callers which test several
+     * foregrounds against the same opaque {@code background}, and so can calculate its luminance
+     * once up front.
+     */
+    static int calculateMinimumAlpha(int foreground, int background,
+            double backgroundLuminance, float minContrastRatio) {
         // First lets check that a fully opaque foreground has sufficient contrast
         int testForeground = setAlphaComponent(foreground, 255);
-        double testRatio = calculateContrast(testForeground, background);
+        double testRatio = calculateContrast(calculateLuminance(testForeground),
+                backgroundLuminance);
         if (testRatio < minContrastRatio) {
             // Fully opaque foreground does not have sufficient contrast, return error
             return -1;
@@ -120,8 +148,9 @@ class ColorUtils {
                 (maxAlpha - minAlpha) > MIN_ALPHA_SEARCH_PRECISION) {
             final int testAlpha = (minAlpha + maxAlpha) / 2;
 
-            testForeground = setAlphaComponent(foreground, testAlpha);
-            testRatio = calculateContrast(testForeground, background);
+            testForeground = compositeColors(setAlphaComponent(foreground, testAlpha), background);
+            testRatio = calculateContrast(calculateLuminance(testForeground),
+                    backgroundLuminance);
 
             if (testRatio < minContrastRatio) {
                 minAlpha = testAlpha;
@@ -193,7 +222,7 @@ class ColorUtils {
      * @param hsl 3 element array which holds the resulting HSL components.
      */
     public static void colorToHSL(int color, float[] hsl) {
-        RGBToHSL(Color.red(color), Color.green(color), Color.blue(color), hsl);
+        RGBToHSL(red(color), green(color), blue(color), hsl);
     }
 
     /**
@@ -259,7 +288,49 @@ class ColorUtils {
         g = Math.max(0, Math.min(255, g));
         b = Math.max(0, Math.min(255, b));
 
-        return Color.rgb(r, g, b);
+        return rgb(r, g, b);
+    }
+
+    /**
+     * Return the alpha component of a color int.
+     */
+    static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    /**
+     * Return the red component of a color int.
+     */
+    static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    /**
+     * Return the green component of a color int.
+     */
+    static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    /**
+     * Return the blue component of a color int.
+     */
+    static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    /**
+     * Return an opaque color-int from red, green, blue components in the range 0-255.
+     */
+    static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Return a color-int from alpha, red, green, blue components in the range 0-255.
+     */
+    static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
     }
 
     /**
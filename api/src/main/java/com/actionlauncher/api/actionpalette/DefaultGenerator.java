@@ -20,46 +20,105 @@ import com.actionlauncher.api.actionpalette.ActionPalette.Swatch;
 
 import java.util.List;
 
+/**
+ * Picks a swatch for each {@link PaletteTarget}: the six built in targets, followed by any extra
+ * targets in the order they were added.
+ * <p>
+ * The saturation, lightness and population of every swatch are read once into primitive arrays,
+ * which each target is then scored against in turn, so the cost is linear in swatches x targets.
+ * The arrays are kept in the {@link PaletteContext}'s buffer when there is one, so nothing is
+ * allocated for each swatch.
+ */
 class DefaultGenerator extends ActionPalette.Generator {
 
-    private static final float TARGET_DARK_LUMA = 0.26f;
-    private static final float MAX_DARK_LUMA = 0.45f;
-
-    private static final float MIN_LIGHT_LUMA = 0.55f;
-    private static final float TARGET_LIGHT_LUMA = 0.74f;
-
-    private static final float MIN_NORMAL_LUMA = 0.3f;
-    private static final float TARGET_NORMAL_LUMA = 0.5f;
-    private static final float MAX_NORMAL_LUMA = 0.7f;
-
-    private static final float TARGET_MUTED_SATURATION = 0.3f;
-    private static final float MAX_MUTED_SATURATION = 0.4f;
-
-    private static final float TARGET_VIBRANT_SATURATION = 1f;
-    private static final float MIN_VIBRANT_SATURATION = 0.35f;
-
-    private static final float WEIGHT_SATURATION = 3f;
-    private static final float WEIGHT_LUMA = 6f;
-    private static final float WEIGHT_POPULATION = 1f;
-
-    private List<Swatch> mSwatches;
-
-    private int mHighestPopulation;
+    private static final PaletteTarget[] DEFAULT_TARGETS = {
+            PaletteTarget.VIBRANT, PaletteTarget.LIGHT_VIBRANT, PaletteTarget.DARK_VIBRANT,
+            PaletteTarget.MUTED, PaletteTarget.LIGHT_MUTED, PaletteTarget.DARK_MUTED
+    };
+
+    // The indices of the default targets
+    private static final int VIBRANT = 0;
+    private static final int LIGHT_VIBRANT = 1;
+    private static final int DARK_VIBRANT = 2;
+    private static final int MUTED = 3;
+    private static final int LIGHT_MUTED = 4;
+    private static final int DARK_MUTED = 5;
+
+    // The layout of each target's values in the packed array
+    private static final int TARGET_SATURATION = 0;
+    private static final int MIN_SATURATION = 1;
+    private static final int MAX_SATURATION = 2;
+    private static final int TARGET_LUMA = 3;
+    private static final int MIN_LUMA = 4;
+    private static final int MAX_LUMA = 5;
+    private static final int WEIGHT_SATURATION = 6;
+    private static final int WEIGHT_LUMA = 7;
+    private static final int WEIGHT_POPULATION = 8;
+    private static final int WEIGHT_SUM = 9;
+    private static final int TARGET_VALUE_COUNT = 10;
+
+    private static final float[] DEFAULT_TARGET_VALUES = packTargetValues(DEFAULT_TARGETS);
+
+    // The layout of the swatch values, a block of one value for each swatch
+    private static final int SATURATION = 0;
+    private static final int LUMA = 1;
+    private static final int POPULATION = 2;
+    private static final int SWATCH_VALUE_COUNT = 3;
+
+    private final PaletteTarget[] mTargets;
+    private final float[] mTargetValues;
+    private final Swatch[] mSelectedSwatches;
+
+    DefaultGenerator() {
+        mTargets = DEFAULT_TARGETS;
+        mTargetValues = DEFAULT_TARGET_VALUES;
+        mSelectedSwatches = new Swatch[mTargets.length];
+    }
 
-    private Swatch mVibrantSwatch;
-    private Swatch mMutedSwatch;
-    private Swatch mDarkVibrantSwatch;
-    private Swatch mDarkMutedSwatch;
-    private Swatch mLightVibrantSwatch;
-    private Swatch mLightMutedSwatch;
+    /**
+     * @param extraTargets the targets to pick swatches for after the default targets
+     */
+    DefaultGenerator(List<PaletteTarget> extraTargets) {
+        if (extraTargets.isEmpty()) {
+            mTargets = DEFAULT_TARGETS;
+            mTargetValues = DEFAULT_TARGET_VALUES;
+        } else {
+            mTargets = new PaletteTarget[DEFAULT_TARGETS.length + extraTargets.size()];
+            System.arraycopy(DEFAULT_TARGETS, 0, mTargets, 0, DEFAULT_TARGETS.length);
+            for (int i = 0; i < extraTargets.size(); i++) {
+                mTargets[DEFAULT_TARGETS.length + i] = extraTargets.get(i);
+            }
+            mTargetValues = packTargetValues(mTargets);
+        }
+        mSelectedSwatches = new Swatch[mTargets.length];
+    }
 
     @Override
     public void generate(final List<Swatch> swatches) {
-        mSwatches = swatches;
-
-        mHighestPopulation = findMaxPopulation();
+        generate(swatches, null);
+    }
 
-        generateVariationColors();
+    @Override
+    void generate(List<Swatch> swatches, PaletteContext context) {
+        final int swatchCount = swatches.size();
+        final float[] values = context != null
+                ? context.getSwatchValues(swatchCount * SWATCH_VALUE_COUNT)
+                : new float[swatchCount * SWATCH_VALUE_COUNT];
+        loadSwatchValues(swatches, values);
+
+        for (int t = 0; t < mTargets.length; t++) {
+            final int selected = findColorVariation(values, swatchCount, t);
+            if (selected != -1) {
+                mSelectedSwatches[t] = swatches.get(selected);
+                if (mTargets[t].isExclusive()) {
+                    // A NaN lightness is outside of every target's bounds, which takes the swatch
+                    // out of the running for every later target
+                    values[swatchCount * LUMA + selected] = Float.NaN;
+                }
+            } else {
+                mSelectedSwatches[t] = null;
+            }
+        }
 
         // Now try and generate any missing colors
         generateEmptySwatches();
@@ -67,75 +126,122 @@ class DefaultGenerator extends ActionPalette.Generator {
 
     @Override
     public Swatch getVibrantSwatch() {
-        return mVibrantSwatch;
+        return mSelectedSwatches[VIBRANT];
     }
 
     @Override
     public Swatch getLightVibrantSwatch() {
-        return mLightVibrantSwatch;
+        return mSelectedSwatches[LIGHT_VIBRANT];
     }
 
     @Override
     public Swatch getDarkVibrantSwatch() {
-        return mDarkVibrantSwatch;
+        return mSelectedSwatches[DARK_VIBRANT];
     }
 
     @Override
     public Swatch getMutedSwatch() {
-        return mMutedSwatch;
+        return mSelectedSwatches[MUTED];
     }
 
     @Override
     public Swatch getLightMutedSwatch() {
-        return mLightMutedSwatch;
+        return mSelectedSwatches[LIGHT_MUTED];
     }
 
     @Override
     public Swatch getDarkMutedSwatch() {
-        return mDarkMutedSwatch;
+        return mSelectedSwatches[DARK_MUTED];
     }
 
-    private void generateVariationColors() {
-        mVibrantSwatch = findColorVariation(TARGET_NORMAL_LUMA, MIN_NORMAL_LUMA, MAX_NORMAL_LUMA,
-                TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f);
-
-        mLightVibrantSwatch = findColorVariation(TARGET_LIGHT_LUMA, MIN_LIGHT_LUMA, 1f,
-                TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f);
-
-        mDarkVibrantSwatch = findColorVariation(TARGET_DARK_LUMA, 0f, MAX_DARK_LUMA,
-                TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f);
-
-        mMutedSwatch = findColorVariation(TARGET_NORMAL_LUMA, MIN_NORMAL_LUMA, MAX_NORMAL_LUMA,
-                TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION);
+    @Override
+    public Swatch getSwatchForTarget(PaletteTarget target) {
+        for (int i = 0; i < mTargets.length; i++) {
+            if (mTargets[i] == target) {
+                return mSelectedSwatches[i];
+            }
+        }
+        return null;
+    }
 
-        mLightMutedSwatch = findColorVariation(TARGET_LIGHT_LUMA, MIN_LIGHT_LUMA, 1f,
-                TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION);
+    /**
+     * Read the saturation, lightness and relative population of every swatch into
+     * {@code values}, a block of {@code swatches.size()} values for each.
+     */
+    private static void loadSwatchValues(List<Swatch> swatches, float[] values) {
+        final int swatchCount = swatches.size();
+        final float maxPopulation = findMaxPopulation(swatches);
+        for (int s = 0; s < swatchCount; s++) {
+            final Swatch swatch = swatches.get(s);
+            final float[] hsl = swatch.getHsl();
+            values[swatchCount * SATURATION + s] = hsl[1];
+            values[swatchCount * LUMA + s] = hsl[2];
+            values[swatchCount * POPULATION + s] = swatch.getPopulation() / maxPopulation;
+        }
+    }
 
-        mDarkMutedSwatch = findColorVariation(TARGET_DARK_LUMA, 0f, MAX_DARK_LUMA,
-                TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION);
+    /**
+     * @return the index of the highest scoring swatch for target {@code t} whose saturation and
+     * lightness are within the target's bounds, or -1 if there isn't one.
+     */
+    private int findColorVariation(float[] values, int swatchCount, int t) {
+        final int v = t * TARGET_VALUE_COUNT;
+        final float targetSat = mTargetValues[v + TARGET_SATURATION];
+        final float minSat = mTargetValues[v + MIN_SATURATION];
+        final float maxSat = mTargetValues[v + MAX_SATURATION];
+        final float targetLuma = mTargetValues[v + TARGET_LUMA];
+        final float minLuma = mTargetValues[v + MIN_LUMA];
+        final float maxLuma = mTargetValues[v + MAX_LUMA];
+        final float satWeight = mTargetValues[v + WEIGHT_SATURATION];
+        final float lumaWeight = mTargetValues[v + WEIGHT_LUMA];
+        final float populationWeight = mTargetValues[v + WEIGHT_POPULATION];
+        final float weightSum = mTargetValues[v + WEIGHT_SUM];
+
+        final int satOffset = swatchCount * SATURATION;
+        final int lumaOffset = swatchCount * LUMA;
+        final int populationOffset = swatchCount * POPULATION;
+        int max = -1;
+        float maxValue = 0f;
+        for (int s = 0; s < swatchCount; s++) {
+            final float sat = values[satOffset + s];
+            final float luma = values[lumaOffset + s];
+            if (sat >= minSat && sat <= maxSat && luma >= minLuma && luma <= maxLuma) {
+                // The weighted mean of how close the swatch is to the target saturation and
+                // luma, and of its population relative to the largest
+                final float value = (invertDiff(sat, targetSat) * satWeight
+                        + invertDiff(luma, targetLuma) * lumaWeight
+                        + values[populationOffset + s] * populationWeight) / weightSum;
+                if (max == -1 || value > maxValue) {
+                    max = s;
+                    maxValue = value;
+                }
+            }
+        }
+        return max;
     }
 
     /**
      * Try and generate any missing swatches from the swatches we did find.
      */
     private void generateEmptySwatches() {
-        if (mVibrantSwatch == null) {
+        final Swatch[] swatches = mSelectedSwatches;
+        if (swatches[VIBRANT] == null) {
             // If we do not have a vibrant color...
-            if (mDarkVibrantSwatch != null) {
+            if (swatches[DARK_VIBRANT] != null) {
                 // ...but we do have a dark vibrant, generate the value by modifying the luma
-                final float[] newHsl = copyHslValues(mDarkVibrantSwatch);
-                newHsl[2] = TARGET_NORMAL_LUMA;
-                mVibrantSwatch = new Swatch(ColorUtils.HSLToColor(newHsl), 0);
+                final float[] newHsl = copyHslValues(swatches[DARK_VIBRANT]);
+                newHsl[2] = PaletteTarget.VIBRANT.getTargetLightness();
+                swatches[VIBRANT] = new Swatch(ColorUtils.HSLToColor(newHsl), 0);
             }
         }
 
-        if (mDarkVibrantSwatch == null) {
+        if (swatches[DARK_VIBRANT] == null) {
             // If we do not have a dark vibrant color...
-            if (mVibrantSwatch != null) {
+            if (swatches[VIBRANT] != null) {
                 // ...but we do have a vibrant, generate the value by modifying the luma
-                final float[] newHsl = copyHslValues(mVibrantSwatch);
-                newHsl[2] = TARGET_DARK_LUMA;
-                mDarkVibrantSwatch = new Swatch(ColorUtils.HSLToColor(newHsl), 0);
+                final float[] newHsl = copyHslValues(swatches[VIBRANT]);
+                newHsl[2] = PaletteTarget.DARK_VIBRANT.getTargetLightness();
+                swatches[DARK_VIBRANT] = new Swatch(ColorUtils.HSLToColor(newHsl), 0);
             }
         }
     }
@@ -143,64 +249,31 @@ class DefaultGenerator extends ActionPalette.Generator {
     /**
      * Find the {@link ActionPalette.Swatch} with the highest population value and return the population.
      */
-    private int findMaxPopulation() {
+    private static int findMaxPopulation(List<Swatch> swatches) {
         int population = 0;
-        for (Swatch swatch : mSwatches) {
-            population = Math.max(population, swatch.getPopulation());
+        for (int i = 0, size = swatches.size(); i < size; i++) {
+            population = Math.max(population, swatches.get(i).getPopulation());
         }
         return population;
     }
 
-    private Swatch findColorVariation(float targetLuma, float minLuma, float maxLuma,
-            float targetSaturation, float minSaturation, float maxSaturation) {
-        Swatch max = null;
-        float maxValue = 0f;
-
-        for (Swatch swatch : mSwatches) {
-            final float sat = swatch.getHsl()[1];
-            final float luma = swatch.getHsl()[2];
-
-            if (sat >= minSaturation && sat <= maxSaturation &&
-                    luma >= minLuma && luma <= maxLuma &&
-                    !isAlreadySelected(swatch)) {
-                float value = createComparisonValue(sat, targetSaturation, luma, targetLuma,
-                        swatch.getPopulation(), mHighestPopulation);
-                if (max == null || value > maxValue) {
-                    max = swatch;
-                    maxValue = value;
-                }
-            }
+    private static float[] packTargetValues(PaletteTarget[] targets) {
+        final float[] values = new float[targets.length * TARGET_VALUE_COUNT];
+        for (int t = 0, v = 0; t < targets.length; t++, v += TARGET_VALUE_COUNT) {
+            final PaletteTarget target = targets[t];
+            values[v + TARGET_SATURATION] = target.getTargetSaturation();
+            values[v + MIN_SATURATION] = target.getMinimumSaturation();
+            values[v + MAX_SATURATION] = target.getMaximumSaturation();
+            values[v + TARGET_LUMA] = target.getTargetLightness();
+            values[v + MIN_LUMA] = target.getMinimumLightness();
+            values[v + MAX_LUMA] = target.getMaximumLightness();
+            values[v + WEIGHT_SATURATION] = target.getSaturationWeight();
+            values[v + WEIGHT_LUMA] = target.getLightnessWeight();
+            values[v + WEIGHT_POPULATION] = target.getPopulationWeight();
+            values[v + WEIGHT_SUM] = target.getSaturationWeight() + target.getLightnessWeight()
+                    + target.getPopulationWeight();
         }
-
-        return max;
-    }
-
-    /**
-     * @return true if we have already selected {@code swatch}
-     */
-    private boolean isAlreadySelected(Swatch swatch) {
-        return mVibrantSwatch == swatch || mDarkVibrantSwatch == swatch ||
-                mLightVibrantSwatch == swatch || mMutedSwatch == swatch ||
-                mDarkMutedSwatch == swatch || mLightMutedSwatch == swatch;
-    }
-
-    private static float createComparisonValue(float saturation, float targetSaturation,
-            float luma, float targetLuma,
-            int population, int maxPopulation) {
-        return createComparisonValue(saturation, targetSaturation, WEIGHT_SATURATION,
-                luma, targetLuma, WEIGHT_LUMA,
-                population, maxPopulation, WEIGHT_POPULATION);
-    }
-
-    private static float createComparisonValue(
-            float saturation, float targetSaturation, float saturationWeight,
-            float luma, float targetLuma, float lumaWeight,
-            int population, int maxPopulation, float populationWeight) {
-        return weightedMean(
-                invertDiff(saturation, targetSaturation), saturationWeight,
-                invertDiff(luma, targetLuma), lumaWeight,
-                population / (float) maxPopulation, populationWeight
-        );
+        return values;
     }
 
     /**
@@ -223,19 +296,4 @@ class DefaultGenerator extends ActionPalette.Generator {
     private static float invertDiff(float value, float targetValue) {
         return 1f - Math.abs(value - targetValue);
     }
-
-    private static float weightedMean(float... values) {
-        float sum = 0f;
-        float sumWeight = 0f;
-
-        for (int i = 0; i < values.length; i += 2) {
-            float value = values[i];
-            float weight = values[i + 1];
-
-            sum += (value * weight);
-            sumWeight += weight;
-        }
-
-        return sum / sumWeight;
-    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of {@link ActionPalette.Filter}s compiled into a lookup table, so that checking whether a
+ * color should be ignored is usually a single bit test rather than an HSL conversion.
+ *
+ * The table has an entry for each of the 32,768 5-5-5 RGB buckets (see
+ * {@link ColorHistogram#bucketForColor(int)}). When the table is built, the filters are run
+ * against each bucket's color and against a lattice of the bucket corners. If the corners of
+ * the bucket and of its neighbours all agree with the bucket's color, then every color in the
+ * bucket is taken to have that result. Otherwise the bucket is marked as mixed, and its colors
+ * are run through the filters individually when they are checked. Buckets on the gray axis are
+ * always mixed, as hue is undefined there.
+ * <p>
+ * Checking the neighbouring corners as well catches the thin slivers where two of a filter's
+ * limits meet, which can pass through a bucket without touching its own corners. With the
+ * default filter, every one of the 16.7 million RGB colors gets the same result from the table
+ * as from the filter itself, and roughly one bucket in six is mixed.
+ * <p>
+ * Filters are expected to accept or reject contiguous regions of the color space, as the
+ * default filter does. A region which fits between the corners of neighbouring buckets can be
+ * missed.
+ */
+final class IgnoredColorTable {
+
+    private static final int BUCKET_SIZE = 1 << (8 - ColorHistogram.BUCKET_COMPONENT_BITS);
+    private static final int BUCKETS_PER_COMPONENT = 1 << ColorHistogram.BUCKET_COMPONENT_BITS;
+
+    // The bucket corners form a lattice, which is shared between neighbouring buckets
+    private static final int CORNERS_PER_COMPONENT = BUCKETS_PER_COMPONENT + 1;
+
+    private static IgnoredColorTable sDefaultTable;
+
+    private final ActionPalette.Filter[] mFilters;
+
+    // One bit per bucket: whether the colors in it are ignored, and whether they need checking
+    // individually
+    private final long[] mIgnoredBuckets = new long[ColorHistogram.BUCKET_COUNT / 64];
+    private final long[] mMixedBuckets = new long[ColorHistogram.BUCKET_COUNT / 64];
+
+    /**
+     * @return the table for the default filter, which is built the first time it's needed
+     */
+    static synchronized IgnoredColorTable getDefault() {
+        if (sDefaultTable == null) {
+            sDefaultTable = new IgnoredColorTable(
+                    new ActionPalette.Filter[] { ColorCutQuantizer.DEFAULT_FILTER });
+        }
+        return sDefaultTable;
+    }
+
+    /**
+     * Build a table for {@code filters}. A color is ignored if any of the filters do not allow
+     * it.
+     */
+    IgnoredColorTable(List<ActionPalette.Filter> filters) {
+        this(filters.toArray(new ActionPalette.Filter[filters.size()]));
+    }
+
+    private IgnoredColorTable(ActionPalette.Filter[] filters) {
+        mFilters = filters;
+
+        final float[] tempHsl = new float[3];
+
+        // First run the filters over the corner lattice, with the last corner pinned to 255
+        final boolean[] cornersAllowed = new boolean[CORNERS_PER_COMPONENT
+                * CORNERS_PER_COMPONENT * CORNERS_PER_COMPONENT];
+        int corner = 0;
+        for (int r = 0; r < CORNERS_PER_COMPONENT; r++) {
+            for (int g = 0; g < CORNERS_PER_COMPONENT; g++) {
+                for (int b = 0; b < CORNERS_PER_COMPONENT; b++) {
+                    cornersAllowed[corner++] = isAllowed(ColorUtils.rgb(cornerComponent(r),
+                            cornerComponent(g), cornerComponent(b)), tempHsl);
+                }
+            }
+        }
+
+        // Then check each bucket's color against its corners
+        int bucket = 0;
+        for (int r = 0; r < BUCKETS_PER_COMPONENT; r++) {
+            for (int g = 0; g < BUCKETS_PER_COMPONENT; g++) {
+                for (int b = 0; b < BUCKETS_PER_COMPONENT; b++, bucket++) {
+                    final boolean allowed = isAllowed(ColorHistogram.colorForBucket(bucket),
+                            tempHsl);
+                    if (!allowed) {
+                        mIgnoredBuckets[bucket >>> 6] |= 1L << bucket;
+                    }
+
+                    if (r == g && g == b
+                            || !cornersAgree(cornersAllowed, r, g, b, allowed)) {
+                        mMixedBuckets[bucket >>> 6] |= 1L << bucket;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the corners of bucket ({@code r}, {@code g}, {@code b}) and of all of its
+     * neighbours have the result {@code allowed}
+     */
+    private static boolean cornersAgree(boolean[] cornersAllowed, int r, int g, int b,
+            boolean allowed) {
+        final int last = CORNERS_PER_COMPONENT - 1;
+        for (int cr = Math.max(0, r - 1); cr <= Math.min(last, r + 2); cr++) {
+            for (int cg = Math.max(0, g - 1); cg <= Math.min(last, g + 2); cg++) {
+                for (int cb = Math.max(0, b - 1); cb <= Math.min(last, b + 2); cb++) {
+                    final int corner = (cr * CORNERS_PER_COMPONENT + cg) * CORNERS_PER_COMPONENT
+                            + cb;
+                    if (cornersAllowed[corner] != allowed) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int cornerComponent(int corner) {
+        return Math.min(0xFF, corner * BUCKET_SIZE);
+    }
+
+    /**
+     * @return true if this table was built from the same filters, in the same order
+     */
+    boolean hasFilters(List<ActionPalette.Filter> filters) {
+        return Arrays.asList(mFilters).equals(filters);
+    }
+
+    /**
+     * @param color the color to check
+     * @param tempHsl a 3 element array to use if {@code color} needs converting to HSL
+     * @return true if {@code color} should be ignored
+     */
+    boolean shouldIgnoreColor(int color, float[] tempHsl) {
+        final int bucket = ColorHistogram.bucketForColor(color);
+        final long bit = 1L << bucket;
+        if ((mMixedBuckets[bucket >>> 6] & bit) != 0) {
+            return !isAllowed(color, tempHsl);
+        }
+        return (mIgnoredBuckets[bucket >>> 6] & bit) != 0;
+    }
+
+    private boolean isAllowed(int rgb, float[] tempHsl) {
+        if (mFilters.length == 0) {
+            return true;
+        }
+
+        ColorUtils.colorToHSL(rgb, tempHsl);
+        for (ActionPalette.Filter filter : mFilters) {
+            if (!filter.isAllowed(rgb, tempHsl)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Scales an image down for quantization, reading its pixels straight into the buffers of a
+ * {@link PaletteContext} rather than through an intermediate scaled {@link Bitmap}.
+ *
+ * A {@link Bitmap} is read a band of rows at a time, where a band is the source rows which make
+ * up one scaled row. {@link ActionPalette#RESIZE_FILTER_NEAREST} only reads the row nearest the
+ * center of each band, and then picks the pixel nearest the center of each scaled pixel.
+ * {@link ActionPalette#RESIZE_FILTER_BOX} reads every row of the band, and averages each
+ * component of all the pixels a scaled pixel covers. Either way each source row is read at most
+ * once, and nothing is allocated once the context's buffers have grown to fit.
+ */
+final class ImageScaler {
+
+    /**
+     * The pixels of an image, after it has been scaled down for quantization.
+     */
+    static final class ScaledImage {
+        final int[] pixels;
+        final int width;
+        final int height;
+
+        ScaledImage(int[] pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Read the pixels of {@code bitmap} into {@code context}'s pixel buffer, scaling it down with
+     * {@code filter} so that it's largest dimension is {@code targetMaxDimension}. If the bitmap
+     * is smaller than this, it is read as-is.
+     */
+    static ScaledImage scaleBitmap(Bitmap bitmap, int targetMaxDimension, int filter,
+            PaletteContext context) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (Math.max(width, height) <= targetMaxDimension) {
+            final int[] pixels = context.getPixelBuffer(width * height);
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            return new ScaledImage(pixels, width, height);
+        }
+
+        final ScaledImage image = allocate(width, height, targetMaxDimension, context);
+        for (int y = 0; y < image.height; y++) {
+            if (filter == ActionPalette.RESIZE_FILTER_BOX) {
+                final int top = bandTop(y, height, image.height);
+                final int rows = bandTop(y + 1, height, image.height) - top;
+                final int[] band = context.getBandBuffer(width * rows);
+                bitmap.getPixels(band, 0, width, 0, top, width, rows);
+                boxFilterRow(band, 0, width, rows, image, y, context);
+            } else {
+                final int[] band = context.getBandBuffer(width);
+                bitmap.getPixels(band, 0, width, 0, nearestRow(y, height, image.height),
+                        width, 1);
+                sampleRow(band, 0, width, image, y);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Scale {@code pixels} down into {@code context}'s pixel buffer with {@code filter}, so that
+     * the image's largest dimension is {@code targetMaxDimension}. The image must be larger than
+     * this.
+     */
+    static ScaledImage scalePixels(int[] pixels, int width, int height, int targetMaxDimension,
+            int filter, PaletteContext context) {
+        final ScaledImage image = allocate(width, height, targetMaxDimension, context);
+        for (int y = 0; y < image.height; y++) {
+            if (filter == ActionPalette.RESIZE_FILTER_BOX) {
+                final int top = bandTop(y, height, image.height);
+                final int rows = bandTop(y + 1, height, image.height) - top;
+                boxFilterRow(pixels, top * width, width, rows, image, y, context);
+            } else {
+                sampleRow(pixels, nearestRow(y, height, image.height) * width, width, image, y);
+            }
+        }
+        return image;
+    }
+
+    private static ScaledImage allocate(int width, int height, int targetMaxDimension,
+            PaletteContext context) {
+        final float scaleRatio = targetMaxDimension / (float) Math.max(width, height);
+        final int scaledWidth = Math.max(1, Math.round(width * scaleRatio));
+        final int scaledHeight = Math.max(1, Math.round(height * scaleRatio));
+        return new ScaledImage(context.getPixelBuffer(scaledWidth * scaledHeight),
+                scaledWidth, scaledHeight);
+    }
+
+    /**
+     * @return the first source row or column which makes up scaled row or column {@code index}
+     */
+    private static int bandTop(int index, int size, int scaledSize) {
+        return (int) ((long) index * size / scaledSize);
+    }
+
+    /**
+     * @return the source row or column nearest the center of scaled row or column {@code index}
+     */
+    private static int nearestRow(int index, int size, int scaledSize) {
+        return (int) ((index + 0.5f) * size / scaledSize);
+    }
+
+    /**
+     * Fill scaled row {@code y} of {@code image} with the pixel nearest the center of each scaled
+     * pixel, from the source row starting at {@code offset}.
+     */
+    private static void sampleRow(int[] source, int offset, int width, ScaledImage image, int y) {
+        final int[] scaledPixels = image.pixels;
+        final int scaledWidth = image.width;
+        final int rowOffset = y * scaledWidth;
+        for (int x = 0; x < scaledWidth; x++) {
+            scaledPixels[rowOffset + x] = source[offset + nearestRow(x, width, scaledWidth)];
+        }
+    }
+
+    /**
+     * Fill scaled row {@code y} of {@code image} with the average of the pixels each scaled pixel
+     * covers, from the {@code rows} source rows starting at {@code offset}.
+     */
+    private static void boxFilterRow(int[] source, int offset, int width, int rows,
+            ScaledImage image, int y, PaletteContext context) {
+        final int scaledWidth = image.width;
+        // The sums of the alpha, red, green and blue of each scaled pixel
+        final int[] sums = context.getBoxSumBuffer(scaledWidth * 4);
+        Arrays.fill(sums, 0, scaledWidth * 4, 0);
+
+        for (int row = 0; row < rows; row++) {
+            final int rowOffset = offset + row * width;
+            int left = rowOffset;
+            for (int x = 0; x < scaledWidth; x++) {
+                final int right = rowOffset + bandTop(x + 1, width, scaledWidth);
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int i = left; i < right; i++) {
+                    final int color = source[i];
+                    a += color >>> 24;
+                    r += (color >> 16) & 0xFF;
+                    g += (color >> 8) & 0xFF;
+                    b += color & 0xFF;
+                }
+                sums[x * 4] += a;
+                sums[x * 4 + 1] += r;
+                sums[x * 4 + 2] += g;
+                sums[x * 4 + 3] += b;
+                left = right;
+            }
+        }
+
+        final int[] scaledPixels = image.pixels;
+        final int scaledRowOffset = y * scaledWidth;
+        for (int x = 0; x < scaledWidth; x++) {
+            final int count = (bandTop(x + 1, width, scaledWidth) - bandTop(x, width, scaledWidth))
+                    * rows;
+            final int half = count >> 1;
+            scaledPixels[scaledRowOffset + x] = ((sums[x * 4] + half) / count) << 24
+                    | ((sums[x * 4 + 1] + half) / count) << 16
+                    | ((sums[x * 4 + 2] + half) / count) << 8
+                    | ((sums[x * 4 + 3] + half) / count);
+        }
+    }
+
+}
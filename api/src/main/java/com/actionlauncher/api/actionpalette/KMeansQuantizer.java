@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import com.actionlauncher.api.actionpalette.ActionPalette.Swatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A color quantizer which runs k-means clustering over the distinct colors of the histogram,
+ * weighting each color by its population, rather than over the pixels themselves.
+ *
+ * The clusters are seeded deterministically, so that an image always gets the same palette: the
+ * first seed is the most populous color, and each further seed is the color whose population
+ * times its squared distance from the nearest seed is largest. The clusters then move to the
+ * weighted mean of their colors until none of them moves by more than
+ * {@link #MIN_CENTER_SHIFT} in any component, or for at most {@link #MAX_ITERATIONS} rounds.
+ * Clusters which end up empty are dropped.
+ */
+final class KMeansQuantizer extends ActionPalette.Quantizer {
+
+    /**
+     * The maximum number of rounds of assigning colors to clusters. Most images settle well
+     * before this.
+     */
+    static final int MAX_ITERATIONS = 10;
+
+    /**
+     * Once no cluster's center moves further than this in any RGB component, the clusters have
+     * settled: any colors which still change cluster are on the border between two clusters, and
+     * make no visible difference to either.
+     */
+    static final float MIN_CENTER_SHIFT = 2f;
+
+    @Override
+    public List<Swatch> quantize(int[] colors, int[] populations, int colorCount,
+            int maxColors) {
+        return quantize(colors, populations, colorCount, maxColors, new PaletteContext());
+    }
+
+    @Override
+    List<Swatch> quantize(int[] colors, int[] populations, int colorCount, int maxColors,
+            PaletteContext context) {
+        final int clusterCount = Math.max(1, Math.min(maxColors, colorCount));
+        final float[] centers = seed(colors, populations, colorCount, clusterCount,
+                context.getSeedDistances(colorCount));
+
+        final long[] sums = new long[clusterCount * 3];
+        final int[] clusterPopulations = new int[clusterCount];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(clusterPopulations, 0);
+
+            for (int i = 0; i < colorCount; i++) {
+                final int color = colors[i];
+                final int cluster = nearestCenter(centers, clusterCount, ColorUtils.red(color),
+                        ColorUtils.green(color), ColorUtils.blue(color));
+                final int population = populations[i];
+                sums[cluster * 3] += (long) ColorUtils.red(color) * population;
+                sums[cluster * 3 + 1] += (long) ColorUtils.green(color) * population;
+                sums[cluster * 3 + 2] += (long) ColorUtils.blue(color) * population;
+                clusterPopulations[cluster] += population;
+            }
+
+            float maxShift = 0f;
+            for (int cluster = 0; cluster < clusterCount; cluster++) {
+                final float population = clusterPopulations[cluster];
+                if (population > 0) {
+                    for (int component = cluster * 3; component < cluster * 3 + 3; component++) {
+                        final float center = sums[component] / population;
+                        maxShift = Math.max(maxShift, Math.abs(center - centers[component]));
+                        centers[component] = center;
+                    }
+                }
+            }
+
+            if (maxShift <= MIN_CENTER_SHIFT) {
+                break;
+            }
+        }
+
+        final List<Swatch> swatches = new ArrayList<Swatch>(clusterCount);
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            if (clusterPopulations[cluster] > 0) {
+                swatches.add(new Swatch(Math.round(centers[cluster * 3]),
+                        Math.round(centers[cluster * 3 + 1]), Math.round(centers[cluster * 3 + 2]),
+                        clusterPopulations[cluster]));
+            }
+        }
+        return swatches;
+    }
+
+    /**
+     * @param distances scratch space for the squared distance from each color to its nearest seed
+     * @return the RGB of each seed
+     */
+    private static float[] seed(int[] colors, int[] populations, int colorCount,
+            int clusterCount, int[] distances) {
+        int first = 0;
+        for (int i = 1; i < colorCount; i++) {
+            if (populations[i] > populations[first]) {
+                first = i;
+            }
+        }
+
+        final float[] centers = new float[clusterCount * 3];
+        Arrays.fill(distances, 0, colorCount, Integer.MAX_VALUE);
+        int seed = first;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            final int seedColor = colors[seed];
+            centers[cluster * 3] = ColorUtils.red(seedColor);
+            centers[cluster * 3 + 1] = ColorUtils.green(seedColor);
+            centers[cluster * 3 + 2] = ColorUtils.blue(seedColor);
+
+            // Find the color which is most worth a cluster of its own
+            long bestScore = -1;
+            int next = seed;
+            for (int i = 0; i < colorCount; i++) {
+                final int distance = Math.min(distances[i], distanceSquared(colors[i], seedColor));
+                distances[i] = distance;
+                final long score = (long) distance * populations[i];
+                if (score > bestScore) {
+                    bestScore = score;
+                    next = i;
+                }
+            }
+            seed = next;
+        }
+        return centers;
+    }
+
+    private static int nearestCenter(float[] centers, int clusterCount, int r, int g, int b) {
+        int nearest = 0;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            final float dr = r - centers[cluster * 3];
+            final float dg = g - centers[cluster * 3 + 1];
+            final float db = b - centers[cluster * 3 + 2];
+            final float distance = dr * dr + dg * dg + db * db;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = cluster;
+            }
+        }
+        return nearest;
+    }
+
+    private static int distanceSquared(int color1, int color2) {
+        final int dr = ColorUtils.red(color1) - ColorUtils.red(color2);
+        final int dg = ColorUtils.green(color1) - ColorUtils.green(color2);
+        final int db = ColorUtils.blue(color1) - ColorUtils.blue(color2);
+        return dr * dr + dg * dg + db * db;
+    }
+
+}
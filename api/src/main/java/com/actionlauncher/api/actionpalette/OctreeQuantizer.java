@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import com.actionlauncher.api.actionpalette.ActionPalette.Swatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A color quantizer which builds an octree of the colors, where each level splits the color cube
+ * into eight by the next most significant bit of each RGB component, and merges branches
+ * together until it has no more than the maximum number of leaves.
+ *
+ * Branches are merged as soon as the tree has too many leaves, deepest first, so the tree never
+ * has more than a few nodes per leaf however many colors the image has. Each leaf then becomes a
+ * swatch of the population-weighted average of the colors which reached it.
+ */
+final class OctreeQuantizer extends ActionPalette.Quantizer {
+
+    // Leaves of the deepest level each hold a single color
+    private static final int MAX_DEPTH = 8;
+
+    @Override
+    public List<Swatch> quantize(int[] colors, int[] populations, int colorCount,
+            int maxColors) {
+        final Octree octree = new Octree(Math.max(1, maxColors));
+        for (int i = 0; i < colorCount; i++) {
+            octree.add(colors[i], populations[i]);
+        }
+        return octree.getSwatches();
+    }
+
+    private static final class Node {
+        final Node[] mChildren = new Node[8];
+        long mRedSum, mGreenSum, mBlueSum;
+        int mPopulation;
+        boolean mLeaf;
+        int mChildCount;
+
+        // The next node of the same level which has children, see Octree#mReducibleNodes
+        Node mNextReducible;
+    }
+
+    private static final class Octree {
+        private final int mMaxLeaves;
+        private final Node mRoot = new Node();
+
+        // The nodes of each level which have children and so can be merged, most recent first
+        private final Node[] mReducibleNodes = new Node[MAX_DEPTH];
+        private int mLeafCount;
+
+        Octree(int maxLeaves) {
+            mMaxLeaves = maxLeaves;
+        }
+
+        void add(int color, int population) {
+            final int r = ColorUtils.red(color);
+            final int g = ColorUtils.green(color);
+            final int b = ColorUtils.blue(color);
+
+            Node node = mRoot;
+            for (int level = 0; !node.mLeaf; level++) {
+                if (level == MAX_DEPTH) {
+                    node.mLeaf = true;
+                    mLeafCount++;
+                    break;
+                }
+                final int shift = 7 - level;
+                final int index = (((r >> shift) & 1) << 2) | (((g >> shift) & 1) << 1)
+                        | ((b >> shift) & 1);
+                Node child = node.mChildren[index];
+                if (child == null) {
+                    child = new Node();
+                    node.mChildren[index] = child;
+                    if (node.mChildCount++ == 0) {
+                        node.mNextReducible = mReducibleNodes[level];
+                        mReducibleNodes[level] = node;
+                    }
+                }
+                node = child;
+            }
+
+            node.mRedSum += (long) r * population;
+            node.mGreenSum += (long) g * population;
+            node.mBlueSum += (long) b * population;
+            node.mPopulation += population;
+
+            while (mLeafCount > mMaxLeaves) {
+                reduce();
+            }
+        }
+
+        /**
+         * Merge the children of the most recently branched node of the deepest level into it.
+         */
+        private void reduce() {
+            int level = MAX_DEPTH - 1;
+            while (mReducibleNodes[level] == null) {
+                level--;
+            }
+            final Node node = mReducibleNodes[level];
+            mReducibleNodes[level] = node.mNextReducible;
+
+            // Every level below this one has been reduced, so the children are all leaves
+            for (int i = 0; i < node.mChildren.length; i++) {
+                final Node child = node.mChildren[i];
+                if (child != null) {
+                    node.mRedSum += child.mRedSum;
+                    node.mGreenSum += child.mGreenSum;
+                    node.mBlueSum += child.mBlueSum;
+                    node.mPopulation += child.mPopulation;
+                    node.mChildren[i] = null;
+                    mLeafCount--;
+                }
+            }
+            node.mChildCount = 0;
+            node.mLeaf = true;
+            mLeafCount++;
+        }
+
+        List<Swatch> getSwatches() {
+            final List<Swatch> swatches = new ArrayList<Swatch>(mLeafCount);
+            addSwatches(mRoot, swatches);
+            return swatches;
+        }
+
+        private static void addSwatches(Node node, List<Swatch> swatches) {
+            if (node.mLeaf) {
+                if (node.mPopulation > 0) {
+                    final float population = node.mPopulation;
+                    swatches.add(new Swatch(Math.round(node.mRedSum / population),
+                            Math.round(node.mGreenSum / population),
+                            Math.round(node.mBlueSum / population), node.mPopulation));
+                }
+                return;
+            }
+            for (Node child : node.mChildren) {
+                if (child != null) {
+                    addSwatches(child, swatches);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Builds up the color histogram of an image piece by piece, so that a palette can be generated
+ * without ever holding all of the image's pixels in memory.
+ * <p>
+ * Pixels are passed in a row (or any other run) at a time with
+ * {@link #addPixels(int[], int, int)}, or a decoded tile at a time with
+ * {@link #addRegion(Bitmap)}. Tiles are read into a single row buffer which is reused, so the
+ * tiles an app already decodes for drawing, such as those from a {@code BitmapRegionDecoder},
+ * can be fed in directly:
+ *
+ * <pre>
+ * PaletteAccumulator accumulator = new PaletteAccumulator(ActionPalette.HISTOGRAM_MODE_BUCKETED);
+ * for (Rect tileRect : tileRects) {
+ *     Bitmap tile = regionDecoder.decodeRegion(tileRect, options);
+ *     accumulator.addRegion(tile);
+ * }
+ * ActionPalette p = ActionPalette.fromAccumulator(accumulator).generate();
+ * </pre>
+ *
+ * In {@link ActionPalette#HISTOGRAM_MODE_BUCKETED} the histogram is a fixed table of 32,768
+ * counts, so memory use is constant regardless of the image size. In
+ * {@link ActionPalette#HISTOGRAM_MODE_EXACT} it grows with the number of distinct colors seen.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class PaletteAccumulator {
+
+    private static final int INITIAL_EXPECTED_COLORS = 1024;
+
+    private final int mHistogramMode;
+    private final ColorCountMap mColorCounts;
+    private final int[] mBucketCounts;
+
+    private int[] mRowBuffer;
+    private long mPixelCount;
+
+    /**
+     * Create an accumulator which counts every distinct color, as
+     * {@link ActionPalette#HISTOGRAM_MODE_EXACT} does.
+     */
+    public PaletteAccumulator() {
+        this(ActionPalette.HISTOGRAM_MODE_EXACT);
+    }
+
+    /**
+     * @param histogramMode Either {@link ActionPalette#HISTOGRAM_MODE_EXACT} or
+     *                      {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}.
+     */
+    public PaletteAccumulator(int histogramMode) {
+        switch (histogramMode) {
+            case ActionPalette.HISTOGRAM_MODE_EXACT:
+                mColorCounts = new ColorCountMap(INITIAL_EXPECTED_COLORS);
+                mBucketCounts = null;
+                break;
+            case ActionPalette.HISTOGRAM_MODE_BUCKETED:
+                mColorCounts = null;
+                mBucketCounts = new int[ColorHistogram.BUCKET_COUNT];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown histogram mode: " + histogramMode);
+        }
+        mHistogramMode = histogramMode;
+    }
+
+    /**
+     * Add {@code length} ARGB pixels from {@code pixels}, starting at {@code offset}. The array
+     * is not modified or retained, so it can be reused for the next call.
+     */
+    public void addPixels(int[] pixels, int offset, int length) {
+        if (pixels == null || offset < 0 || length < 0 || offset > pixels.length - length) {
+            throw new IllegalArgumentException("Pixel range is not valid");
+        }
+
+        if (mColorCounts != null) {
+            ColorHistogram.addColors(mColorCounts, pixels, offset, offset + length);
+        } else {
+            ColorHistogram.addBuckets(mBucketCounts, pixels, offset, offset + length);
+        }
+        mPixelCount += length;
+    }
+
+    /**
+     * Add every pixel of {@code tile}. The bitmap is read a row at a time and is not recycled.
+     */
+    public void addRegion(Bitmap tile) {
+        addRegion(tile, 1);
+    }
+
+    /**
+     * Add every {@code sampleStep}th pixel of every {@code sampleStep}th row of {@code tile}.
+     * This is useful when the tiles are decoded at a much higher resolution than is needed for
+     * the palette. The bitmap is read a row at a time and is not recycled.
+     */
+    public void addRegion(Bitmap tile, int sampleStep) {
+        if (tile == null || tile.isRecycled()) {
+            throw new IllegalArgumentException("Bitmap is not valid");
+        }
+        if (sampleStep <= 0) {
+            throw new IllegalArgumentException("sampleStep should be >= 1");
+        }
+
+        final int width = tile.getWidth();
+        final int height = tile.getHeight();
+        if (mRowBuffer == null || mRowBuffer.length < width) {
+            mRowBuffer = new int[width];
+        }
+
+        final int[] row = mRowBuffer;
+        for (int y = 0; y < height; y += sampleStep) {
+            tile.getPixels(row, 0, width, 0, y, width, 1);
+
+            int length = width;
+            if (sampleStep > 1) {
+                // Compact the sampled pixels to the front of the row
+                length = 0;
+                for (int x = 0; x < width; x += sampleStep) {
+                    row[length++] = row[x];
+                }
+            }
+            addPixels(row, 0, length);
+        }
+    }
+
+    /**
+     * @return the number of pixels which have been added so far.
+     */
+    public long getPixelCount() {
+        return mPixelCount;
+    }
+
+    /**
+     * @return the histogram mode this accumulator counts pixels with.
+     */
+    public int getHistogramMode() {
+        return mHistogramMode;
+    }
+
+    /**
+     * Remove all of the pixels which have been added, so that this instance can be reused for
+     * another image.
+     */
+    public void reset() {
+        if (mColorCounts != null) {
+            mColorCounts.clear();
+        } else {
+            Arrays.fill(mBucketCounts, 0);
+        }
+        mPixelCount = 0;
+    }
+
+    /**
+     * @return a histogram of the pixels added so far. Later calls to this accumulator do not
+     * affect the returned histogram.
+     */
+    ColorHistogram toHistogram() {
+        return mColorCounts != null
+                ? new ColorHistogram(mColorCounts)
+                : ColorHistogram.fromBucketCounts(mBucketCounts);
+    }
+
+}
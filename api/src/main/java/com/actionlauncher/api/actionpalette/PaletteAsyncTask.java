@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+/**
+ * {@link AsyncTask} which generates an {@link ActionPalette} from a {@link ActionPalette.Builder}
+ * and delivers it to a {@link ActionPalette.PaletteAsyncListener} on the main thread.
+ */
+final class PaletteAsyncTask extends AsyncTask<Bitmap, Void, ActionPalette> {
+
+    private final ActionPalette.Builder mBuilder;
+    private final ActionPalette.PaletteAsyncListener mListener;
+
+    private PaletteAsyncTask(ActionPalette.Builder builder,
+            ActionPalette.PaletteAsyncListener listener) {
+        mBuilder = builder;
+        mListener = listener;
+    }
+
+    /**
+     * Generate the palette of {@code builder} on the parallel {@link AsyncTask} pool.
+     */
+    static AsyncTask<Bitmap, Void, ActionPalette> executeParallel(ActionPalette.Builder builder,
+            ActionPalette.PaletteAsyncListener listener, Bitmap bitmap) {
+        return AsyncTaskCompat.executeParallel(new PaletteAsyncTask(builder, listener), bitmap);
+    }
+
+    @Override
+    protected ActionPalette doInBackground(Bitmap... params) {
+        return mBuilder.generate();
+    }
+
+    @Override
+    protected void onPostExecute(ActionPalette actionPalette) {
+        mListener.onGenerated(actionPalette);
+    }
+
+}
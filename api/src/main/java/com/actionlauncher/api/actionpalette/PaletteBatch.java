@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the {@link ActionPalette}s of a batch of {@link ActionPalette.Builder}s on a bounded
+ * number of workers, see {@link ActionPalette#generateAll}.
+ *
+ * Each worker takes the next builder which hasn't been started until there are none left, so
+ * slow images don't hold up the rest of the batch. Every worker keeps its own
+ * {@link PaletteContext}, so its scratch buffers are reused from one image to the next without
+ * being shared between threads. The returned future is completed by whichever worker finishes
+ * last.
+ */
+final class PaletteBatch {
+
+    private final ActionPalette.Builder[] mBuilders;
+    private final ActionPalette[] mPalettes;
+    private final ActionPalette.PaletteBatchListener mListener;
+    private final int mWorkerCount;
+
+    private final AtomicInteger mNextIndex = new AtomicInteger();
+    private final AtomicInteger mRunningWorkerCount;
+    private final FutureTask<List<ActionPalette>> mResult;
+
+    // Guards the listener, so that it sees one palette at a time with its progress in order
+    private final Object mListenerLock = new Object();
+    private int mCompletedCount;
+
+    PaletteBatch(Collection<ActionPalette.Builder> builders, int workerCount,
+            ActionPalette.PaletteBatchListener listener) {
+        mBuilders = builders.toArray(new ActionPalette.Builder[builders.size()]);
+        mPalettes = new ActionPalette[mBuilders.length];
+        mListener = listener;
+        mWorkerCount = Math.max(1, Math.min(workerCount, mBuilders.length));
+        mRunningWorkerCount = new AtomicInteger(mWorkerCount);
+        mResult = new FutureTask<List<ActionPalette>>(new Callable<List<ActionPalette>>() {
+            @Override
+            public List<ActionPalette> call() {
+                return Arrays.asList(mPalettes);
+            }
+        });
+    }
+
+    Future<List<ActionPalette>> start(Executor executor) {
+        if (mBuilders.length == 0) {
+            mResult.run();
+            return mResult;
+        }
+        for (int i = 0; i < mWorkerCount; i++) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWorker();
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                // The workers which did start take every builder between them, but the last of
+                // them must not wait for the ones which never will
+                if (mRunningWorkerCount.addAndGet(i - mWorkerCount) == 0) {
+                    mResult.run();
+                }
+                break;
+            }
+        }
+        return mResult;
+    }
+
+    private void runWorker() {
+        final PaletteContext context = new PaletteContext();
+        try {
+            int index;
+            while (!mResult.isCancelled()
+                    && (index = mNextIndex.getAndIncrement()) < mBuilders.length) {
+                ActionPalette actionPalette = null;
+                Throwable failure = null;
+                try {
+                    actionPalette = mBuilders[index].generate(context);
+                } catch (Throwable e) {
+                    // Includes OutOfMemoryError from a large image, which the rest of the
+                    // batch may well have room for
+                    failure = e;
+                }
+                mPalettes[index] = actionPalette;
+                // Don't hold on to the source image once its palette is done
+                mBuilders[index] = null;
+                onCompleted(index, actionPalette, failure);
+            }
+        } finally {
+            // The decrement publishes this worker's palettes to the last worker
+            if (mRunningWorkerCount.decrementAndGet() == 0) {
+                mResult.run();
+            }
+        }
+    }
+
+    private void onCompleted(int index, ActionPalette actionPalette, Throwable failure) {
+        synchronized (mListenerLock) {
+            mCompletedCount++;
+            if (mListener == null || mResult.isCancelled()) {
+                return;
+            }
+            if (failure != null) {
+                mListener.onFailed(index, failure);
+            } else {
+                mListener.onGenerated(index, actionPalette);
+            }
+            mListener.onProgress(mCompletedCount, mBuilders.length);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the scratch buffers used while generating an {@link ActionPalette}, so that they can be
+ * reused from one generation to the next rather than being allocated each time.
+ * <p>
+ * Apps which generate palettes repeatedly, such as a live wallpaper which re-themes on each
+ * scene change, should keep a single instance and pass it to
+ * {@link ActionPalette.Builder#context(PaletteContext)}. Once the buffers have grown to fit the
+ * largest image seen, generation only allocates the resulting {@link ActionPalette} and its
+ * swatches.
+ * <p>
+ * The buffers are held for the lifetime of the instance. An instance must only be used by one
+ * generation at a time.
+ */
+public final class PaletteContext {
+
+    private int[] mPixels;
+    private int[] mBand;
+    private int[] mBoxSums;
+    private ColorCountMap mColorCounts;
+    private int[] mBucketCounts;
+    private ColorCountMap[] mRegionColorCounts = new ColorCountMap[0];
+    private int[][] mRegionBucketCounts = new int[0][];
+    private int[] mHistogramColors;
+    private int[] mHistogramColorCounts;
+    private int[] mQuantizerColors;
+    private int[] mQuantizerPopulations;
+    private int[] mSplitColors;
+    private int[] mSplitPopulations;
+    private int[] mSeedDistances;
+    private float[] mSwatchValues;
+    private IgnoredColorTable mIgnoredColorTable;
+
+    final int[] mComponentOffsets = new int[256];
+    final float[] mTempHsl = new float[3];
+
+    public PaletteContext() {
+    }
+
+    /**
+     * @return a buffer for the (scaled) pixels of an image, with room for at least
+     * {@code size} pixels
+     */
+    int[] getPixelBuffer(int size) {
+        return mPixels = ensureCapacity(mPixels, size);
+    }
+
+    /**
+     * @return a buffer for the rows of a source image which make up one row of the scaled
+     * image, with room for at least {@code size} pixels
+     */
+    int[] getBandBuffer(int size) {
+        return mBand = ensureCapacity(mBand, size);
+    }
+
+    int[] getBoxSumBuffer(int size) {
+        return mBoxSums = ensureCapacity(mBoxSums, size);
+    }
+
+    /**
+     * @return an empty {@link ColorCountMap} to count the colors of an image into
+     */
+    ColorCountMap getColorCounts(int expectedSize) {
+        if (mColorCounts == null) {
+            mColorCounts = new ColorCountMap(expectedSize);
+        } else {
+            mColorCounts.clear();
+        }
+        return mColorCounts;
+    }
+
+    /**
+     * @return a zeroed array to count the 5-5-5 RGB buckets of an image into
+     */
+    int[] getBucketCounts() {
+        if (mBucketCounts == null) {
+            mBucketCounts = new int[ColorHistogram.BUCKET_COUNT];
+        } else {
+            Arrays.fill(mBucketCounts, 0);
+        }
+        return mBucketCounts;
+    }
+
+    /**
+     * @return an empty {@link ColorCountMap} to count the colors of the {@code region}th region
+     * of an image into, see {@link ActionPalette.Builder#generateRegions(List)}
+     */
+    ColorCountMap getRegionColorCounts(int region, int expectedSize) {
+        if (region >= mRegionColorCounts.length) {
+            mRegionColorCounts = Arrays.copyOf(mRegionColorCounts, region + 1);
+        }
+        if (mRegionColorCounts[region] == null) {
+            mRegionColorCounts[region] = new ColorCountMap(expectedSize);
+        } else {
+            mRegionColorCounts[region].clear();
+        }
+        return mRegionColorCounts[region];
+    }
+
+    /**
+     * @return a zeroed array to count the 5-5-5 RGB buckets of the {@code region}th region of an
+     * image into
+     */
+    int[] getRegionBucketCounts(int region) {
+        if (region >= mRegionBucketCounts.length) {
+            mRegionBucketCounts = Arrays.copyOf(mRegionBucketCounts, region + 1);
+        }
+        if (mRegionBucketCounts[region] == null) {
+            mRegionBucketCounts[region] = new int[ColorHistogram.BUCKET_COUNT];
+        } else {
+            Arrays.fill(mRegionBucketCounts[region], 0);
+        }
+        return mRegionBucketCounts[region];
+    }
+
+    int[] getHistogramColors(int size) {
+        return mHistogramColors = ensureCapacity(mHistogramColors, size);
+    }
+
+    int[] getHistogramColorCounts(int size) {
+        return mHistogramColorCounts = ensureCapacity(mHistogramColorCounts, size);
+    }
+
+    int[] getQuantizerColors(int size) {
+        return mQuantizerColors = ensureCapacity(mQuantizerColors, size);
+    }
+
+    int[] getQuantizerPopulations(int size) {
+        return mQuantizerPopulations = ensureCapacity(mQuantizerPopulations, size);
+    }
+
+    int[] getSplitColors(int size) {
+        return mSplitColors = ensureCapacity(mSplitColors, size);
+    }
+
+    int[] getSplitPopulations(int size) {
+        return mSplitPopulations = ensureCapacity(mSplitPopulations, size);
+    }
+
+    int[] getSeedDistances(int size) {
+        return mSeedDistances = ensureCapacity(mSeedDistances, size);
+    }
+
+    float[] getSwatchValues(int size) {
+        return mSwatchValues = ensureCapacity(mSwatchValues, size);
+    }
+
+    /**
+     * @return the table for {@code filters}, which is only rebuilt when the filters change
+     */
+    IgnoredColorTable getIgnoredColorTable(List<ActionPalette.Filter> filters) {
+        if (filters.size() == 1 && filters.get(0) == ColorCutQuantizer.DEFAULT_FILTER) {
+            return IgnoredColorTable.getDefault();
+        }
+        if (mIgnoredColorTable == null || !mIgnoredColorTable.hasFilters(filters)) {
+            mIgnoredColorTable = new IgnoredColorTable(filters);
+        }
+        return mIgnoredColorTable;
+    }
+
+    private static int[] ensureCapacity(int[] buffer, int size) {
+        return buffer != null && buffer.length >= size ? buffer : new int[size];
+    }
+
+    private static float[] ensureCapacity(float[] buffer, int size) {
+        return buffer != null && buffer.length >= size ? buffer : new float[size];
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@link FutureTask} which generates an {@link ActionPalette} from a {@link ActionPalette.Builder}
+ * and, unless it was cancelled first, delivers it to a
+ * {@link ActionPalette.PaletteAsyncListener} on the thread which generated it.
+ */
+final class PaletteFutureTask extends FutureTask<ActionPalette> {
+
+    private final ActionPalette.PaletteAsyncListener mListener;
+
+    PaletteFutureTask(final ActionPalette.Builder builder,
+            ActionPalette.PaletteAsyncListener listener) {
+        super(new Callable<ActionPalette>() {
+            @Override
+            public ActionPalette call() {
+                return builder.generate();
+            }
+        });
+        mListener = listener;
+    }
+
+    @Override
+    protected void done() {
+        if (mListener == null || isCancelled()) {
+            return;
+        }
+
+        final ActionPalette actionPalette;
+        try {
+            actionPalette = get();
+        } catch (InterruptedException e) {
+            // Can't happen, the task has completed
+            return;
+        } catch (ExecutionException e) {
+            // The failure is reported through get() instead
+            return;
+        }
+        mListener.onGenerated(actionPalette);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+/**
+ * A named part of an image to generate a palette for, such as the strip behind the status bar or
+ * the area behind the dock. See {@link ActionPalette.Builder#generateRegions(java.util.List)}.
+ * <p>
+ * The bounds are fractions of the image's width and height, so the same region can be used for
+ * an image of any size or scale.
+ */
+public final class PaletteRegion {
+
+    private final String mName;
+    private final float mLeft;
+    private final float mTop;
+    private final float mRight;
+    private final float mBottom;
+
+    /**
+     * @param name   the name the region's palette is returned under
+     * @param left   the left edge, as a fraction of the image's width
+     * @param top    the top edge, as a fraction of the image's height
+     * @param right  the right edge, as a fraction of the image's width
+     * @param bottom the bottom edge, as a fraction of the image's height
+     */
+    public PaletteRegion(String name, float left, float top, float right, float bottom) {
+        if (name == null) {
+            throw new IllegalArgumentException("name can not be null");
+        }
+        if (!(0f <= left && left < right && right <= 1f)
+                || !(0f <= top && top < bottom && bottom <= 1f)) {
+            throw new IllegalArgumentException("Region bounds must be within 0 and 1, and not empty");
+        }
+        mName = name;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getRight() {
+        return mRight;
+    }
+
+    public float getBottom() {
+        return mBottom;
+    }
+
+    /**
+     * @return the first column of an image {@code width} pixels wide which is in this region.
+     */
+    int getLeftPixel(int width) {
+        return Math.min(Math.round(mLeft * width), width - 1);
+    }
+
+    /**
+     * @return the column after the last one of an image {@code width} pixels wide which is in
+     * this region. Every region includes at least one column.
+     */
+    int getRightPixel(int width) {
+        return Math.max(Math.round(mRight * width), getLeftPixel(width) + 1);
+    }
+
+    /**
+     * @return the first row of an image {@code height} pixels high which is in this region.
+     */
+    int getTopPixel(int height) {
+        return Math.min(Math.round(mTop * height), height - 1);
+    }
+
+    /**
+     * @return the row after the last one of an image {@code height} pixels high which is in this
+     * region. Every region includes at least one row.
+     */
+    int getBottomPixel(int height) {
+        return Math.max(Math.round(mBottom * height), getTopPixel(height) + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        PaletteRegion region = (PaletteRegion) o;
+        return mName.equals(region.mName)
+                && Float.compare(mLeft, region.mLeft) == 0
+                && Float.compare(mTop, region.mTop) == 0
+                && Float.compare(mRight, region.mRight) == 0
+                && Float.compare(mBottom, region.mBottom) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mName.hashCode();
+        result = 31 * result + Float.floatToIntBits(mLeft);
+        result = 31 * result + Float.floatToIntBits(mTop);
+        result = 31 * result + Float.floatToIntBits(mRight);
+        result = 31 * result + Float.floatToIntBits(mBottom);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [" + mName + ": " + mLeft + ", " + mTop + " - "
+                + mRight + ", " + mBottom + "]";
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+/**
+ * The saturation and lightness a swatch should have to fill a role in an {@link ActionPalette},
+ * such as the vibrant color or an extra accent color. The default {@link ActionPalette.Generator}
+ * scores every swatch against every target and picks the highest scoring swatch for each target
+ * whose saturation and lightness are within its bounds.
+ * <p>
+ * Custom targets are added with {@link ActionPalette.Builder#addTarget(PaletteTarget)}, and their
+ * swatches are read back with {@link ActionPalette#getSwatchForTarget(PaletteTarget)}:
+ *
+ * <pre>
+ * PaletteTarget accent = new PaletteTarget.Builder()
+ *         .setLightness(0.6f, 0.4f, 0.8f)
+ *         .setSaturation(0.8f, 0.5f, 1f)
+ *         .build();
+ * ActionPalette palette = ActionPalette.from(bitmap).addTarget(accent).generate();
+ * Swatch accentSwatch = palette.getSwatchForTarget(accent);
+ * </pre>
+ *
+ * Targets are matched by identity, so the same instance should be used for both.
+ */
+public final class PaletteTarget {
+
+    static final float DEFAULT_WEIGHT_SATURATION = 3f;
+    static final float DEFAULT_WEIGHT_LIGHTNESS = 6f;
+    static final float DEFAULT_WEIGHT_POPULATION = 1f;
+
+    private static final float TARGET_DARK_LUMA = 0.26f;
+    private static final float MAX_DARK_LUMA = 0.45f;
+
+    private static final float MIN_LIGHT_LUMA = 0.55f;
+    private static final float TARGET_LIGHT_LUMA = 0.74f;
+
+    private static final float MIN_NORMAL_LUMA = 0.3f;
+    private static final float TARGET_NORMAL_LUMA = 0.5f;
+    private static final float MAX_NORMAL_LUMA = 0.7f;
+
+    private static final float TARGET_MUTED_SATURATION = 0.3f;
+    private static final float MAX_MUTED_SATURATION = 0.4f;
+
+    private static final float TARGET_VIBRANT_SATURATION = 1f;
+    private static final float MIN_VIBRANT_SATURATION = 0.35f;
+
+    /**
+     * The target of {@link ActionPalette#getVibrantSwatch()}.
+     */
+    public static final PaletteTarget VIBRANT = new Builder()
+            .setLightness(TARGET_NORMAL_LUMA, MIN_NORMAL_LUMA, MAX_NORMAL_LUMA)
+            .setSaturation(TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f)
+            .build();
+
+    /**
+     * The target of {@link ActionPalette#getLightVibrantSwatch()}.
+     */
+    public static final PaletteTarget LIGHT_VIBRANT = new Builder()
+            .setLightness(TARGET_LIGHT_LUMA, MIN_LIGHT_LUMA, 1f)
+            .setSaturation(TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f)
+            .build();
+
+    /**
+     * The target of {@link ActionPalette#getDarkVibrantSwatch()}.
+     */
+    public static final PaletteTarget DARK_VIBRANT = new Builder()
+            .setLightness(TARGET_DARK_LUMA, 0f, MAX_DARK_LUMA)
+            .setSaturation(TARGET_VIBRANT_SATURATION, MIN_VIBRANT_SATURATION, 1f)
+            .build();
+
+    /**
+     * The target of {@link ActionPalette#getMutedSwatch()}.
+     */
+    public static final PaletteTarget MUTED = new Builder()
+            .setLightness(TARGET_NORMAL_LUMA, MIN_NORMAL_LUMA, MAX_NORMAL_LUMA)
+            .setSaturation(TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION)
+            .build();
+
+    /**
+     * The target of {@link ActionPalette#getLightMutedSwatch()}.
+     */
+    public static final PaletteTarget LIGHT_MUTED = new Builder()
+            .setLightness(TARGET_LIGHT_LUMA, MIN_LIGHT_LUMA, 1f)
+            .setSaturation(TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION)
+            .build();
+
+    /**
+     * The target of {@link ActionPalette#getDarkMutedSwatch()}.
+     */
+    public static final PaletteTarget DARK_MUTED = new Builder()
+            .setLightness(TARGET_DARK_LUMA, 0f, MAX_DARK_LUMA)
+            .setSaturation(TARGET_MUTED_SATURATION, 0f, MAX_MUTED_SATURATION)
+            .build();
+
+    private final float mTargetSaturation;
+    private final float mMinSaturation;
+    private final float mMaxSaturation;
+    private final float mTargetLightness;
+    private final float mMinLightness;
+    private final float mMaxLightness;
+    private final float mSaturationWeight;
+    private final float mLightnessWeight;
+    private final float mPopulationWeight;
+    private final boolean mExclusive;
+
+    private PaletteTarget(Builder builder) {
+        mTargetSaturation = builder.mTargetSaturation;
+        mMinSaturation = builder.mMinSaturation;
+        mMaxSaturation = builder.mMaxSaturation;
+        mTargetLightness = builder.mTargetLightness;
+        mMinLightness = builder.mMinLightness;
+        mMaxLightness = builder.mMaxLightness;
+        mSaturationWeight = builder.mSaturationWeight;
+        mLightnessWeight = builder.mLightnessWeight;
+        mPopulationWeight = builder.mPopulationWeight;
+        mExclusive = builder.mExclusive;
+    }
+
+    public float getTargetSaturation() {
+        return mTargetSaturation;
+    }
+
+    public float getMinimumSaturation() {
+        return mMinSaturation;
+    }
+
+    public float getMaximumSaturation() {
+        return mMaxSaturation;
+    }
+
+    public float getTargetLightness() {
+        return mTargetLightness;
+    }
+
+    public float getMinimumLightness() {
+        return mMinLightness;
+    }
+
+    public float getMaximumLightness() {
+        return mMaxLightness;
+    }
+
+    public float getSaturationWeight() {
+        return mSaturationWeight;
+    }
+
+    public float getLightnessWeight() {
+        return mLightnessWeight;
+    }
+
+    public float getPopulationWeight() {
+        return mPopulationWeight;
+    }
+
+    /**
+     * @return true if the swatch picked for this target can not be picked for any target scored
+     * after it.
+     */
+    public boolean isExclusive() {
+        return mExclusive;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()
+                + " [Saturation: " + mTargetSaturation + " (" + mMinSaturation + " - "
+                + mMaxSaturation + ")]"
+                + " [Lightness: " + mTargetLightness + " (" + mMinLightness + " - "
+                + mMaxLightness + ")]"
+                + " [Weights: " + mSaturationWeight + ", " + mLightnessWeight + ", "
+                + mPopulationWeight + "]"
+                + " [Exclusive: " + mExclusive + "]";
+    }
+
+    /**
+     * Builder class for {@link PaletteTarget}.
+     */
+    public static final class Builder {
+        private float mTargetSaturation = 0.5f;
+        private float mMinSaturation = 0f;
+        private float mMaxSaturation = 1f;
+        private float mTargetLightness = 0.5f;
+        private float mMinLightness = 0f;
+        private float mMaxLightness = 1f;
+        private float mSaturationWeight = DEFAULT_WEIGHT_SATURATION;
+        private float mLightnessWeight = DEFAULT_WEIGHT_LIGHTNESS;
+        private float mPopulationWeight = DEFAULT_WEIGHT_POPULATION;
+        private boolean mExclusive = true;
+
+        /**
+         * Set the saturation, between 0 and 1, a swatch should ideally have, and the range it
+         * must be within.
+         */
+        public Builder setSaturation(float target, float min, float max) {
+            checkRange(target, min, max, "Saturation");
+            mTargetSaturation = target;
+            mMinSaturation = min;
+            mMaxSaturation = max;
+            return this;
+        }
+
+        /**
+         * Set the lightness, between 0 and 1, a swatch should ideally have, and the range it
+         * must be within.
+         */
+        public Builder setLightness(float target, float min, float max) {
+            checkRange(target, min, max, "Lightness");
+            mTargetLightness = target;
+            mMinLightness = min;
+            mMaxLightness = max;
+            return this;
+        }
+
+        /**
+         * Set how much closeness to the target saturation, closeness to the target lightness and
+         * a large population each count towards a swatch's score. The weights are relative to
+         * each other, and at least one must be positive.
+         */
+        public Builder setWeights(float saturation, float lightness, float population) {
+            if (saturation < 0f || lightness < 0f || population < 0f
+                    || !(saturation + lightness + population > 0f)) {
+                throw new IllegalArgumentException(
+                        "Weights can not be negative, and at least one must be positive");
+            }
+            mSaturationWeight = saturation;
+            mLightnessWeight = lightness;
+            mPopulationWeight = population;
+            return this;
+        }
+
+        /**
+         * Set whether the swatch picked for the target can also be picked for targets scored
+         * after it. Targets are exclusive by default.
+         */
+        public Builder setExclusive(boolean exclusive) {
+            mExclusive = exclusive;
+            return this;
+        }
+
+        public PaletteTarget build() {
+            return new PaletteTarget(this);
+        }
+
+        private static void checkRange(float target, float min, float max, String name) {
+            if (!(0f <= min && min <= target && target <= max && max <= 1f)) {
+                throw new IllegalArgumentException(
+                        name + " should be 0 <= min <= target <= max <= 1");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps an {@link ActionPalette} up to date with the successive frames of animated content, such
+ * as a live wallpaper which is always moving, without generating the palette from scratch for
+ * every frame.
+ * <p>
+ * Each frame is compared with the previous one a tile at a time. Only the pixels of tiles which
+ * have changed are moved between the buckets of a {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}
+ * histogram, so a frame where little has moved costs little more than the comparison. The
+ * palette is only quantized again once the histogram has drifted from the one the current
+ * palette was generated from by more than {@link #setDriftThreshold(float) a threshold}:
+ *
+ * <pre>
+ * PaletteTracker tracker = new PaletteTracker(frameWidth, frameHeight);
+ * ...
+ * // For each rendered frame, scaled down to frameWidth x frameHeight
+ * if (tracker.updatePixels(framePixels)) {
+ *     ActionPalette palette = tracker.getPalette();
+ *     ...
+ * }
+ * </pre>
+ *
+ * The cost of each update grows with the frame size, so frames should be scaled down first, as
+ * {@link ActionPalette#DEFAULT_RESIZE_BITMAP_MAX_DIMENSION} is for a single image.
+ * <p>
+ * Instances are not thread safe, but the returned palettes are immutable.
+ */
+public final class PaletteTracker {
+
+    /**
+     * The default width and height of the tiles frames are compared in.
+     */
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    /**
+     * The default fraction of the pixels which must have moved to a different bucket since the
+     * palette was last generated for it to be generated again.
+     */
+    public static final float DEFAULT_DRIFT_THRESHOLD = 0.05f;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mPixelCount;
+
+    private final int[] mPreviousFrame;
+    private final int[] mBucketCounts = new int[ColorHistogram.BUCKET_COUNT];
+    private final int[] mPaletteBucketCounts = new int[ColorHistogram.BUCKET_COUNT];
+    private final PaletteContext mContext = new PaletteContext();
+
+    private int[] mFrameBuffer;
+    private float mDriftThreshold = DEFAULT_DRIFT_THRESHOLD;
+    private int mMaxColors = ActionPalette.DEFAULT_CALCULATE_NUMBER_COLORS;
+
+    // The sum over every bucket of the difference between its current count and its count when
+    // the palette was generated, which is twice the number of pixels which have moved bucket
+    private long mDrift;
+    private boolean mHasFrame;
+    private ActionPalette mPalette;
+
+    /**
+     * Create a tracker for frames of {@code width} x {@code height} pixels, compared in tiles of
+     * {@link #DEFAULT_TILE_SIZE} pixels.
+     */
+    public PaletteTracker(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param width    the width of each frame
+     * @param height   the height of each frame
+     * @param tileSize the width and height of the tiles frames are compared in. Smaller tiles
+     *                 find the changed pixels more precisely, while larger tiles are quicker to
+     *                 compare.
+     */
+    public PaletteTracker(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Frame dimensions are not valid");
+        }
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize should be >= 1");
+        }
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mPixelCount = width * height;
+        mPreviousFrame = new int[mPixelCount];
+    }
+
+    /**
+     * Set the fraction of the pixels, between 0 and 1, which must have moved to a different color
+     * bucket since the palette was last generated for it to be generated again. A threshold of 0
+     * generates the palette for every frame which changes the histogram.
+     */
+    public PaletteTracker setDriftThreshold(float driftThreshold) {
+        if (driftThreshold < 0f || driftThreshold > 1f) {
+            throw new IllegalArgumentException("driftThreshold should be between 0 and 1");
+        }
+        mDriftThreshold = driftThreshold;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of colors to use in the quantization step, as
+     * {@link ActionPalette.Builder#maximumColorCount(int)} does.
+     */
+    public PaletteTracker setMaximumColorCount(int maxColors) {
+        mMaxColors = maxColors;
+        return this;
+    }
+
+    /**
+     * Update the tracker with the next frame. The bitmap must be the size given to the
+     * constructor, and is not recycled.
+     *
+     * @return true if the palette was generated again for this frame
+     */
+    public boolean update(Bitmap frame) {
+        if (frame == null || frame.isRecycled()) {
+            throw new IllegalArgumentException("Bitmap is not valid");
+        }
+        if (frame.getWidth() != mWidth || frame.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Frame is " + frame.getWidth() + "x"
+                    + frame.getHeight() + ", expected " + mWidth + "x" + mHeight);
+        }
+
+        if (mFrameBuffer == null) {
+            mFrameBuffer = new int[mPixelCount];
+        }
+        frame.getPixels(mFrameBuffer, 0, mWidth, 0, 0, mWidth, mHeight);
+        return updatePixels(mFrameBuffer);
+    }
+
+    /**
+     * Update the tracker with the next frame, as ARGB pixels in row-major order. The array is not
+     * modified or retained, so it can be reused for the next frame.
+     *
+     * @return true if the palette was generated again for this frame
+     */
+    public boolean updatePixels(int[] frame) {
+        if (frame == null || frame.length < mPixelCount) {
+            throw new IllegalArgumentException("Pixels are not valid");
+        }
+
+        if (!mHasFrame) {
+            System.arraycopy(frame, 0, mPreviousFrame, 0, mPixelCount);
+            ColorHistogram.addBuckets(mBucketCounts, frame, 0, mPixelCount);
+            mHasFrame = true;
+            generatePalette();
+            return true;
+        }
+
+        for (int tileTop = 0; tileTop < mHeight; tileTop += mTileSize) {
+            final int tileBottom = Math.min(tileTop + mTileSize, mHeight);
+            for (int tileLeft = 0; tileLeft < mWidth; tileLeft += mTileSize) {
+                final int tileRight = Math.min(tileLeft + mTileSize, mWidth);
+                final int changedRow = findChangedRow(frame, tileLeft, tileTop, tileRight,
+                        tileBottom);
+                if (changedRow != -1) {
+                    updateTile(frame, tileLeft, changedRow, tileRight, tileBottom);
+                }
+            }
+        }
+
+        if (mDrift > 0 && mDrift >= 2.0 * mDriftThreshold * mPixelCount) {
+            generatePalette();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the fraction of the pixels, between 0 and 1, which have moved to a different color
+     * bucket since the current palette was generated.
+     */
+    public float getDrift() {
+        return (float) (mDrift / (2.0 * mPixelCount));
+    }
+
+    /**
+     * @return the palette for the most recent frames, or null if there hasn't been a frame yet.
+     */
+    public ActionPalette getPalette() {
+        return mPalette;
+    }
+
+    /**
+     * Forget every frame, so that the next frame generates the palette from scratch.
+     */
+    public void reset() {
+        Arrays.fill(mBucketCounts, 0);
+        mDrift = 0;
+        mHasFrame = false;
+        mPalette = null;
+    }
+
+    /**
+     * @return the first row of the tile which differs from the previous frame, or -1 if the tile
+     * has not changed.
+     */
+    private int findChangedRow(int[] frame, int left, int top, int right, int bottom) {
+        final int[] previousFrame = mPreviousFrame;
+        for (int y = top; y < bottom; y++) {
+            final int rowEnd = y * mWidth + right;
+            for (int i = y * mWidth + left; i < rowEnd; i++) {
+                if (frame[i] != previousFrame[i]) {
+                    return y;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void updateTile(int[] frame, int left, int top, int right, int bottom) {
+        final int[] previousFrame = mPreviousFrame;
+        for (int y = top; y < bottom; y++) {
+            final int rowEnd = y * mWidth + right;
+            for (int i = y * mWidth + left; i < rowEnd; i++) {
+                final int color = frame[i];
+                final int previousColor = previousFrame[i];
+                if (color != previousColor) {
+                    final int previousBucket = ColorHistogram.bucketForColor(previousColor);
+                    final int bucket = ColorHistogram.bucketForColor(color);
+                    if (bucket != previousBucket) {
+                        moveCount(previousBucket, -1);
+                        moveCount(bucket, 1);
+                    }
+                    previousFrame[i] = color;
+                }
+            }
+        }
+    }
+
+    private void moveCount(int bucket, int delta) {
+        final int paletteCount = mPaletteBucketCounts[bucket];
+        final int oldCount = mBucketCounts[bucket];
+        final int newCount = oldCount + delta;
+        mBucketCounts[bucket] = newCount;
+        // Keep the drift up to date as counts move towards or away from the palette's counts
+        mDrift += Math.abs(newCount - paletteCount) - Math.abs(oldCount - paletteCount);
+    }
+
+    private void generatePalette() {
+        final ColorCutQuantizer quantizer = ColorCutQuantizer.fromHistogram(
+                ColorHistogram.fromBucketCounts(mBucketCounts, mContext), mMaxColors,
+                IgnoredColorTable.getDefault(), mContext);
+        final List<ActionPalette.Swatch> swatches = quantizer.getQuantizedColors();
+        final DefaultGenerator generator = new DefaultGenerator();
+        generator.generate(swatches, mContext);
+        mPalette = new ActionPalette(swatches, generator);
+
+        System.arraycopy(mBucketCounts, 0, mPaletteBucketCounts, 0, mBucketCounts.length);
+        mDrift = 0;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the colors of large images on a {@link ForkJoinPool}.
+ *
+ * The pixels, which are stored row by row, are split into contiguous ranges, each of which is
+ * counted into its own histogram by a worker. The per-worker histograms are then merged pairwise
+ * as the tasks are joined, so the workers never share any mutable state.
+ */
+final class ParallelColorCounter {
+
+    /**
+     * Ranges with at most this many pixels are counted directly rather than being split further.
+     */
+    private static final int LEAF_PIXEL_COUNT = 1 << 16;
+
+    private ParallelColorCounter() {}
+
+    /**
+     * @return the distinct colors of the first {@code pixelCount} pixels and their counts
+     */
+    static ColorCountMap countColors(ForkJoinPool pool, int[] pixels, int pixelCount) {
+        return pool.invoke(new CountColorsTask(pixels, 0, pixelCount));
+    }
+
+    /**
+     * @return the count of each 5-5-5 RGB bucket of the first {@code pixelCount} pixels
+     */
+    static int[] countBuckets(ForkJoinPool pool, int[] pixels, int pixelCount) {
+        return pool.invoke(new CountBucketsTask(pixels, 0, pixelCount));
+    }
+
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private static final class CountColorsTask extends RecursiveTask<ColorCountMap> {
+        private final int[] mPixels;
+        private final int mStart;
+        private final int mEnd;
+
+        CountColorsTask(int[] pixels, int start, int end) {
+            mPixels = pixels;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected ColorCountMap compute() {
+            if (mEnd - mStart <= LEAF_PIXEL_COUNT) {
+                return ColorHistogram.countColors(mPixels, mStart, mEnd);
+            }
+
+            final int mid = (mStart + mEnd) >>> 1;
+            final CountColorsTask left = new CountColorsTask(mPixels, mStart, mid);
+            left.fork();
+            final ColorCountMap rightCounts = new CountColorsTask(mPixels, mid, mEnd).compute();
+            final ColorCountMap leftCounts = left.join();
+
+            // Merge the smaller table into the larger one, to do as little re-hashing as possible
+            if (leftCounts.size() >= rightCounts.size()) {
+                leftCounts.addAll(rightCounts);
+                return leftCounts;
+            } else {
+                rightCounts.addAll(leftCounts);
+                return rightCounts;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private static final class CountBucketsTask extends RecursiveTask<int[]> {
+        private final int[] mPixels;
+        private final int mStart;
+        private final int mEnd;
+
+        CountBucketsTask(int[] pixels, int start, int end) {
+            mPixels = pixels;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (mEnd - mStart <= LEAF_PIXEL_COUNT) {
+                return ColorHistogram.countBuckets(mPixels, mStart, mEnd);
+            }
+
+            final int mid = (mStart + mEnd) >>> 1;
+            final CountBucketsTask left = new CountBucketsTask(mPixels, mStart, mid);
+            left.fork();
+            final int[] bucketCounts = new CountBucketsTask(mPixels, mid, mEnd).compute();
+            final int[] leftBucketCounts = left.join();
+
+            for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+                bucketCounts[bucket] += leftBucketCounts[bucket];
+            }
+            return bucketCounts;
+        }
+    }
+
+}
@@ -26,11 +26,29 @@ public class ProtocolConstants {
     public static final String EXTRA_TOKEN = "com.actionlauncher.api.extra.TOKEN";
     public static final String EXTRA_STATE = "com.actionlauncher.api.extra.STATE";
 
+    // Capabilities a subscriber can advertise in ACTION_SUBSCRIBE. A subscriber which leaves them
+    // out is sent the same payload as before they existed.
+    public static final String EXTRA_WIRE_VERSION = "com.actionlauncher.api.extra.WIRE_VERSION";
+    public static final String EXTRA_SUPPORTS_DELTA = "com.actionlauncher.api.extra.SUPPORTS_DELTA";
+    public static final String EXTRA_MIN_UPDATE_INTERVAL = "com.actionlauncher.api.extra.MIN_UPDATE_INTERVAL";
+    public static final String EXTRA_SUPPORTS_REGIONS = "com.actionlauncher.api.extra.SUPPORTS_REGIONS";
+
+    // Updates to a subscriber which supports deltas carry a sequence number, which goes up by one
+    // for each update. An update with EXTRA_STATE replaces the subscriber's state. An update with
+    // EXTRA_STATE_DELTA only applies to the state with EXTRA_BASE_SEQUENCE; if that isn't the
+    // last update the subscriber applied, it sends ACTION_RESYNC with its
+    // EXTRA_SUBSCRIBER_COMPONENT to be sent the whole state again.
+    public static final String EXTRA_SEQUENCE = "com.actionlauncher.api.extra.SEQUENCE";
+    public static final String EXTRA_BASE_SEQUENCE = "com.actionlauncher.api.extra.BASE_SEQUENCE";
+    public static final String EXTRA_STATE_DELTA = "com.actionlauncher.api.extra.STATE_DELTA";
+    public static final String ACTION_RESYNC = "com.actionlauncher.api.action.RESYNC";
+
     public static final String ACTION_FETCH_PALETTE = "com.actionlauncher.api.FETCH_PALETTE";
 
     // Sent intents
     public static final String ACTION_PUBLISH_STATE = "com.actionlauncher.api.action.PUBLISH_UPDATE";
     public static final String EXTRA_LIVE_WALLPAPER_INFO = "com.actionlauncher.api.extra.LIVE_WALLPAPER_INFO";
+    public static final String EXTRA_PALETTE_CHANGE_THRESHOLD = "com.actionlauncher.api.extra.PALETTE_CHANGE_THRESHOLD";
 
     private ProtocolConstants() {
     }
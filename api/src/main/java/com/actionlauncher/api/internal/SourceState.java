@@ -24,9 +24,30 @@ public class SourceState {
     }
 
     public Bundle toBundle() {
+        return toBundle(LiveWallpaperInfo.WIRE_VERSION_LEGACY);
+    }
+
+    public Bundle toBundle(int wireVersion) {
+        return toBundle(wireVersion, true);
+    }
+
+    /**
+     * Returns the current LiveWallpaperInfo, without the palettes of its regions unless
+     * {@code includeRegions} is true.
+     */
+    public LiveWallpaperInfo getCurrentLiveWallpaperInfo(boolean includeRegions) {
+        LiveWallpaperInfo info = mCurrentLiveWallpaperInfo;
+        if (info != null && !includeRegions && !info.getRegionNames().isEmpty()) {
+            info = new LiveWallpaperInfo.Builder(info).clearRegions().build();
+        }
+        return info;
+    }
+
+    public Bundle toBundle(int wireVersion, boolean includeRegions) {
         Bundle bundle = new Bundle();
-        if (mCurrentLiveWallpaperInfo != null) {
-            bundle.putBundle(KEY_CURRENT_LIVE_WALLPAPER_INFO, mCurrentLiveWallpaperInfo.toBundle());
+        LiveWallpaperInfo info = getCurrentLiveWallpaperInfo(includeRegions);
+        if (info != null) {
+            bundle.putBundle(KEY_CURRENT_LIVE_WALLPAPER_INFO, info.toBundle(wireVersion));
         }
         return bundle;
     }
@@ -43,7 +64,8 @@ public class SourceState {
     public JSONObject toJson() throws JSONException{
         JSONObject jsonObject = new JSONObject();
         if (mCurrentLiveWallpaperInfo != null) {
-            jsonObject.put(KEY_CURRENT_LIVE_WALLPAPER_INFO, mCurrentLiveWallpaperInfo.toJson());
+            jsonObject.put(KEY_CURRENT_LIVE_WALLPAPER_INFO,
+                    mCurrentLiveWallpaperInfo.toJson(LiveWallpaperInfo.WIRE_VERSION_PACKED));
         }
         return jsonObject;
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.internal;
+
+import android.content.Intent;
+
+import com.actionlauncher.api.LiveWallpaperInfo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_MIN_UPDATE_INTERVAL;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_SUPPORTS_DELTA;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_SUPPORTS_REGIONS;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_TOKEN;
+import static com.actionlauncher.api.internal.ProtocolConstants.EXTRA_WIRE_VERSION;
+
+/**
+ * Represents a subscriber's token, along with the capabilities it advertised when it subscribed.
+ * A subscriber which doesn't advertise any capabilities is sent the same payload as before
+ * capabilities existed.
+ */
+public class Subscription {
+    private static final String KEY_WIRE_VERSION = "wireVersion";
+    private static final String KEY_SUPPORTS_DELTA = "delta";
+    private static final String KEY_MIN_UPDATE_INTERVAL = "minUpdateInterval";
+    private static final String KEY_SUPPORTS_REGIONS = "regions";
+
+    private final String mToken;
+    private final int mWireVersion;
+    private final boolean mSupportsDelta;
+    private final long mMinUpdateInterval;
+    private final boolean mSupportsRegions;
+
+    public Subscription(String token) {
+        this(token, LiveWallpaperInfo.WIRE_VERSION_LEGACY, false, 0, false);
+    }
+
+    public Subscription(String token, int wireVersion, boolean supportsDelta,
+            long minUpdateInterval, boolean supportsRegions) {
+        mToken = token;
+        // Never send a newer format than this version of the API can write
+        mWireVersion = Math.max(LiveWallpaperInfo.WIRE_VERSION_LEGACY,
+                Math.min(wireVersion, LiveWallpaperInfo.WIRE_VERSION_PACKED));
+        // Deltas are written in the packed format
+        mSupportsDelta = supportsDelta && mWireVersion >= LiveWallpaperInfo.WIRE_VERSION_PACKED;
+        mMinUpdateInterval = Math.max(0, minUpdateInterval);
+        mSupportsRegions = supportsRegions;
+    }
+
+    /**
+     * Reads the token and capabilities from an {@link ProtocolConstants#ACTION_SUBSCRIBE} intent.
+     */
+    public static Subscription fromIntent(Intent intent) {
+        return new Subscription(intent.getStringExtra(EXTRA_TOKEN),
+                intent.getIntExtra(EXTRA_WIRE_VERSION, LiveWallpaperInfo.WIRE_VERSION_LEGACY),
+                intent.getBooleanExtra(EXTRA_SUPPORTS_DELTA, false),
+                intent.getLongExtra(EXTRA_MIN_UPDATE_INTERVAL, 0),
+                intent.getBooleanExtra(EXTRA_SUPPORTS_REGIONS, false));
+    }
+
+    public String getToken() {
+        return mToken;
+    }
+
+    /**
+     * Returns the newest {@link LiveWallpaperInfo} wire format which both the subscriber and this
+     * source understand.
+     */
+    public int getWireVersion() {
+        return mWireVersion;
+    }
+
+    /**
+     * Returns true if the subscriber can apply updates which only contain the colors which have
+     * changed.
+     */
+    public boolean supportsDelta() {
+        return mSupportsDelta;
+    }
+
+    /**
+     * Returns the fewest milliseconds the subscriber wants between two updates, or 0 if every
+     * update should be sent as soon as it is published.
+     */
+    public long getMinUpdateInterval() {
+        return mMinUpdateInterval;
+    }
+
+    /**
+     * Returns true if the subscriber uses the palettes of the regions of the wallpaper, so they
+     * should be included in its updates.
+     */
+    public boolean supportsRegions() {
+        return mSupportsRegions;
+    }
+
+    /**
+     * Serializes the capabilities, but not the token, to a {@link JSONObject}.
+     */
+    public JSONObject capabilitiesToJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(KEY_WIRE_VERSION, mWireVersion);
+        jsonObject.put(KEY_SUPPORTS_DELTA, mSupportsDelta);
+        jsonObject.put(KEY_MIN_UPDATE_INTERVAL, mMinUpdateInterval);
+        jsonObject.put(KEY_SUPPORTS_REGIONS, mSupportsRegions);
+        return jsonObject;
+    }
+
+    /**
+     * Creates a subscription for {@code token} with the capabilities written by
+     * {@link #capabilitiesToJson()}.
+     */
+    public static Subscription fromCapabilitiesJson(String token, JSONObject jsonObject) {
+        return new Subscription(token,
+                jsonObject.optInt(KEY_WIRE_VERSION, LiveWallpaperInfo.WIRE_VERSION_LEGACY),
+                jsonObject.optBoolean(KEY_SUPPORTS_DELTA, false),
+                jsonObject.optLong(KEY_MIN_UPDATE_INTERVAL, 0),
+                jsonObject.optBoolean(KEY_SUPPORTS_REGIONS, false));
+    }
+
+}
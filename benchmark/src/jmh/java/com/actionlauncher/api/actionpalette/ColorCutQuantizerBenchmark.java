@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Benchmarks quantizing a prebuilt {@link ColorHistogram} down to the default number of colors.
+ * The histogram is built in setup, so this measures the color filtering and median cut alone.
+ */
+@State(Scope.Benchmark)
+public class ColorCutQuantizerBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"64", "192", "512"})
+    public int size;
+
+    @Param({"" + ActionPalette.HISTOGRAM_MODE_EXACT, "" + ActionPalette.HISTOGRAM_MODE_BUCKETED})
+    public int histogramMode;
+
+    private ColorHistogram mHistogram;
+
+    @Setup
+    public void setUp() throws IOException {
+        final int[] pixels = BenchmarkImages.load(image, size).pixels;
+        mHistogram = histogramMode == ActionPalette.HISTOGRAM_MODE_BUCKETED
+                ? ColorHistogram.fromBucketedPixels(pixels)
+                : new ColorHistogram(pixels);
+    }
+
+    @Benchmark
+    public List<ActionPalette.Swatch> quantizePixels() {
+        return ColorCutQuantizer.fromHistogram(mHistogram,
+                ActionPalette.DEFAULT_CALCULATE_NUMBER_COLORS).getQuantizedColors();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks building a {@link ColorHistogram} in each histogram mode.
+ */
+@State(Scope.Benchmark)
+public class ColorHistogramBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"64", "192", "512"})
+    public int size;
+
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPixels = BenchmarkImages.load(image, size).pixels;
+    }
+
+    @Benchmark
+    public ColorHistogram exact() {
+        return new ColorHistogram(mPixels);
+    }
+
+    @Benchmark
+    public ColorHistogram bucketed() {
+        return ColorHistogram.fromBucketedPixels(mPixels);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link ColorUtils#calculateMinimumAlpha(int, int, float)} for white and black text
+ * over a fixed set of random opaque backgrounds.
+ */
+@State(Scope.Benchmark)
+public class ColorUtilsBenchmark {
+
+    private static final int BACKGROUND_COUNT = 256;
+
+    private int[] mBackgrounds;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        mBackgrounds = new int[BACKGROUND_COUNT];
+        for (int i = 0; i < BACKGROUND_COUNT; i++) {
+            mBackgrounds[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public void calculateMinimumAlpha(Blackhole blackhole) {
+        for (int background : mBackgrounds) {
+            blackhole.consume(ColorUtils.calculateMinimumAlpha(ColorUtils.WHITE, background, 4.5f));
+            blackhole.consume(ColorUtils.calculateMinimumAlpha(ColorUtils.BLACK, background, 3.0f));
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks {@link DefaultGenerator#generate(List)} over the swatches of each image, with the
+ * built in targets alone and with extra accent targets.
+ */
+@State(Scope.Benchmark)
+public class DefaultGeneratorBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"64", "192", "512"})
+    public int size;
+
+    @Param({"0", "4"})
+    public int extraTargets;
+
+    private List<ActionPalette.Swatch> mSwatches;
+    private final List<PaletteTarget> mTargets = new ArrayList<PaletteTarget>();
+    private final PaletteContext mContext = new PaletteContext();
+
+    @Setup
+    public void setUp() throws IOException {
+        final int[] pixels = BenchmarkImages.load(image, size).pixels;
+        mSwatches = ColorCutQuantizer.fromPixels(pixels,
+                ActionPalette.DEFAULT_CALCULATE_NUMBER_COLORS, ActionPalette.HISTOGRAM_MODE_EXACT)
+                .getQuantizedColors();
+
+        mTargets.clear();
+        for (int i = 0; i < extraTargets; i++) {
+            // Accents spread across the lightness range, sharing swatches with the defaults
+            final float lightness = (i + 1) / (float) (extraTargets + 1);
+            mTargets.add(new PaletteTarget.Builder()
+                    .setLightness(lightness, 0f, 1f)
+                    .setSaturation(0.8f, 0.2f, 1f)
+                    .setExclusive(false)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public DefaultGenerator generate() {
+        final DefaultGenerator generator = new DefaultGenerator(mTargets);
+        generator.generate(mSwatches, mContext);
+        return generator;
+    }
+
+}
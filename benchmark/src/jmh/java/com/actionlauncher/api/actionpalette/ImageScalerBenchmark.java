@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks scaling a large image down to
+ * {@link ActionPalette#DEFAULT_RESIZE_BITMAP_MAX_DIMENSION} with each resize filter. The
+ * {@code scaledCopy} baseline samples into a newly allocated image and then copies it into the
+ * context's buffer, as {@code Bitmap.createScaledBitmap()} followed by {@code getPixels()} did.
+ */
+@State(Scope.Benchmark)
+public class ImageScalerBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg"})
+    public String image;
+
+    @Param({"2048"})
+    public int size;
+
+    private BenchmarkImages mImage;
+    private PaletteContext mContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mImage = BenchmarkImages.load(image, size);
+        mContext = new PaletteContext();
+    }
+
+    @Benchmark
+    public ImageScaler.ScaledImage scaleNearest() {
+        return ImageScaler.scalePixels(mImage.pixels, mImage.width, mImage.height,
+                ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION,
+                ActionPalette.RESIZE_FILTER_NEAREST, mContext);
+    }
+
+    @Benchmark
+    public ImageScaler.ScaledImage scaleBox() {
+        return ImageScaler.scalePixels(mImage.pixels, mImage.width, mImage.height,
+                ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION,
+                ActionPalette.RESIZE_FILTER_BOX, mContext);
+    }
+
+    @Benchmark
+    public ImageScaler.ScaledImage scaledCopy() {
+        final ImageScaler.ScaledImage scaled = ImageScaler.scalePixels(mImage.pixels,
+                mImage.width, mImage.height, ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION,
+                ActionPalette.RESIZE_FILTER_NEAREST, new PaletteContext());
+        final int size = scaled.width * scaled.height;
+        final int[] pixels = mContext.getPixelBuffer(size);
+        System.arraycopy(scaled.pixels, 0, pixels, 0, size);
+        return new ImageScaler.ScaledImage(pixels, scaled.width, scaled.height);
+    }
+
+}
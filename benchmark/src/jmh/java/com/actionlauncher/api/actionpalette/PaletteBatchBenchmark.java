@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmarks generating the palettes of a catalogue of 16 photos with
+ * {@link ActionPalette#generateAll} on 1, 2 and 4 workers. Each operation is a whole batch, so
+ * throughput should grow with the number of workers up to the number of cores.
+ */
+@State(Scope.Benchmark)
+public class PaletteBatchBenchmark {
+
+    private static final String[] PHOTOS = {
+            "kepler-01.jpg", "kepler-02.jpg", "kepler-03.jpg", "starrynight.jpg"
+    };
+    private static final int BATCH_SIZE = 16;
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"512"})
+    public int size;
+
+    private final List<BenchmarkImages> mImages = new ArrayList<BenchmarkImages>();
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mImages.add(BenchmarkImages.load(PHOTOS[i % PHOTOS.length], size));
+        }
+        mExecutor = Executors.newFixedThreadPool(workers);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public List<ActionPalette> generateAll() throws InterruptedException, ExecutionException {
+        final List<ActionPalette.Builder> builders =
+                new ArrayList<ActionPalette.Builder>(mImages.size());
+        for (BenchmarkImages image : mImages) {
+            builders.add(ActionPalette.fromPixels(image.pixels, image.width, image.height));
+        }
+        return ActionPalette.generateAll(builders, mExecutor, workers, null).get();
+    }
+
+}
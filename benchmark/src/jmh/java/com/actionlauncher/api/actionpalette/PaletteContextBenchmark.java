@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks generating a whole {@link ActionPalette} from a pixel array, with and without a
+ * reused {@link PaletteContext}. The gc profiler's {@code gc.alloc.rate.norm} shows how much
+ * each generation allocates.
+ */
+@State(Scope.Benchmark)
+public class PaletteContextBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"512"})
+    public int size;
+
+    @Param({"" + ActionPalette.HISTOGRAM_MODE_EXACT, "" + ActionPalette.HISTOGRAM_MODE_BUCKETED})
+    public int histogramMode;
+
+    private BenchmarkImages mImage;
+    private PaletteContext mContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mImage = BenchmarkImages.load(image, size);
+        mContext = new PaletteContext();
+    }
+
+    @Benchmark
+    public ActionPalette generate() {
+        return ActionPalette.fromPixels(mImage.pixels, mImage.width, mImage.height)
+                .histogramMode(histogramMode)
+                .generate();
+    }
+
+    @Benchmark
+    public ActionPalette generateWithContext() {
+        return ActionPalette.fromPixels(mImage.pixels, mImage.width, mImage.height)
+                .histogramMode(histogramMode)
+                .context(mContext)
+                .generate();
+    }
+
+}
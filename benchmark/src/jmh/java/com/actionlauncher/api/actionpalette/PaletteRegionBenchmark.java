@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks generating the palettes of the whole image and of three strips of it (the status
+ * bar, the center and the dock), with {@link ActionPalette.Builder#generateRegions(List)}
+ * compared with cropping the image and generating each palette separately.
+ */
+@State(Scope.Benchmark)
+public class PaletteRegionBenchmark {
+
+    private static final List<PaletteRegion> REGIONS = Arrays.asList(
+            new PaletteRegion("whole", 0f, 0f, 1f, 1f),
+            new PaletteRegion("statusBar", 0f, 0f, 1f, 0.05f),
+            new PaletteRegion("center", 0f, 0.3f, 1f, 0.7f),
+            new PaletteRegion("dock", 0f, 0.85f, 1f, 1f));
+
+    @Param({"kepler-01.jpg", "starrynight.jpg"})
+    public String image;
+
+    @Param({"192"})
+    public int size;
+
+    private BenchmarkImages mImage;
+    private int[][] mCrops;
+    private int[] mCropWidths;
+    private int[] mCropHeights;
+    private PaletteContext mContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mImage = BenchmarkImages.load(image, size);
+        mContext = new PaletteContext();
+
+        mCrops = new int[REGIONS.size()][];
+        mCropWidths = new int[REGIONS.size()];
+        mCropHeights = new int[REGIONS.size()];
+        for (int i = 0; i < REGIONS.size(); i++) {
+            final PaletteRegion region = REGIONS.get(i);
+            final int left = region.getLeftPixel(mImage.width);
+            final int top = region.getTopPixel(mImage.height);
+            final int width = region.getRightPixel(mImage.width) - left;
+            final int height = region.getBottomPixel(mImage.height) - top;
+            mCrops[i] = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(mImage.pixels, (top + y) * mImage.width + left,
+                        mCrops[i], y * width, width);
+            }
+            mCropWidths[i] = width;
+            mCropHeights[i] = height;
+        }
+    }
+
+    @Benchmark
+    public Map<String, ActionPalette> generateRegions() {
+        return ActionPalette.fromPixels(mImage.pixels, mImage.width, mImage.height)
+                .context(mContext)
+                .generateRegions(REGIONS);
+    }
+
+    @Benchmark
+    public void generateCrops(Blackhole blackhole) {
+        for (int i = 0; i < mCrops.length; i++) {
+            blackhole.consume(ActionPalette.fromPixels(mCrops[i], mCropWidths[i], mCropHeights[i])
+                    .context(mContext)
+                    .generate());
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks keeping a palette up to date with animated content, where a small sprite moves
+ * across an image each frame. {@link PaletteTracker} is compared with generating a bucketed
+ * palette from scratch for every frame.
+ */
+@State(Scope.Benchmark)
+public class PaletteTrackerBenchmark {
+
+    private static final int SPRITE_SIZE = 24;
+
+    @Param({"kepler-01.jpg", "starrynight.jpg"})
+    public String image;
+
+    @Param({"192"})
+    public int size;
+
+    private BenchmarkImages mImage;
+    private int[] mFrame;
+    private int mSpriteX;
+    private int mSpriteY;
+    private PaletteTracker mTracker;
+    private PaletteContext mContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mImage = BenchmarkImages.load(image, size);
+        mFrame = mImage.pixels.clone();
+        mTracker = new PaletteTracker(mImage.width, mImage.height);
+        mTracker.updatePixels(mFrame);
+        mContext = new PaletteContext();
+    }
+
+    @Benchmark
+    public ActionPalette trackerUpdate() {
+        nextFrame();
+        mTracker.updatePixels(mFrame);
+        return mTracker.getPalette();
+    }
+
+    @Benchmark
+    public ActionPalette generateEachFrame() {
+        nextFrame();
+        return ActionPalette.fromPixels(mFrame, mImage.width, mImage.height)
+                .histogramMode(ActionPalette.HISTOGRAM_MODE_BUCKETED)
+                .context(mContext)
+                .generate();
+    }
+
+    private void nextFrame() {
+        drawSprite(false);
+        mSpriteX = (mSpriteX + 3) % (mImage.width - SPRITE_SIZE);
+        mSpriteY = (mSpriteY + 2) % (mImage.height - SPRITE_SIZE);
+        drawSprite(true);
+    }
+
+    private void drawSprite(boolean visible) {
+        final int width = mImage.width;
+        for (int y = mSpriteY; y < mSpriteY + SPRITE_SIZE; y++) {
+            for (int x = mSpriteX; x < mSpriteX + SPRITE_SIZE; x++) {
+                final int i = y * width + x;
+                // The sprite is the inverse of the image beneath it
+                mFrame[i] = visible ? mImage.pixels[i] ^ 0x00FFFFFF : mImage.pixels[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks generating the palettes of five pan positions, each showing a 1.8th of the image's
+ * width, with {@link ActionPalette.Builder#generatePanPalettes(float, int)} compared with
+ * cropping the image for each position, and with generating the single palette of the whole
+ * image.
+ */
+@State(Scope.Benchmark)
+public class PanPalettesBenchmark {
+
+    private static final float WINDOW_WIDTH = 1 / 1.8f;
+    private static final int POSITION_COUNT = 5;
+
+    @Param({"kepler-01.jpg", "starrynight.jpg"})
+    public String image;
+
+    @Param({"192"})
+    public int size;
+
+    private BenchmarkImages mImage;
+    private int[][] mCrops;
+    private int mCropWidth;
+    private PaletteContext mContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mImage = BenchmarkImages.load(image, size);
+        mContext = new PaletteContext();
+
+        mCropWidth = Math.round(WINDOW_WIDTH * mImage.width);
+        mCrops = new int[POSITION_COUNT][mCropWidth * mImage.height];
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            final int left = Math.round((mImage.width - mCropWidth) * i
+                    / (float) (POSITION_COUNT - 1));
+            for (int y = 0; y < mImage.height; y++) {
+                System.arraycopy(mImage.pixels, y * mImage.width + left,
+                        mCrops[i], y * mCropWidth, mCropWidth);
+            }
+        }
+    }
+
+    @Benchmark
+    public ActionPalette[] generatePanPalettes() {
+        return ActionPalette.fromPixels(mImage.pixels, mImage.width, mImage.height)
+                .context(mContext)
+                .generatePanPalettes(WINDOW_WIDTH, POSITION_COUNT);
+    }
+
+    @Benchmark
+    public void generateCrops(Blackhole blackhole) {
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            blackhole.consume(ActionPalette.fromPixels(mCrops[i], mCropWidth, mImage.height)
+                    .histogramMode(ActionPalette.HISTOGRAM_MODE_BUCKETED)
+                    .context(mContext)
+                    .generate());
+        }
+    }
+
+    @Benchmark
+    public ActionPalette generateWholeImage() {
+        return ActionPalette.fromPixels(mImage.pixels, mImage.width, mImage.height)
+                .histogramMode(ActionPalette.HISTOGRAM_MODE_BUCKETED)
+                .context(mContext)
+                .generate();
+    }
+
+}
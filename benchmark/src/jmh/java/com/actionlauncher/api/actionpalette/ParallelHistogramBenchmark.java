@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks building a {@link ColorHistogram} of full resolution images serially and on a
+ * {@link ForkJoinPool} with one worker per available processor.
+ */
+@State(Scope.Benchmark)
+public class ParallelHistogramBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"1920", "3840"})
+    public int size;
+
+    @Param({"0", "1"})
+    public int histogramMode;
+
+    private int[] mPixels;
+    private ForkJoinPool mPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPixels = BenchmarkImages.load(image, size).pixels;
+        mPool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public ColorHistogram serial() {
+        return ColorHistogram.fromPixels(mPixels, histogramMode, null);
+    }
+
+    @Benchmark
+    public ColorHistogram parallel() {
+        return ColorHistogram.fromPixels(mPixels, histogramMode, mPool);
+    }
+
+}
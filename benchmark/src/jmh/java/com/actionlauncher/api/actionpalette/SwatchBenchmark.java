@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Benchmarks generating the title and body text colors of each swatch of an image. The text
+ * colors are computed when an {@link ActionPalette.Swatch} is created, so a new one is created per
+ * swatch on each invocation.
+ */
+@State(Scope.Benchmark)
+public class SwatchBenchmark {
+
+    @Param({"kepler-01.jpg", "starrynight.jpg", BenchmarkImages.FLAT})
+    public String image;
+
+    @Param({"64", "192", "512"})
+    public int size;
+
+    private int[] mColors;
+    private int[] mPopulations;
+
+    @Setup
+    public void setUp() throws IOException {
+        final int[] pixels = BenchmarkImages.load(image, size).pixels;
+        final List<ActionPalette.Swatch> swatches = ColorCutQuantizer.fromPixels(pixels,
+                ActionPalette.DEFAULT_CALCULATE_NUMBER_COLORS, ActionPalette.HISTOGRAM_MODE_EXACT)
+                .getQuantizedColors();
+
+        mColors = new int[swatches.size()];
+        mPopulations = new int[swatches.size()];
+        for (int i = 0; i < swatches.size(); i++) {
+            mColors[i] = swatches.get(i).getRgb();
+            mPopulations[i] = swatches.get(i).getPopulation();
+        }
+    }
+
+    @Benchmark
+    public void textColors(Blackhole blackhole) {
+        for (int i = 0; i < mColors.length; i++) {
+            final ActionPalette.Swatch swatch =
+                    new ActionPalette.Swatch(mColors[i], mPopulations[i]);
+            blackhole.consume(swatch.getTitleTextColor());
+            blackhole.consume(swatch.getBodyTextColor());
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that each palette a {@link ActionPalette.Builder} generates is independent of the
+ * palettes it generated before.
+ */
+public class ActionPaletteTest {
+
+    private static final int SIZE = 16;
+    private static final int RED = 0xffe53935;
+    private static final int BLUE = 0xff1e88e5;
+    // Too light to be dark and too dark to be light, too saturated to be muted and less vibrant
+    // than RED, so none of the built in targets pick it
+    private static final int STEEL_BLUE = 0xff337fcc;
+
+    @Test
+    public void targetAddedAfterGenerateIsPicked() {
+        final int[] pixels = image(RED);
+        Arrays.fill(pixels, 0, pixels.length / 2, STEEL_BLUE);
+        final ActionPalette.Builder builder = new ActionPalette.Builder(pixels, SIZE, SIZE);
+        builder.generate();
+
+        final PaletteTarget target = new PaletteTarget.Builder()
+                .setLightness(0.5f, 0.45f, 0.55f)
+                .setSaturation(0.6f, 0.5f, 0.7f)
+                .build();
+        builder.addTarget(target);
+
+        assertEquals(STEEL_BLUE, builder.generate().getSwatchForTarget(target).getRgb());
+    }
+
+    @Test
+    public void laterGenerateKeepsEarlierPalettesSwatches() {
+        final int[] pixels = image(RED);
+        final ActionPalette.Builder builder = new ActionPalette.Builder(pixels, SIZE, SIZE);
+        final ActionPalette redPalette = builder.generate();
+
+        // The builder reads the pixels each time it generates
+        Arrays.fill(pixels, BLUE);
+        final ActionPalette bluePalette = builder.generate();
+
+        assertEquals(RED, redPalette.getVibrantSwatch().getRgb());
+        assertEquals(BLUE, bluePalette.getVibrantSwatch().getRgb());
+    }
+
+    private static int[] image(int color) {
+        final int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+}
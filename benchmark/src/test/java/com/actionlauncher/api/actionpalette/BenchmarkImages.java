@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The corpus of images used by the benchmarks and tests.
+ * <p>
+ * Photographic content is read from the demo app's assets. Flat content is generated, and is made
+ * of a handful of solid blocks similar to a material-style wallpaper.
+ */
+final class BenchmarkImages {
+
+    static final String FLAT = "flat";
+
+    private static final String ASSETS_PROPERTY = "benchmark.assets";
+    private static final String DEFAULT_ASSETS_DIR = "../main/src/main/assets";
+
+    private static final int[] FLAT_COLORS = {
+            0xFF263238, 0xFF37474F, 0xFF00796B, 0xFF009688, 0xFFFFC107, 0xFFFF5722, 0xFFECEFF1
+    };
+
+    final int[] pixels;
+    final int width;
+    final int height;
+
+    BenchmarkImages(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Load {@code name}, scaled so that it's largest dimension is {@code maxDimension}.
+     *
+     * @param name either {@link #FLAT} or the file name of a photo in the demo app's assets
+     */
+    static BenchmarkImages load(String name, int maxDimension) throws IOException {
+        if (FLAT.equals(name)) {
+            return flat(maxDimension, maxDimension * 9 / 16);
+        }
+
+        final File file = new File(System.getProperty(ASSETS_PROPERTY, DEFAULT_ASSETS_DIR), name);
+        final BufferedImage photo = ImageIO.read(file);
+        if (photo == null) {
+            throw new IOException("Unable to read " + file);
+        }
+
+        final float scaleRatio = maxDimension
+                / (float) Math.max(photo.getWidth(), photo.getHeight());
+        final int width = Math.max(1, Math.round(photo.getWidth() * scaleRatio));
+        final int height = Math.max(1, Math.round(photo.getHeight() * scaleRatio));
+
+        final BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(photo, 0, 0, width, height, null);
+        graphics.dispose();
+
+        return new BenchmarkImages(scaled.getRGB(0, 0, width, height, null, 0, width),
+                width, height);
+    }
+
+    private static BenchmarkImages flat(int width, int height) {
+        final Random random = new Random(42);
+        final int[] pixels = new int[width * height];
+
+        // Start with a background, then overlay some solid blocks
+        final int background = FLAT_COLORS[0];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = background;
+        }
+        for (int block = 0; block < 12; block++) {
+            final int color = FLAT_COLORS[1 + random.nextInt(FLAT_COLORS.length - 1)];
+            final int left = random.nextInt(width);
+            final int top = random.nextInt(height);
+            final int right = Math.min(width, left + 1 + random.nextInt(width / 2 + 1));
+            final int bottom = Math.min(height, top + 1 + random.nextInt(height / 2 + 1));
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    pixels[y * width + x] = color;
+                }
+            }
+        }
+
+        return new BenchmarkImages(pixels, width, height);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that once a {@link PaletteContext} has grown to fit an image, generating a palette with
+ * it only allocates the palette itself, rather than the scratch buffers of every pass.
+ */
+public class PaletteContextTest {
+
+    private static final String[] IMAGES = {"kepler-01.jpg", "starrynight.jpg",
+            BenchmarkImages.FLAT};
+    private static final int SIZE = 512;
+
+    // The generations which grow the context and compile the engine are not measured
+    private static final int WARM_UP_GENERATIONS = 20;
+    private static final int MEASURED_GENERATIONS = 20;
+
+    // A palette and its swatches take around 4 KB. Without a context each generation allocates
+    // between 0.5 and 1.3 MB at this size.
+    private static final long MAX_BYTES_WITH_CONTEXT = 16 * 1024;
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void generateWithContextOnlyAllocatesThePalette() throws IOException {
+        for (String name : IMAGES) {
+            final BenchmarkImages image = BenchmarkImages.load(name, SIZE);
+            for (int mode : new int[]{ActionPalette.HISTOGRAM_MODE_EXACT,
+                    ActionPalette.HISTOGRAM_MODE_BUCKETED}) {
+                final PaletteContext context = new PaletteContext();
+                final long withContext = bytesPerGeneration(image, mode, context);
+                final long withoutContext = bytesPerGeneration(image, mode, null);
+
+                final String description = name + " in histogram mode " + mode
+                        + " allocated " + withContext + " bytes with a context and "
+                        + withoutContext + " without";
+                assertTrue(description, withContext <= MAX_BYTES_WITH_CONTEXT);
+                assertTrue(description, withContext * 10 < withoutContext);
+            }
+        }
+    }
+
+    private long bytesPerGeneration(BenchmarkImages image, int mode, PaletteContext context) {
+        for (int i = 0; i < WARM_UP_GENERATIONS; i++) {
+            generate(image, mode, context);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = mThreadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_GENERATIONS; i++) {
+            generate(image, mode, context);
+        }
+        return (mThreadBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_GENERATIONS;
+    }
+
+    private static ActionPalette generate(BenchmarkImages image, int mode,
+            PaletteContext context) {
+        final ActionPalette.Builder builder = ActionPalette
+                .fromPixels(image.pixels, image.width, image.height)
+                .histogramMode(mode);
+        if (context != null) {
+            builder.context(context);
+        }
+        return builder.generate();
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Chris Lacy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actionlauncher.api.actionpalette;
+
+import com.actionlauncher.api.LiveWallpaperInfo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the octree and k-means quantizers lead {@link DefaultGenerator} to much the same
+ * swatches as the default median cut, over the demo app's photos and generated images.
+ * <p>
+ * Median cut splits boxes by volume to single out distinct colors, while the other engines
+ * average towards the most representative ones, so their picks are expected to differ often.
+ * Each engine's thresholds sit a few points below what it measured when they were written, so
+ * that a change which makes its picks noticeably worse fails. For comparison, median cut run on
+ * a different image, which doesn't track the image at all, agrees on 2-3% of the picks, misses
+ * 30-33% of them, and its picks have a median difference of about 70.
+ */
+public class QuantizerAgreementTest {
+
+    private static final String[] PHOTOS = {"kepler-01.jpg", "kepler-02.jpg", "kepler-03.jpg",
+            "starrynight.jpg"};
+    private static final int SIZE = 192;
+    private static final int SYNTHETIC_IMAGE_COUNT = 40;
+
+    // Two colors closer than this CIE76 difference are treated as the same pick
+    private static final double AGREEMENT_DISTANCE = 10;
+    // The largest median difference between the two engines' picks for the same target. It was
+    // between 12 and 17 for both engines in both histogram modes.
+    private static final double MAX_MEDIAN_DISTANCE = 20;
+    // The largest fraction of the picks which only one of the two engines may find. It was
+    // between 18% and 20% for both engines in both histogram modes.
+    private static final double MAX_MISSING = 0.22;
+
+    @Test
+    public void octreeAgreesWithMedianCut() throws IOException {
+        // The octree agreed on 45% of the picks in exact mode and 40% in bucketed mode
+        checkAgreement(ActionPalette.QUANTIZER_OCTREE, 0.42, 0.37);
+    }
+
+    @Test
+    public void kMeansAgreesWithMedianCut() throws IOException {
+        // K-means agreed on 44% of the picks in exact mode and 38% in bucketed mode
+        checkAgreement(ActionPalette.QUANTIZER_KMEANS, 0.41, 0.35);
+    }
+
+    /**
+     * @param minExactAgreement    the fraction of the picks found by both engines which must
+     *                             agree in {@link ActionPalette#HISTOGRAM_MODE_EXACT}
+     * @param minBucketedAgreement the same for {@link ActionPalette#HISTOGRAM_MODE_BUCKETED}
+     */
+    private static void checkAgreement(ActionPalette.Quantizer quantizer,
+            double minExactAgreement, double minBucketedAgreement) throws IOException {
+        final List<BenchmarkImages> images = loadImages();
+        for (int mode : new int[]{ActionPalette.HISTOGRAM_MODE_EXACT,
+                ActionPalette.HISTOGRAM_MODE_BUCKETED}) {
+            final double minAgreement = (mode == ActionPalette.HISTOGRAM_MODE_EXACT)
+                    ? minExactAgreement : minBucketedAgreement;
+            final List<Double> distances = new ArrayList<Double>();
+            int picks = 0;
+            int agreed = 0;
+            for (BenchmarkImages image : images) {
+                final ActionPalette.Swatch[] expected = picks(ActionPalette
+                        .fromPixels(image.pixels, image.width, image.height)
+                        .histogramMode(mode)
+                        .generate());
+                final ActionPalette.Swatch[] actual = picks(ActionPalette
+                        .fromPixels(image.pixels, image.width, image.height)
+                        .histogramMode(mode)
+                        .quantizer(quantizer)
+                        .generate());
+
+                for (int i = 0; i < expected.length; i++) {
+                    if (expected[i] == null && actual[i] == null) {
+                        continue;
+                    }
+                    picks++;
+                    if (expected[i] != null && actual[i] != null) {
+                        final double distance = LiveWallpaperInfo.colorDistance(
+                                expected[i].getRgb(), actual[i].getRgb());
+                        distances.add(distance);
+                        if (distance <= AGREEMENT_DISTANCE) {
+                            agreed++;
+                        }
+                    }
+                }
+            }
+
+            Collections.sort(distances);
+            final int bothPresent = distances.size();
+            final double medianDistance = distances.get(bothPresent / 2);
+            final String description = "In histogram mode " + mode + ", " + agreed + " of "
+                    + bothPresent + " picks agreed, their median difference was "
+                    + medianDistance + ", and " + (picks - bothPresent) + " of " + picks
+                    + " were only found by one engine";
+            assertTrue(description, agreed >= minAgreement * bothPresent);
+            assertTrue(description, medianDistance <= MAX_MEDIAN_DISTANCE);
+            assertTrue(description, picks - bothPresent <= MAX_MISSING * picks);
+        }
+    }
+
+    private static List<BenchmarkImages> loadImages() throws IOException {
+        final List<BenchmarkImages> images = new ArrayList<BenchmarkImages>();
+        for (String photo : PHOTOS) {
+            images.add(BenchmarkImages.load(photo, SIZE));
+        }
+        images.add(BenchmarkImages.load(BenchmarkImages.FLAT, SIZE));
+
+        final Random random = new Random(11);
+        for (int i = 0; i < SYNTHETIC_IMAGE_COUNT; i++) {
+            images.add(blocks(random));
+        }
+        return images;
+    }
+
+    /**
+     * @return an image of a few colored bands, each with some noise.
+     */
+    private static BenchmarkImages blocks(Random random) {
+        final int width = 100 + random.nextInt(200);
+        final int height = 100 + random.nextInt(200);
+        final int[] colors = new int[2 + random.nextInt(12)];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt(1 << 24);
+        }
+
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            final int x = i % width;
+            final int y = i / width;
+            final int color = colors[(x * colors.length / width + y * 3 / height)
+                    % colors.length];
+            final int noise = random.nextInt(30) - 15;
+            pixels[i] = ColorUtils.argb(255, clamp(ColorUtils.red(color) + noise),
+                    clamp(ColorUtils.green(color) + noise), clamp(ColorUtils.blue(color) + noise));
+        }
+        return new BenchmarkImages(pixels, width, height);
+    }
+
+    private static int clamp(int component) {
+        return Math.max(0, Math.min(255, component));
+    }
+
+    private static ActionPalette.Swatch[] picks(ActionPalette palette) {
+        return new ActionPalette.Swatch[]{
+                palette.getVibrantSwatch(), palette.getLightVibrantSwatch(),
+                palette.getDarkVibrantSwatch(), palette.getMutedSwatch(),
+                palette.getLightMutedSwatch(), palette.getDarkMutedSwatch()
+        };
+    }
+
+}
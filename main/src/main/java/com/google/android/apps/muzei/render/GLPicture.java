@@ -22,6 +22,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.opengl.GLES20;
 
+import com.actionlauncher.api.actionpalette.ActionPalette;
+import com.actionlauncher.api.actionpalette.PaletteAccumulator;
 import com.google.android.apps.muzei.util.MathUtil;
 
 import java.nio.FloatBuffer;
@@ -110,6 +112,16 @@ class GLPicture {
     }
 
     public GLPicture(BitmapRegionLoader bitmapRegionLoader, int maxHeight) {
+        this(bitmapRegionLoader, maxHeight, null);
+    }
+
+    /**
+     * Like {@link #GLPicture(BitmapRegionLoader, int)}, but also adds each decoded tile to
+     * {@code paletteAccumulator} (if not null), so that a palette can be generated without
+     * decoding the image again.
+     */
+    public GLPicture(BitmapRegionLoader bitmapRegionLoader, int maxHeight,
+            PaletteAccumulator paletteAccumulator) {
         if (bitmapRegionLoader == null || maxHeight == 0) {
             return;
         }
@@ -138,6 +150,10 @@ class GLPicture {
 
         mTextureHandles = new int[mCols * mRows];
 
+        // Only sample as many pixels as the palette would use for a resized bitmap
+        int paletteSampleStep = Math.max(1,
+                mHeight / ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION);
+
         Bitmap tileBitmap = Bitmap.createBitmap(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
         Rect rect = new Rect();
         BitmapFactory.Options options = new BitmapFactory.Options();
@@ -157,6 +173,9 @@ class GLPicture {
                 rect.intersect(0, 0, originalWidth, originalHeight);
                 Bitmap useBitmap = bitmapRegionLoader.decodeRegion(rect, options);
                 if (useBitmap != null) {
+                    if (paletteAccumulator != null) {
+                        paletteAccumulator.addRegion(useBitmap, paletteSampleStep);
+                    }
                     mTextureHandles[y * mCols + x] = GLUtil.loadTexture(useBitmap);
                     if (useBitmap != tileBitmap) {
                         useBitmap.recycle();
@@ -34,7 +34,12 @@ import android.util.DisplayMetrics;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.Interpolator;
 
+import com.actionlauncher.api.LiveWallpaperInfo;
 import com.actionlauncher.api.LiveWallpaperSource;
+import com.actionlauncher.api.PaletteCache;
+import com.actionlauncher.api.PanPalettes;
+import com.actionlauncher.api.actionpalette.ActionPalette;
+import com.actionlauncher.api.actionpalette.PaletteAccumulator;
 import com.google.android.apps.muzei.ArtDetailViewport;
 import com.google.android.apps.muzei.event.ArtworkSizeChangedEvent;
 import com.google.android.apps.muzei.event.SwitchingPhotosStateChangedEvent;
@@ -57,6 +62,9 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
     private static final int CROSSFADE_ANIMATION_DURATION = 750;
     private static final int BLUR_ANIMATION_DURATION = 750;
 
+    // Images which pan by less than this many screen widths are themed from the whole image
+    private static final float MIN_PAN_SCREEN_WIDTHS = 1.1f;
+
     public static final int DEFAULT_BLUR = 0; // max 500
     public static final int DEFAULT_GREY = 0; // max 500
     public static final int DEMO_DIM = 64;
@@ -93,6 +101,9 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
     private volatile RectF mCurrentViewport = new RectF(); // [-1, -1] to [1, 1], flipped
 
     private Context mContext;
+    private PaletteCache mPaletteCache;
+    private volatile PanPalettes mPanPalettes;
+    private volatile int mPanPosition = -1;
 
     private boolean mIsBlurred = true;
     private boolean mBlurRelatedToArtDetailMode = false;
@@ -103,6 +114,7 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
     public MuzeiBlurRenderer(Context context, Callbacks callbacks) {
         mContext = context;
         mCallbacks = callbacks;
+        mPaletteCache = PaletteCache.withDiskCache(context);
 
         mBlurKeyframes = getNumberOfKeyframes();
         mBlurAnimator = TickingFloatAnimator.create().from(mBlurKeyframes);
@@ -233,6 +245,27 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
     public void setNormalOffsetX(float x) {
         mNormalOffsetX = MathUtil.constrain(0, 1, x);
         onViewportChanged();
+        publishPanPalette();
+    }
+
+    /**
+     * Publish the palette of the part of the image which is visible, if it has panned to a
+     * different position since it was last published.
+     */
+    private void publishPanPalette() {
+        final PanPalettes panPalettes = mPanPalettes;
+        if (panPalettes == null) {
+            return;
+        }
+        final int position = panPalettes.getPosition(mNormalOffsetX);
+        if (position == mPanPosition) {
+            return;
+        }
+        mPanPosition = position;
+        LiveWallpaperSource.with(mContext)
+                .loggingEnabled(false)
+                .setPanPalettes(panPalettes, mNormalOffsetX)
+                .run();
     }
 
     private void onViewportChanged() {
@@ -343,31 +376,72 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
                 rect.set(0, 0, originalWidth, originalHeight);
                 options.inSampleSize = ImageUtil.calculateSampleSize(originalHeight, 64);
                 Bitmap tempBitmap = bitmapRegionLoader.decodeRegion(rect, options);
-                try {
-                    LiveWallpaperSource.with(mContext)
-                            .loggingEnabled(false)
-                            .setBitmapSynchronous(tempBitmap)
-                            .run();
-                } catch (OutOfMemoryError outOfMemoryError) {
-                    // Palette generation was unable to process the Bitmap passed in to
-                    // setBitmapSynchronous(). Consider using a smaller image.
-                    // See ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION
-                } catch (IllegalArgumentException illegalArgumentEx) {
-                    // Raised during palette generation. Check your Bitmap.
-                } catch (IllegalStateException illegalStateException) {
-                    // Raised during palette generation. Check your Bitmap.
-                }
-
                 float darkness = ImageUtil.calculateDarkness(tempBitmap);
                 mDimAmount = mDemoMode
                         ? DEMO_DIM
                         : (int) (mMaxDim * ((1 - DIM_RANGE) + DIM_RANGE * Math.sqrt(darkness)));
+                // Identify the image from the same small bitmap, so that the palette of an image
+                // which has been shown before can be reused
+                String paletteCacheKey = null;
                 if (tempBitmap != null) {
+                    paletteCacheKey = PaletteCache.createKey(tempBitmap, originalWidth,
+                            originalHeight);
                     tempBitmap.recycle();
                 }
 
+                // If the image pans across the home screens, theme from the part which is visible
+                PanPalettes panPalettes = null;
+                try {
+                    panPalettes = generatePanPalettes(bitmapRegionLoader, paletteCacheKey);
+                } catch (OutOfMemoryError outOfMemoryError) {
+                    // Fall back to the palette of the whole image
+                } catch (IllegalArgumentException illegalArgumentEx) {
+                    // Fall back to the palette of the whole image
+                }
+                mPanPalettes = panPalettes;
+                mPanPosition = -1;
+
                 // Create the GLPicture objects
-                mPictures[0] = new GLPicture(bitmapRegionLoader, mHeight);
+                // Generate the palette from the tiles as they're decoded for the picture, rather
+                // than decoding the image again. There's no need if it's already cached. The
+                // entry is fetched now rather than checked for, as it could be trimmed before
+                // the tiles have been decoded.
+                LiveWallpaperInfo cachedInfo = null;
+                PaletteAccumulator paletteAccumulator = null;
+                if (panPalettes == null) {
+                    if (paletteCacheKey != null) {
+                        cachedInfo = mPaletteCache.get(paletteCacheKey);
+                    }
+                    if (cachedInfo == null) {
+                        paletteAccumulator
+                                = new PaletteAccumulator(ActionPalette.HISTOGRAM_MODE_BUCKETED);
+                    }
+                }
+                mPictures[0] = new GLPicture(bitmapRegionLoader, mHeight, paletteAccumulator);
+                try {
+                    if (panPalettes != null) {
+                        publishPanPalette();
+                    } else if (cachedInfo != null) {
+                        LiveWallpaperSource.with(mContext)
+                                .loggingEnabled(false)
+                                .setLiveWallpaperInfo(cachedInfo)
+                                .run();
+                    } else {
+                        LiveWallpaperSource.with(mContext)
+                                .loggingEnabled(false)
+                                .paletteCache(mPaletteCache)
+                                .setPaletteAccumulatorSynchronous(paletteAccumulator,
+                                        paletteCacheKey)
+                                .run();
+                    }
+                } catch (OutOfMemoryError outOfMemoryError) {
+                    // Palette generation was unable to process the pixels passed in to
+                    // setPaletteAccumulatorSynchronous().
+                } catch (IllegalArgumentException illegalArgumentEx) {
+                    // Raised during palette generation. Check your Bitmap.
+                } catch (IllegalStateException illegalStateException) {
+                    // Raised during palette generation. Check your Bitmap.
+                }
                 if (mMaxPrescaledBlurPixels == 0 && mMaxGrey == 0) {
                     for (int f = 1; f <= mBlurKeyframes; f++) {
                         mPictures[f] = mPictures[0];
@@ -439,6 +513,65 @@ public class MuzeiBlurRenderer implements GLSurfaceView.Renderer {
             mCallbacks.requestRender();
         }
 
+        /**
+         * Generate the palettes of the part of the image which the viewport pans across, as
+         * {@link #recomputeTransformMatrices()} computes it, or return null if it barely pans.
+         * The palettes are cached, so an image which has been shown before isn't decoded again.
+         */
+        private PanPalettes generatePanPalettes(BitmapRegionLoader bitmapRegionLoader,
+                String paletteCacheKey) {
+            float screenToBitmapAspectRatio = mAspectRatio / mBitmapAspectRatio;
+            if (screenToBitmapAspectRatio == 0) {
+                return null;
+            }
+            float zoom = Math.max(1f, 1.15f * screenToBitmapAspectRatio);
+            float scaledBitmapToScreenAspectRatio = zoom / screenToBitmapAspectRatio;
+            float maxPanScreenWidths = Math.min(1.8f, scaledBitmapToScreenAspectRatio);
+            if (maxPanScreenWidths < MIN_PAN_SCREEN_WIDTHS) {
+                return null;
+            }
+
+            // How far the image pans depends on the screen, so it's part of the key
+            String panCacheKey = null;
+            if (paletteCacheKey != null) {
+                panCacheKey = paletteCacheKey + "-pan" + Math.round(maxPanScreenWidths * 100);
+                LiveWallpaperInfo cachedInfo = mPaletteCache.get(panCacheKey);
+                PanPalettes cachedPanPalettes = (cachedInfo != null)
+                        ? PanPalettes.fromLiveWallpaperInfo(cachedInfo)
+                        : null;
+                if (cachedPanPalettes != null) {
+                    return cachedPanPalettes;
+                }
+            }
+
+            // Only decode the part of the image which can be seen, at about the size the palette
+            // is generated at
+            int originalWidth = bitmapRegionLoader.getWidth();
+            int originalHeight = bitmapRegionLoader.getHeight();
+            float pannedWidth = maxPanScreenWidths / scaledBitmapToScreenAspectRatio;
+            int left = (int) (originalWidth * (1 - pannedWidth) / 2);
+            int top = (int) (originalHeight * (1 - 1 / zoom) / 2);
+            Rect rect = new Rect(left, top, originalWidth - left, originalHeight - top);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = ImageUtil.calculateSampleSize(
+                    Math.max(rect.width(), rect.height()),
+                    ActionPalette.DEFAULT_RESIZE_BITMAP_MAX_DIMENSION);
+            Bitmap bitmap = bitmapRegionLoader.decodeRegion(rect, options);
+            if (bitmap == null) {
+                return null;
+            }
+            PanPalettes panPalettes;
+            try {
+                panPalettes = PanPalettes.generate(bitmap, 1 / maxPanScreenWidths);
+            } finally {
+                bitmap.recycle();
+            }
+            if (panCacheKey != null) {
+                mPaletteCache.put(panCacheKey, panPalettes.toLiveWallpaperInfo());
+            }
+            return panPalettes;
+        }
+
         private void recomputeTransformMatrices() {
             float screenToBitmapAspectRatio = mAspectRatio / mBitmapAspectRatio;
             if (screenToBitmapAspectRatio == 0) {